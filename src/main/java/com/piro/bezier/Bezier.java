@@ -78,6 +78,27 @@ public class Bezier
         return new Vector3d(point.x,point.y);
     }
     
+    /**
+     * Evaluates this curve at the passed parameter without allocating.  Stores
+     * x and y at the passed offset of out.
+     */
+    void eval(double param, double[] out, int offset)
+    {
+        double x = 0;
+        double y = 0;
+        int numKnots = coord.length / 2;
+        
+        for (int i = 0; i < numKnots; i++)
+        {
+            double scale = bernstein(numKnots - 1, i, param);
+            x += coord[i * 2] * scale;
+            y += coord[i * 2 + 1] * scale;
+        }
+        
+        out[offset] = x;
+        out[offset + 1] = y;
+    }
+    
     /**
      * Calculates the bernstein polynomial for evaluating parametric bezier
      * @param numKnots - one less than number of knots in this curve hull
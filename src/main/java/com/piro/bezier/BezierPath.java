@@ -1,7 +1,9 @@
 package com.piro.bezier;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -13,8 +15,22 @@ public class BezierPath
     
     static final Matcher matchPoint = Pattern.compile("\\s*(\\d+)[^\\d]+(\\d+)\\s*").matcher("");
 
+    private static final Pattern matchPathCmd = Pattern.compile("([MmLlHhVvAaQqTtCcSsZz])|([-+]?((\\d*\\.\\d+)|(\\d+))([eE][-+]?\\d+)?)");
+
+    /** Tolerance of the arc length table relative to the length of the path */
+    private static final double ARC_LENGTH_TOLERANCE = 1e-4;
+
+    /** Maximum subdivision depth when flattening a segment */
+    private static final int MAX_DEPTH = 24;
+
     BezierListProducer path;
     
+    /** Length of the path at the end of each segment, built on demand */
+    private double[] segmentEnds;
+    
+    /** Arc length table, built on demand */
+    private Polyline arcLength;
+    
     /** Creates a new instance of Animate */
     public BezierPath()
     {
@@ -27,19 +43,21 @@ public class BezierPath
     public void parsePathString(String d) {
 
         this.path = new BezierListProducer();
+        this.segmentEnds = null;
+        this.arcLength = null;
 
         parsePathList(d);
     }
     
     protected void parsePathList(String list)
     {
-        final Matcher matchPathCmd = Pattern.compile("([MmLlHhVvAaQqTtCcSsZz])|([-+]?((\\d*\\.\\d+)|(\\d+))([eE][-+]?\\d+)?)").matcher(list);
+        final Matcher matcher = matchPathCmd.matcher(list);
 
         //Tokenize
         LinkedList<String> tokens = new LinkedList<String>();
-        while (matchPathCmd.find())
+        while (matcher.find())
         {
-            tokens.addLast(matchPathCmd.group());
+            tokens.addLast(matcher.group());
         }
 
         char curCmd = 'Z';
@@ -143,26 +161,286 @@ public class BezierPath
      */
     public Vector3d eval(float interp)
     {
-    	Vector3d point=new Vector3d(0, 0);// = new Vector3d();
-  
-        
+        double[] ends = segmentEnds();
         double curLength = path.curveLength * interp;
-        for (Iterator<Bezier> it = path.bezierSegs.iterator(); it.hasNext();)
+        
+        // first segment that ends behind the current length
+        int i = upperBound(ends, ends.length, curLength);
+        if (i == ends.length)
         {
-            Bezier bez = it.next();
-            
-            double bezLength = bez.getLength();
-            if (curLength < bezLength)
+            if (ends.length == 0)
             {
-                double param = curLength / bezLength;
-                point =bez.eval(param);
-                break;
+                return new Vector3d(0, 0);
             }
-            
-            curLength -= bezLength;
+            Vector2 end = path.bezierSegs.get(ends.length - 1).getFinalPoint(new Vector2());
+            return new Vector3d(end.x, end.y);
         }
         
-        return point;
+        double start = i == 0 ? 0 : ends[i - 1];
+        double param = (curLength - start) / path.bezierSegs.get(i).getLength();
+        return path.bezierSegs.get(i).eval(param);
+    }
+    
+    /**
+     * Samples this path at n points that are equally spaced along its arc
+     * length, from its start to its end point.  Stores x, y and z (always 0)
+     * per point in out.
+     */
+    public void sample(int n, double[] out)
+    {
+        if (out.length < n * 3)
+        {
+            throw new IllegalArgumentException("Output array too small for " + n + " points");
+        }
+        
+        Polyline table = arcLengthTable();
+        double total = table.total();
+        for (int i = 0; i < n; i++)
+        {
+            double s = n == 1 ? 0 : total * i / (n - 1);
+            table.eval(s, out, i * 3);
+            out[i * 3 + 2] = 0;
+        }
+    }
+    
+    /**
+     * Returns the arc length of this path.  Jumps between subpaths do not
+     * count.
+     */
+    public double getLength()
+    {
+        return arcLengthTable().total();
+    }
+    
+    /**
+     * Returns a polyline that deviates at most tolerance from this path.
+     * Segments are subdivided until they are flat, i.e., straight segments
+     * only contribute their end points.
+     */
+    public List<Vector3d> flatten(double tolerance)
+    {
+        Polyline polyline = flatten(tolerance, false);
+        List<Vector3d> points = new ArrayList<Vector3d>(polyline.size);
+        for (int i = 0; i < polyline.size; i++)
+        {
+            points.add(new Vector3d(polyline.x[i], polyline.y[i]));
+        }
+        return points;
+    }
+    
+    private double[] segmentEnds()
+    {
+        double[] ends = segmentEnds;
+        if (ends == null)
+        {
+            ends = new double[path.bezierSegs.size()];
+            double length = 0;
+            for (int i = 0; i < ends.length; i++)
+            {
+                length += path.bezierSegs.get(i).getLength();
+                ends[i] = length;
+            }
+            segmentEnds = ends;
+        }
+        return ends;
+    }
+    
+    private Polyline arcLengthTable()
+    {
+        Polyline table = arcLength;
+        if (table == null)
+        {
+            table = flatten(Math.max(path.curveLength * ARC_LENGTH_TOLERANCE, 1e-9), true);
+            arcLength = table;
+        }
+        return table;
+    }
+    
+    /**
+     * Flattens all segments.  Unless keepDuplicates is set, points that equal
+     * their predecessor are skipped.
+     */
+    private Polyline flatten(double tolerance, boolean keepDuplicates)
+    {
+        Polyline polyline = new Polyline();
+        for (int i = 0; i < path.bezierSegs.size(); i++)
+        {
+            float[] coord = path.bezierSegs.get(i).coord;
+            double[] ctrl = new double[coord.length];
+            for (int j = 0; j < coord.length; j++)
+            {
+                ctrl[j] = coord[j];
+            }
+            // start of the path or of a subpath
+            if (polyline.size == 0 || polyline.x[polyline.size - 1] != ctrl[0]
+                    || polyline.y[polyline.size - 1] != ctrl[1])
+            {
+                polyline.add(ctrl[0], ctrl[1], i, 0, false);
+            }
+            flatten(ctrl, 0, 1, tolerance, 0, i, polyline, keepDuplicates);
+        }
+        return polyline;
+    }
+    
+    private static void flatten(double[] ctrl, double t0, double t1, double tolerance, int depth,
+            int segment, Polyline out, boolean keepDuplicates)
+    {
+        int n = ctrl.length;
+        if (depth == MAX_DEPTH || isFlat(ctrl, tolerance))
+        {
+            if (keepDuplicates || out.x[out.size - 1] != ctrl[n - 2] || out.y[out.size - 1] != ctrl[n - 1])
+            {
+                out.add(ctrl[n - 2], ctrl[n - 1], segment, t1, true);
+            }
+            return;
+        }
+        
+        // de Casteljau subdivision at the middle
+        double[] left = new double[n];
+        double[] right = new double[n];
+        double[] tmp = ctrl.clone();
+        int numKnots = n / 2;
+        for (int level = 0; level < numKnots; level++)
+        {
+            int last = numKnots - 1 - level;
+            left[level * 2] = tmp[0];
+            left[level * 2 + 1] = tmp[1];
+            right[last * 2] = tmp[last * 2];
+            right[last * 2 + 1] = tmp[last * 2 + 1];
+            for (int j = 0; j < last; j++)
+            {
+                tmp[j * 2] = (tmp[j * 2] + tmp[j * 2 + 2]) / 2;
+                tmp[j * 2 + 1] = (tmp[j * 2 + 1] + tmp[j * 2 + 3]) / 2;
+            }
+        }
+        
+        double tm = (t0 + t1) / 2;
+        flatten(left, t0, tm, tolerance, depth + 1, segment, out, keepDuplicates);
+        flatten(right, tm, t1, tolerance, depth + 1, segment, out, keepDuplicates);
+    }
+    
+    /**
+     * Whether all control points are within tolerance of the chord.  The
+     * curve lies in the convex hull of its control points, i.e., then it
+     * is within tolerance of the chord, too.
+     */
+    private static boolean isFlat(double[] ctrl, double tolerance)
+    {
+        int n = ctrl.length;
+        double x0 = ctrl[0];
+        double y0 = ctrl[1];
+        double dx = ctrl[n - 2] - x0;
+        double dy = ctrl[n - 1] - y0;
+        double chord = dx * dx + dy * dy;
+        double tolerance2 = tolerance * tolerance;
+        for (int i = 2; i < n - 2; i += 2)
+        {
+            double px = ctrl[i] - x0;
+            double py = ctrl[i + 1] - y0;
+            // distance to the closest point of the chord
+            double f = chord == 0 ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / chord));
+            double ex = px - f * dx;
+            double ey = py - f * dy;
+            if (ex * ex + ey * ey > tolerance2)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Index of the first value greater than key among the first size values.
+     */
+    private static int upperBound(double[] values, int size, double key)
+    {
+        int low = 0;
+        int high = size;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= key)
+            {
+                low = mid + 1;
+            } else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * Flattened path with the cumulative arc length and the curve parameter
+     * of each point.
+     */
+    private final class Polyline
+    {
+        double[] x = new double[16];
+        double[] y = new double[16];
+        double[] length = new double[16];
+        double[] param = new double[16];
+        int[] segment = new int[16];
+        int size;
+        
+        void add(double px, double py, int seg, double t, boolean connected)
+        {
+            if (size == x.length)
+            {
+                int capacity = size * 2;
+                x = Arrays.copyOf(x, capacity);
+                y = Arrays.copyOf(y, capacity);
+                length = Arrays.copyOf(length, capacity);
+                param = Arrays.copyOf(param, capacity);
+                segment = Arrays.copyOf(segment, capacity);
+            }
+            double l = 0;
+            if (size > 0)
+            {
+                l = length[size - 1];
+                // jumps to subpaths do not add to the length
+                if (connected)
+                {
+                    l += Math.hypot(px - x[size - 1], py - y[size - 1]);
+                }
+            }
+            x[size] = px;
+            y[size] = py;
+            length[size] = l;
+            param[size] = t;
+            segment[size] = seg;
+            size++;
+        }
+        
+        double total()
+        {
+            return size == 0 ? 0 : length[size - 1];
+        }
+        
+        /**
+         * Evaluates the path at the specified arc length.
+         */
+        void eval(double s, double[] out, int offset)
+        {
+            if (size == 0)
+            {
+                out[offset] = 0;
+                out[offset + 1] = 0;
+                return;
+            }
+            int k = Math.min(Math.max(upperBound(length, size, s) - 1, 0), size - 2);
+            if (k < 0 || length[k + 1] == length[k])
+            {
+                int i = Math.max(k + 1, 0);
+                out[offset] = x[i];
+                out[offset + 1] = y[i];
+                return;
+            }
+            double f = Math.min(1, Math.max(0, (s - length[k]) / (length[k + 1] - length[k])));
+            int seg = segment[k + 1];
+            double t0 = segment[k] == seg ? param[k] : 0;
+            path.bezierSegs.get(seg).eval(t0 + f * (param[k + 1] - t0), out, offset);
+        }
     }
 
 }
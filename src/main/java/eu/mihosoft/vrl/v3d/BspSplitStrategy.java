@@ -0,0 +1,148 @@
+package eu.mihosoft.vrl.v3d;
+
+import java.util.List;
+
+/**
+ * Built-in split plane heuristics for the BSP tree used by the CSG operations.
+ *
+ * @see CSG#setDefaultSplitStrategy(IBspSplitStrategy)
+ * @see CSG#setSplitStrategy(IBspSplitStrategy)
+ */
+public enum BspSplitStrategy implements IBspSplitStrategy {
+
+    /**
+     * Partitions with the plane of the first polygon (the original csg.js
+     * behavior).
+     */
+    FIRST_POLYGON {
+        @Override
+        public Plane selectSplitPlane(List<Polygon> polygons) {
+            return polygons.get(0).plane.clone();
+        }
+    },
+
+    /**
+     * Scores a sample of candidate planes by the number of polygons they split
+     * and by the front/back balance they produce and picks the best one.
+     */
+    SAMPLED {
+        @Override
+        public Plane selectSplitPlane(List<Polygon> polygons) {
+            return selectBest(polygons, 1.0);
+        }
+    },
+
+    /**
+     * Like {@link #SAMPLED} but prefers axis aligned candidate planes. This
+     * works best for inputs that are dominated by {@link Cube}-like shapes.
+     */
+    AXIS_ALIGNED {
+        @Override
+        public Plane selectSplitPlane(List<Polygon> polygons) {
+            return selectBest(polygons, AXIS_ALIGNED_BONUS);
+        }
+    };
+
+    /**
+     * Maximum number of candidate planes that are scored per node.
+     */
+    private static final int MAX_CANDIDATES = 16;
+
+    /**
+     * Maximum number of polygons that are classified against each candidate.
+     */
+    private static final int MAX_SAMPLES = 64;
+
+    /**
+     * Cost of a split relative to one polygon of front/back imbalance.
+     */
+    private static final double SPLIT_WEIGHT = 8.0;
+
+    /**
+     * Score factor of axis aligned candidates for {@link #AXIS_ALIGNED}.
+     */
+    private static final double AXIS_ALIGNED_BONUS = 0.5;
+
+    /**
+     * Nodes with less polygons than this are not worth scoring.
+     */
+    private static final int MIN_POLYGONS_FOR_SCORING = 4;
+
+    /**
+     * Selects the candidate with the lowest score.
+     *
+     * @param polygons polygons of the node
+     * @param axisAlignedFactor score factor applied to axis aligned candidates
+     * @return the selected split plane
+     */
+    private static Plane selectBest(List<Polygon> polygons, double axisAlignedFactor) {
+
+        int size = polygons.size();
+
+        if (size < MIN_POLYGONS_FOR_SCORING) {
+            return polygons.get(0).plane.clone();
+        }
+
+        // candidates and samples are picked with a fixed stride to keep the
+        // resulting tree deterministic
+        int numCandidates = Math.min(size, MAX_CANDIDATES);
+        int numSamples = Math.min(size, MAX_SAMPLES);
+
+        Plane best = null;
+        double bestScore = Double.POSITIVE_INFINITY;
+
+        for (int c = 0; c < numCandidates; c++) {
+            Plane candidate = polygons.get((int) ((long) c * size / numCandidates)).plane;
+
+            int front = 0;
+            int back = 0;
+            int spanning = 0;
+
+            for (int s = 0; s < numSamples; s++) {
+                Polygon p = polygons.get((int) ((long) s * size / numSamples));
+                switch (candidate.classify(p)) {
+                    case Plane.FRONT:
+                        front++;
+                        break;
+                    case Plane.BACK:
+                        back++;
+                        break;
+                    case Plane.SPANNING:
+                        spanning++;
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            double score = SPLIT_WEIGHT * spanning + Math.abs(front - back);
+
+            if (isAxisAligned(candidate)) {
+                score *= axisAlignedFactor;
+            }
+
+            if (score < bestScore) {
+                bestScore = score;
+                best = candidate;
+            }
+        }
+
+        return best.clone();
+    }
+
+    /**
+     * Indicates whether the normal of the specified plane is parallel to one
+     * of the coordinate axes.
+     *
+     * @param plane plane to check
+     * @return {@code true} if the plane is axis aligned; {@code false}
+     * otherwise
+     */
+    private static boolean isAxisAligned(Plane plane) {
+        double x = Math.abs(plane.normal.x);
+        double y = Math.abs(plane.normal.y);
+        double z = Math.abs(plane.normal.z);
+
+        return Math.max(x, Math.max(y, z)) > 1.0 - Plane.EPSILON;
+    }
+}
@@ -35,17 +35,34 @@ package eu.mihosoft.vrl.v3d;
 
 import eu.mihosoft.vrl.v3d.ext.quickhull3d.HullUtil;
 import eu.mihosoft.vrl.v3d.parametrics.CSGDatabase;
+import eu.mihosoft.vrl.v3d.parametrics.DependencyGraph;
 import eu.mihosoft.vrl.v3d.parametrics.IParametric;
 import eu.mihosoft.vrl.v3d.parametrics.IRegenerate;
 import eu.mihosoft.vrl.v3d.parametrics.LengthParameter;
 import eu.mihosoft.vrl.v3d.parametrics.Parameter;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -106,12 +123,24 @@ public class CSG {
 	/** The polygons. */
 	private List<Polygon> polygons;
 
+	/** The indexed mesh, {@code null} once the polygons are materialized. */
+	private volatile IndexedMesh mesh;
+
 	/** The default opt type. */
 	private static OptType defaultOptType = OptType.CSG_BOUND;
 
 	/** The opt type. */
 	private OptType optType = null;
 
+	/** Whether list operations use a parallel tree reduction. */
+	private static boolean treeReduction = false;
+
+	/** The default BSP split strategy. */
+	private static IBspSplitStrategy defaultSplitStrategy = BspSplitStrategy.FIRST_POLYGON;
+
+	/** The BSP split strategy. */
+	private IBspSplitStrategy splitStrategy = null;
+
 	/** The storage. */
 	private PropertyStorage storage;
 	/** The current. */
@@ -125,17 +154,35 @@ public class CSG {
 	/** The manipulator. */
 	private Affine manipulator;
 	private Bounds bounds;
+	/** The bounding volume hierarchy of the polygons, lazily created. */
+	private PolygonBVH bvh;
 	/**
 	 * This is the trace for where this csg was created
 	 */
-	private final Exception creationEventStackTrace = new Exception();
+	private final Exception creationEventStackTrace = Provenance.capture(Provenance.getCsgMode());
+	/**
+	 * Traces that have not been resolved to groovy lines yet.
+	 */
+	private List<Exception> pendingStackTraces = null;
+	/**
+	 * Maximum number of unresolved traces per csg.
+	 */
+	private static final int MAX_PENDING_STACK_TRACES = 64;
+	/**
+	 * Number of characters that are buffered before they are written by the
+	 * streaming OBJ export.
+	 */
+	private static final int OBJ_BUFFER_SIZE = 8192;
 	public static final int INDEX_OF_PARAMETRIC_DEFAULT = 0;
 	public static final int INDEX_OF_PARAMETRIC_LOWER = 1;
 	public static final int INDEX_OF_PARAMETRIC_UPPER = 2;
 	private ArrayList<String> groovyFileLines = new ArrayList<>();
+	private final Set<String> groovyFileLineSet = new HashSet<>();
 	private PrepForManufacturing manufactuing = null;
 	private HashMap<String, IParametric> mapOfparametrics = null;
 	private IRegenerate regenerate = null;
+	/** Regenerable CSGs this csg has been derived from, {@code null} if none. */
+	private Set<CSG> dependencies = null;
 	private boolean markForRegeneration = false;
 	private static ICSGProgress progressMoniter=new ICSGProgress() {
 		@Override
@@ -149,7 +196,9 @@ public class CSG {
 	 */
 	public CSG() {
 		storage = new PropertyStorage();
-		addStackTrace(creationEventStackTrace);
+		if (creationEventStackTrace != null) {
+			addCreationEventStackTrace(creationEventStackTrace);
+		}
 	}
 
 	/**
@@ -566,6 +615,52 @@ public class CSG {
 		return fromPolygons(storage, Arrays.asList(polygons));
 	}
 
+	/**
+	 * Constructs a CSG that is backed by the specified mesh. The polygons are
+	 * created from the mesh when they are accessed for the first time. Until
+	 * then, transformations, bounds and exporters operate directly on the
+	 * mesh.
+	 *
+	 * @param mesh
+	 *            the mesh
+	 * @return a CSG instance
+	 */
+	public static CSG fromMesh(IndexedMesh mesh) {
+		CSG csg = new CSG();
+		csg.mesh = mesh;
+		return csg;
+	}
+
+	/**
+	 * Returns the polygons of this csg as indexed mesh.
+	 *
+	 * @return the polygons of this csg as indexed mesh
+	 */
+	public IndexedMesh toIndexedMesh() {
+		IndexedMesh m = mesh;
+		if (m != null) {
+			return m;
+		}
+		return IndexedMesh.fromPolygons(getPolygons());
+	}
+
+	/**
+	 * Converts the polygons of this csg to an indexed mesh and releases the
+	 * polygons. Vertices shared by several polygons are stored only once.
+	 * The polygons are recreated from the mesh when they are accessed.
+	 *
+	 * @return this csg
+	 */
+	public CSG compact() {
+		if (mesh == null) {
+			IndexedMesh m = IndexedMesh.fromPolygons(getPolygons());
+			bounds = null;
+			mesh = m;
+			polygons = null;
+		}
+		return this;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -576,6 +671,14 @@ public class CSG {
 		CSG csg = new CSG();
 
 		csg.setOptType(this.getOptType());
+		csg.splitStrategy = this.splitStrategy;
+
+		IndexedMesh m = mesh;
+		if (m != null) {
+			// meshes are immutable and can be shared
+			csg.mesh = m;
+			return csg.historySync(this);
+		}
 
 		// sequential code
 		// csg.polygons = new ArrayList<>();
@@ -601,9 +704,25 @@ public class CSG {
 	 * @return the polygons of this CSG
 	 */
 	public List<Polygon> getPolygons() {
+		// the volatile mesh is read first: once it has been released, the
+		// polygons written before are visible
+		if (mesh != null) {
+			materialize();
+		}
 		return polygons;
 	}
 
+	/**
+	 * Creates the polygons from the mesh. The mesh is released since the
+	 * polygons may be modified afterwards.
+	 */
+	private synchronized void materialize() {
+		if (polygons == null && mesh != null) {
+			polygons = mesh.toPolygons();
+			mesh = null;
+		}
+	}
+
 	/**
 	 * Defines the CSg optimization type.
 	 *
@@ -642,6 +761,8 @@ public class CSG {
 			return _unionCSGBoundsOpt(csg).historySync(this).historySync(csg);
 		case POLYGON_BOUND:
 			return _unionPolygonBoundsOpt(csg).historySync(this).historySync(csg);
+		case POLYGON_BVH:
+			return _unionBVHOpt(csg).historySync(this).historySync(csg);
 		default:
 			// return _unionIntersectOpt(csg);
 			return _unionNoOpt(csg).historySync(this).historySync(csg);
@@ -695,6 +816,13 @@ public class CSG {
 	 */
 	public CSG union(List<CSG> csgs) {
 
+		if (treeReduction && !csgs.isEmpty()) {
+			List<CSG> operands = new ArrayList<>(csgs.size() + 1);
+			operands.add(this);
+			operands.addAll(csgs);
+			return treeUnion(operands, "Union");
+		}
+
 		CSG result = this;
 
 		for (int i=0;i<csgs.size();i++) {
@@ -783,6 +911,173 @@ public class CSG {
 		return hull(Arrays.asList(csgs));
 	}
 
+	/**
+	 * Unions the specified operands with a balanced tree reduction. The
+	 * operands are sorted along a Morton curve of their bounding box centers.
+	 * Runs of neighbouring operands whose bounding boxes do not overlap are
+	 * concatenated without any BSP operation. The resulting groups are merged
+	 * pairwise and in parallel on the {@link #getClipPool() clip pool}.
+	 *
+	 * Progress is reported after each merge, possibly from worker threads.
+	 *
+	 * @param operands
+	 *            the operands, the first one must be this csg or an operand
+	 *            whose settings (opt type, split strategy) shall be used
+	 * @param type
+	 *            the operation name reported to the progress monitor
+	 * @return the union of all operands
+	 */
+	private CSG treeUnion(List<CSG> operands, String type) {
+		int n = operands.size();
+
+		double[] centers = new double[n * 3];
+		Bounds[] boxes = new Bounds[n];
+		double[] min = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+		double[] max = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+
+		for (int i = 0; i < n; i++) {
+			boxes[i] = operands.get(i).getBounds();
+			Vector3d c = boxes[i].getCenter();
+			centers[i * 3] = c.x;
+			centers[i * 3 + 1] = c.y;
+			centers[i * 3 + 2] = c.z;
+			for (int a = 0; a < 3; a++) {
+				min[a] = Math.min(min[a], centers[i * 3 + a]);
+				max[a] = Math.max(max[a], centers[i * 3 + a]);
+			}
+		}
+
+		long[] codes = new long[n];
+		List<Integer> order = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			codes[i] = mortonCode(centers, i, min, max);
+			order.add(i);
+		}
+		order.sort((i, j) -> Long.compare(codes[i], codes[j]));
+
+		// concatenate runs of operands that do not overlap each other
+		List<CSG> groups = new ArrayList<>();
+		List<Integer> group = new ArrayList<>();
+		for (int i : order) {
+			boolean overlaps = false;
+			for (int j : group) {
+				if (boxes[i].intersects(boxes[j])) {
+					overlaps = true;
+					break;
+				}
+			}
+			if (overlaps) {
+				groups.add(concatenate(operands, group));
+				group.clear();
+			}
+			group.add(i);
+		}
+		groups.add(concatenate(operands, group));
+
+		int total = groups.size() - 1;
+		AtomicInteger done = new AtomicInteger();
+
+		CSG result = getClipPool().invoke(new UnionTask(groups, 0, groups.size(), type, done, total));
+
+		// same history (and color) as a sequential fold
+		for (CSG csg : operands) {
+			result.historySync(csg);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Concatenates the polygons of the specified operands.
+	 *
+	 * @param operands
+	 *            all operands
+	 * @param indices
+	 *            the indices of the operands to concatenate
+	 * @return the concatenation
+	 */
+	private CSG concatenate(List<CSG> operands, List<Integer> indices) {
+		if (indices.size() == 1) {
+			return operands.get(indices.get(0));
+		}
+
+		List<Polygon> allPolygons = new ArrayList<>();
+		for (int i : indices) {
+			for (Polygon p : operands.get(i).getPolygons()) {
+				allPolygons.add(p.clone());
+			}
+		}
+
+		return CSG.fromPolygons(allPolygons).optimization(getOptType()).inheritSplitStrategy(this);
+	}
+
+	/**
+	 * Computes the Morton code of the specified center.
+	 *
+	 * @param centers
+	 *            the centers
+	 * @param i
+	 *            the index of the center
+	 * @param min
+	 *            the minimum of all centers
+	 * @param max
+	 *            the maximum of all centers
+	 * @return the Morton code
+	 */
+	private static long mortonCode(double[] centers, int i, double[] min, double[] max) {
+		long code = 0;
+		for (int a = 0; a < 3; a++) {
+			double extent = max[a] - min[a];
+			long cell = extent > 0 ? (long) ((centers[i * 3 + a] - min[a]) / extent * 0x1fffff) : 0;
+			for (int bit = 0; bit < 21; bit++) {
+				code |= ((cell >> bit) & 1L) << (bit * 3 + a);
+			}
+		}
+		return code;
+	}
+
+	/**
+	 * Merges a range of operands bottom-up.
+	 */
+	private static final class UnionTask extends RecursiveTask<CSG> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<CSG> operands;
+		private final int from;
+		private final int to;
+		private final String type;
+		private final AtomicInteger done;
+		private final int total;
+
+		UnionTask(List<CSG> operands, int from, int to, String type, AtomicInteger done, int total) {
+			this.operands = operands;
+			this.from = from;
+			this.to = to;
+			this.type = type;
+			this.done = done;
+			this.total = total;
+		}
+
+		@Override
+		protected CSG compute() {
+			if (to - from == 1) {
+				return operands.get(from);
+			}
+
+			int mid = (from + to) >>> 1;
+			UnionTask left = new UnionTask(operands, from, mid, type, done, total);
+			UnionTask right = new UnionTask(operands, mid, to, type, done, total);
+			left.fork();
+			CSG b = right.compute();
+			CSG a = left.join();
+
+			CSG result = a.union(b);
+			progressMoniter.progressUpdate(done.incrementAndGet(), total, type, result);
+			return result;
+		}
+	}
+
 	/**
 	 * _union csg bounds opt.
 	 *
@@ -807,15 +1102,7 @@ public class CSG {
 		List<Polygon> inner = new ArrayList<>();
 		List<Polygon> outer = new ArrayList<>();
 
-		Bounds b = csg.getBounds();
-
-		this.getPolygons().stream().forEach((p) -> {
-			if (b.intersects(p.getBounds())) {
-				inner.add(p);
-			} else {
-				outer.add(p);
-			}
-		});
+		splitByBounds(csg.getBounds(), inner, outer);
 
 		List<Polygon> allPolygons = new ArrayList<>();
 
@@ -829,7 +1116,7 @@ public class CSG {
 			allPolygons.addAll(csg.getPolygons());
 		}
 		bounds = null;
-		return CSG.fromPolygons(allPolygons).optimization(getOptType());
+		return CSG.fromPolygons(allPolygons).optimization(getOptType()).inheritSplitStrategy(this);
 	}
 
 	/**
@@ -842,16 +1129,7 @@ public class CSG {
 	 * @return the union of this csg and the specified csg
 	 */
 	private CSG _unionIntersectOpt(CSG csg) {
-		boolean intersects = false;
-
-		Bounds bounds = csg.getBounds();
-
-		for (Polygon p : getPolygons()) {
-			if (bounds.intersects(p.getBounds())) {
-				intersects = true;
-				break;
-			}
-		}
+		boolean intersects = getBVH().intersects(csg.getBounds());
 
 		List<Polygon> allPolygons = new ArrayList<>();
 
@@ -862,7 +1140,147 @@ public class CSG {
 			allPolygons.addAll(csg.getPolygons());
 		}
 
-		return CSG.fromPolygons(allPolygons).optimization(getOptType());
+		return CSG.fromPolygons(allPolygons).optimization(getOptType()).inheritSplitStrategy(this);
+	}
+
+	/**
+	 * Union that only partitions the polygons whose boxes overlap polygons of
+	 * the other csg. All other polygons do not touch the surface of the other
+	 * csg and are kept or dropped depending on whether they lie inside of it.
+	 *
+	 * @param csg
+	 *            the csg
+	 * @return the csg
+	 */
+	private CSG _unionBVHOpt(CSG csg) {
+		List<Polygon> innerA = new ArrayList<>();
+		List<Polygon> innerB = new ArrayList<>();
+		List<Polygon> allPolygons = new ArrayList<>();
+
+		partitionByOverlap(csg, innerA, innerB, allPolygons, false, false);
+
+		if (!innerA.isEmpty()) {
+			allPolygons.addAll(CSG.fromPolygons(innerA).inheritSplitStrategy(this)
+					._unionNoOpt(CSG.fromPolygons(innerB)).getPolygons());
+		}
+
+		return CSG.fromPolygons(allPolygons).optimization(getOptType()).inheritSplitStrategy(this);
+	}
+
+	/**
+	 * Difference that only partitions the polygons whose boxes overlap
+	 * polygons of the other csg. See {@link #_unionBVHOpt(CSG)}.
+	 *
+	 * @param csg
+	 *            the csg
+	 * @return the csg
+	 */
+	private CSG _differenceBVHOpt(CSG csg) {
+		List<Polygon> innerA = new ArrayList<>();
+		List<Polygon> innerB = new ArrayList<>();
+		List<Polygon> allPolygons = new ArrayList<>();
+
+		partitionByOverlap(csg, innerA, innerB, allPolygons, false, true);
+
+		if (!innerA.isEmpty()) {
+			allPolygons.addAll(CSG.fromPolygons(innerA).inheritSplitStrategy(this)
+					._differenceNoOpt(CSG.fromPolygons(innerB)).getPolygons());
+		}
+
+		return CSG.fromPolygons(allPolygons).optimization(getOptType()).inheritSplitStrategy(this);
+	}
+
+	/**
+	 * Sorts the polygons of this csg and the specified csg. Polygons whose box
+	 * overlaps the box of a polygon of the other csg go into {@code innerA}
+	 * and {@code innerB} respectively. Copies of the remaining polygons are
+	 * added to {@code result} if they lie inside the other csg as requested
+	 * by {@code keepInsideA} and {@code keepInsideB}. Copies of polygons of
+	 * the other csg that are kept inside of this csg are flipped.
+	 *
+	 * @param csg
+	 *            the other csg
+	 * @param innerA
+	 *            overlapping polygons of this csg
+	 * @param innerB
+	 *            overlapping polygons of the other csg
+	 * @param result
+	 *            polygons that are kept
+	 * @param keepInsideA
+	 *            whether to keep polygons of this csg that lie inside of the
+	 *            other csg (or outside otherwise)
+	 * @param keepInsideB
+	 *            whether to keep polygons of the other csg that lie inside of
+	 *            this csg (or outside otherwise)
+	 */
+	private void partitionByOverlap(CSG csg, List<Polygon> innerA, List<Polygon> innerB, List<Polygon> result,
+			boolean keepInsideA, boolean keepInsideB) {
+		PolygonBVH bvhA = getBVH();
+		PolygonBVH bvhB = csg.getBVH();
+
+		List<Polygon> polygonsA = bvhA.getPolygons();
+		List<Polygon> polygonsB = bvhB.getPolygons();
+
+		boolean[] overlapsA = new boolean[polygonsA.size()];
+		boolean[] overlapsB = new boolean[polygonsB.size()];
+
+		PolygonBVH.markOverlaps(bvhA, bvhB, overlapsA, overlapsB);
+
+		for (int i = 0; i < overlapsA.length; i++) {
+			Polygon p = polygonsA.get(i);
+			if (overlapsA[i]) {
+				innerA.add(p);
+			} else if (bvhB.contains(p.centroid()) == keepInsideA) {
+				result.add(p.clone());
+			}
+		}
+
+		for (int i = 0; i < overlapsB.length; i++) {
+			Polygon p = polygonsB.get(i);
+			if (overlapsB[i]) {
+				innerB.add(p);
+			} else if (bvhA.contains(p.centroid()) == keepInsideB) {
+				result.add(keepInsideB ? p.flipped() : p.clone());
+			}
+		}
+	}
+
+	/**
+	 * Sorts the polygons of this csg by whether their box intersects the
+	 * specified bounds.
+	 *
+	 * @param b
+	 *            the bounds
+	 * @param inner
+	 *            polygons whose box intersects the bounds
+	 * @param outer
+	 *            the other polygons
+	 */
+	private void splitByBounds(Bounds b, List<Polygon> inner, List<Polygon> outer) {
+		PolygonBVH tree = getBVH();
+		List<Polygon> treePolygons = tree.getPolygons();
+		boolean[] marks = new boolean[treePolygons.size()];
+		tree.mark(b, marks);
+		for (int i = 0; i < marks.length; i++) {
+			(marks[i] ? inner : outer).add(treePolygons.get(i));
+		}
+	}
+
+	/**
+	 * Returns the bounding volume hierarchy of the polygons of this csg. The
+	 * tree is cached and rebuilt if the polygon list has been replaced or
+	 * resized.
+	 *
+	 * @return the bounding volume hierarchy
+	 */
+	PolygonBVH getBVH() {
+		List<Polygon> current = getPolygons();
+		PolygonBVH tree = bvh;
+		if (tree == null || tree.getPolygons() != current || tree.size() != current.size()) {
+			tree = new PolygonBVH(current);
+			bvh = tree;
+		}
+		return tree;
 	}
 
 	/**
@@ -873,15 +1291,15 @@ public class CSG {
 	 * @return the csg
 	 */
 	private CSG _unionNoOpt(CSG csg) {
-		Node a = new Node(this.clone().getPolygons());
-		Node b = new Node(csg.clone().getPolygons());
+		Node a = new Node(this.clone().getPolygons(), getSplitStrategy());
+		Node b = new Node(csg.clone().getPolygons(), getSplitStrategy());
 		a.clipTo(b);
 		b.clipTo(a);
 		b.invert();
 		b.clipTo(a);
 		b.invert();
 		a.build(b.allPolygons());
-		return CSG.fromPolygons(a.allPolygons()).optimization(getOptType());
+		return CSG.fromPolygons(a.allPolygons()).optimization(getOptType()).inheritSplitStrategy(this);
 	}
 
 	/**
@@ -909,6 +1327,10 @@ public class CSG {
 
 		CSG csgsUnion = csgs.get(0);
 
+		if (treeReduction && csgs.size() > 1) {
+			return difference(csgsUnion.treeUnion(csgs, "Difference"));
+		}
+
 		for (int i = 1; i < csgs.size(); i++) {
 			csgsUnion = csgsUnion.union(csgs.get(i));
 			progressMoniter.progressUpdate(i, csgs.size(), "Difference", csgsUnion);
@@ -968,6 +1390,8 @@ public class CSG {
 					return _differenceCSGBoundsOpt(csg).historySync(this).historySync(csg);
 				case POLYGON_BOUND:
 					return _differencePolygonBoundsOpt(csg).historySync(this).historySync(csg);
+				case POLYGON_BVH:
+					return _differenceBVHOpt(csg).historySync(this).historySync(csg);
 				default:
 					return _differenceNoOpt(csg).historySync(this).historySync(csg);
 				}
@@ -994,7 +1418,7 @@ public class CSG {
 		CSG a1 = this._differenceNoOpt(csg.getBounds().toCSG());
 		CSG a2 = this.intersect(csg.getBounds().toCSG());
 
-		return a2._differenceNoOpt(b)._unionIntersectOpt(a1).optimization(getOptType());
+		return a2._differenceNoOpt(b)._unionIntersectOpt(a1).optimization(getOptType()).inheritSplitStrategy(this);
 	}
 
 	/**
@@ -1008,15 +1432,7 @@ public class CSG {
 		List<Polygon> inner = new ArrayList<>();
 		List<Polygon> outer = new ArrayList<>();
 
-		Bounds bounds = csg.getBounds();
-
-		this.getPolygons().stream().forEach((p) -> {
-			if (bounds.intersects(p.getBounds())) {
-				inner.add(p);
-			} else {
-				outer.add(p);
-			}
-		});
+		splitByBounds(csg.getBounds(), inner, outer);
 
 		CSG innerCSG = CSG.fromPolygons(inner);
 
@@ -1024,7 +1440,7 @@ public class CSG {
 		allPolygons.addAll(outer);
 		allPolygons.addAll(innerCSG._differenceNoOpt(csg).getPolygons());
 
-		return CSG.fromPolygons(allPolygons).optimization(getOptType());
+		return CSG.fromPolygons(allPolygons).optimization(getOptType()).inheritSplitStrategy(this);
 	}
 
 	/**
@@ -1036,8 +1452,8 @@ public class CSG {
 	 */
 	private CSG _differenceNoOpt(CSG csg) {
 
-		Node a = new Node(this.clone().getPolygons());
-		Node b = new Node(csg.clone().getPolygons());
+		Node a = new Node(this.clone().getPolygons(), getSplitStrategy());
+		Node b = new Node(csg.clone().getPolygons(), getSplitStrategy());
 
 		a.invert();
 		a.clipTo(b);
@@ -1048,7 +1464,7 @@ public class CSG {
 		a.build(b.allPolygons());
 		a.invert();
 
-		CSG csgA = CSG.fromPolygons(a.allPolygons()).optimization(getOptType());
+		CSG csgA = CSG.fromPolygons(a.allPolygons()).optimization(getOptType()).inheritSplitStrategy(this);
 		return csgA;
 	}
 
@@ -1071,8 +1487,8 @@ public class CSG {
 	 */
 	public CSG intersect(CSG csg) {
 
-		Node a = new Node(this.clone().getPolygons());
-		Node b = new Node(csg.clone().getPolygons());
+		Node a = new Node(this.clone().getPolygons(), getSplitStrategy());
+		Node b = new Node(csg.clone().getPolygons(), getSplitStrategy());
 		a.invert();
 		b.clipTo(a);
 		b.invert();
@@ -1080,7 +1496,8 @@ public class CSG {
 		b.clipTo(a);
 		a.build(b.allPolygons());
 		a.invert();
-		return CSG.fromPolygons(a.allPolygons()).optimization(getOptType()).historySync(csg).historySync(this);
+		return CSG.fromPolygons(a.allPolygons()).optimization(getOptType()).inheritSplitStrategy(this)
+				.historySync(csg).historySync(this);
 	}
 
 	/**
@@ -1108,6 +1525,10 @@ public class CSG {
 
 		CSG csgsUnion = csgs.get(0);
 
+		if (treeReduction && csgs.size() > 1) {
+			return intersect(csgsUnion.treeUnion(csgs, "Intersect"));
+		}
+
 		for (int i = 1; i < csgs.size(); i++) {
 			csgsUnion = csgsUnion.union(csgs.get(i));
 			progressMoniter.progressUpdate(i, csgs.size(), "Intersect", csgsUnion);
@@ -1139,6 +1560,33 @@ public class CSG {
 		return intersect(Arrays.asList(csgs));
 	}
 
+	/**
+	 * Groups the polygons of this csg by plane, using the default tolerances
+	 * of {@link PlaneIndex}.
+	 *
+	 * @return the polygons of each plane, ordered by their first polygon
+	 * @see PlaneIndex
+	 */
+	public List<List<Polygon>> getPlaneGroups() {
+		return new PlaneIndex().group(getPolygons());
+	}
+
+	/**
+	 * Groups the polygons of this csg by plane.
+	 *
+	 * @param angleTolerance
+	 *            maximum angle between the normals of polygons in the same
+	 *            group (radians)
+	 * @param distanceTolerance
+	 *            maximum difference between the plane distances of polygons
+	 *            in the same group
+	 * @return the polygons of each plane, ordered by their first polygon
+	 * @see PlaneIndex
+	 */
+	public List<List<Polygon>> getPlaneGroups(double angleTolerance, double distanceTolerance) {
+		return new PlaneIndex(angleTolerance, distanceTolerance).group(getPolygons());
+	}
+
 	/**
 	 * Returns this csg in STL string format.
 	 *
@@ -1159,6 +1607,10 @@ public class CSG {
 	 * @return the specified string builder
 	 */
 	public StringBuilder toStlString(StringBuilder sb) {
+		IndexedMesh m = mesh;
+		if (m != null) {
+			return m.toStlString(sb);
+		}
 		sb.append("solid v3d.csg\n");
 		this.getPolygons().stream().forEach((Polygon p) -> {
 			p.toStlString(sb);
@@ -1167,6 +1619,54 @@ public class CSG {
 		return sb;
 	}
 
+	/**
+	 * Writes this csg in STL string format. In contrast to
+	 * {@link #toStlString()} the facets are streamed to the writer instead of
+	 * being collected in memory.
+	 *
+	 * @param writer
+	 *            the destination, it is not closed
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void toStlString(Writer writer) throws IOException {
+		IndexedMesh m = mesh;
+		if (m != null) {
+			StlWriter.writeAscii(m, writer);
+		} else {
+			StlWriter.writeAscii(getPolygons(), writer);
+		}
+	}
+
+	/**
+	 * Writes this csg in binary STL format. Polygons are fan-triangulated.
+	 *
+	 * @param out
+	 *            the destination, it is not closed
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void toStlBinary(OutputStream out) throws IOException {
+		toStlBinary(Channels.newChannel(out));
+	}
+
+	/**
+	 * Writes this csg in binary STL format. Polygons are fan-triangulated.
+	 *
+	 * @param channel
+	 *            the destination, it is not closed
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void toStlBinary(WritableByteChannel channel) throws IOException {
+		IndexedMesh m = mesh;
+		if (m != null) {
+			StlWriter.writeBinary(m, channel);
+		} else {
+			StlWriter.writeBinary(getPolygons(), channel);
+		}
+	}
+
 	/**
 	 * Color.
 	 *
@@ -1186,91 +1686,68 @@ public class CSG {
 	 * @return the obj file
 	 */
 	public ObjFile toObj() {
-
 		StringBuilder objSb = new StringBuilder();
-
-		objSb.append("mtllib " + ObjFile.MTL_NAME);
-
-		objSb.append("# Group").append("\n");
-		objSb.append("g v3d.csg\n");
-
-		class PolygonStruct {
-
-			PropertyStorage storage;
-			List<Integer> indices;
-			String materialName;
-
-			public PolygonStruct(PropertyStorage storage, List<Integer> indices, String materialName) {
-				this.storage = storage;
-				this.indices = indices;
-				this.materialName = materialName;
-			}
+		Map<PropertyStorage, Integer> materialNames = new LinkedHashMap<>();
+		try {
+			toObj(objSb, null, ObjFile.MTL_NAME, materialNames);
+		} catch (IOException ex) {
+			// cannot happen, no writer
+			throw new UncheckedIOException(ex);
 		}
+		return new ObjFile(objSb.toString(), toMtl(materialNames));
+	}
 
-		List<Vertex> vertices = new ArrayList<>();
-		List<PolygonStruct> indices = new ArrayList<>();
-
-		objSb.append("\n# Vertices\n");
-
-		Map<PropertyStorage, Integer> materialNames = new HashMap<>();
-
-		int materialIndex = 0;
-
-		for (Polygon p : getPolygons()) {
-			List<Integer> polyIndices = new ArrayList<>();
-
-			p.vertices.stream().forEach((v) -> {
-				if (!vertices.contains(v)) {
-					vertices.add(v);
-					v.toObjString(objSb);
-					polyIndices.add(vertices.size());
-				} else {
-					polyIndices.add(vertices.indexOf(v) + 1);
-				}
-			});
-
-			if (!materialNames.containsKey(p.getStorage())) {
-				materialIndex++;
-				materialNames.put(p.getStorage(), materialIndex);
-				p.getStorage().set("material:name", materialIndex);
-			}
-
-			indices.add(
-					new PolygonStruct(p.getStorage(), polyIndices, "material-" + materialNames.get(p.getStorage())));
+	/**
+	 * Writes this csg to an OBJ file and a MTL file. Both files are streamed
+	 * instead of being created in memory first.
+	 *
+	 * @param p
+	 *            file destination, the extension is replaced by {@code .obj}
+	 *            and {@code .mtl} (existing files will be overwritten)
+	 * @throws IOException
+	 *             if writing fails
+	 * @see ObjFile#toFiles(java.nio.file.Path)
+	 */
+	public void toObjFiles(Path p) throws IOException {
+		Path objPath = ObjFile.objPath(p);
+		Path mtlPath = ObjFile.mtlPath(p);
+		Map<PropertyStorage, Integer> materialNames = new LinkedHashMap<>();
+		try (Writer writer = Files.newBufferedWriter(objPath, StandardCharsets.UTF_8)) {
+			toObj(new StringBuilder(OBJ_BUFFER_SIZE + 256), writer,
+					mtlPath.getFileName().toString(), materialNames);
 		}
-
-		objSb.append("\n# Faces").append("\n");
-
-		for (PolygonStruct ps : indices) {
-
-			// add mtl info
-			ps.storage.getValue("material:color")
-					.ifPresent((v) -> objSb.append("usemtl ").append(ps.materialName).append("\n"));
-
-			// we triangulate the polygon to ensure
-			// compatibility with 3d printer software
-			List<Integer> pVerts = ps.indices;
-			int index1 = pVerts.get(0);
-			for (int i = 0; i < pVerts.size() - 2; i++) {
-				int index2 = pVerts.get(i + 1);
-				int index3 = pVerts.get(i + 2);
-
-				objSb.append("f ").append(index1).append(" ").append(index2).append(" ").append(index3).append("\n");
-			}
+		try (Writer writer = Files.newBufferedWriter(mtlPath, StandardCharsets.UTF_8)) {
+			writer.write(toMtl(materialNames));
 		}
+	}
 
-		objSb.append("\n# End Group v3d.csg").append("\n");
-
-		StringBuilder mtlSb = new StringBuilder();
-
-		materialNames.keySet().forEach(s -> {
-			if (s.contains("material:color")) {
-				mtlSb.append("newmtl material-").append(s.getValue("material:name").get()).append("\n");
-				mtlSb.append("Kd ").append(s.getValue("material:color").get()).append("\n");
-			}
-		});
+	/**
+	 * Writes this csg to the specified file in the native binary format. The
+	 * format keeps the polygon planes and material properties.
+	 *
+	 * @param p
+	 *            file destination (an existing file will be overwritten)
+	 * @throws IOException
+	 *             if writing fails
+	 * @see CSGBinary
+	 */
+	public void toBinary(Path p) throws IOException {
+		CSGBinary.write(this, p);
+	}
 
-		return new ObjFile(objSb.toString(), mtlSb.toString());
+	/**
+	 * Reads a csg from the specified file in the native binary format. The
+	 * polygons are created when they are accessed for the first time.
+	 *
+	 * @param p
+	 *            file to read
+	 * @return the csg
+	 * @throws IOException
+	 *             if reading fails
+	 * @see CSGBinary
+	 */
+	public static CSG fromBinary(Path p) throws IOException {
+		return CSGBinary.read(p);
 	}
 
 	/**
@@ -1281,60 +1758,160 @@ public class CSG {
 	 * @return the specified string builder
 	 */
 	public StringBuilder toObjString(StringBuilder sb) {
-		sb.append("# Group").append("\n");
-		sb.append("g v3d.csg\n");
-
-		class PolygonStruct {
+		IndexedMesh m = mesh;
+		if (m != null) {
+			return m.toObjString(sb);
+		}
+		try {
+			toObj(sb, null, null, null);
+		} catch (IOException ex) {
+			// cannot happen, no writer
+			throw new UncheckedIOException(ex);
+		}
+		return sb;
+	}
 
-			PropertyStorage storage;
-			List<Integer> indices;
-			String materialName;
+	/**
+	 * Writes this csg in OBJ string format. In contrast to
+	 * {@link #toObjString()} the output is streamed to the writer instead of
+	 * being collected in memory.
+	 *
+	 * @param writer
+	 *            the destination, it is not closed
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void toObjString(Writer writer) throws IOException {
+		IndexedMesh m = mesh;
+		if (m != null) {
+			m.toObjString(writer);
+		} else {
+			toObj(new StringBuilder(OBJ_BUFFER_SIZE + 256), writer, null, null);
+		}
+	}
 
-			public PolygonStruct(PropertyStorage storage, List<Integer> indices, String materialName) {
-				this.storage = storage;
-				this.indices = indices;
-				this.materialName = materialName;
-			}
+	/**
+	 * Appends this csg in OBJ format to the specified string builder. Vertices
+	 * that are equal within {@link Plane#EPSILON} are written once.
+	 *
+	 * @param sb
+	 *            string builder
+	 * @param writer
+	 *            if not {@code null}, the content of the string builder is
+	 *            written to this writer whenever it exceeds the buffer size
+	 *            and at the end
+	 * @param mtlName
+	 *            name of the material library, {@code null} if no materials
+	 *            should be referenced
+	 * @param materialNames
+	 *            receives the material index of each storage, may be
+	 *            {@code null} if {@code mtlName} is {@code null}
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	private void toObj(StringBuilder sb, Writer writer, String mtlName, Map<PropertyStorage, Integer> materialNames)
+			throws IOException {
+		if (mtlName != null) {
+			sb.append("mtllib ").append(mtlName).append("\n");
 		}
 
-		List<Vertex> vertices = new ArrayList<>();
-		List<PolygonStruct> indices = new ArrayList<>();
+		sb.append("# Group").append("\n");
+		sb.append("g v3d.csg\n");
 
 		sb.append("\n# Vertices\n");
 
-		for (Polygon p : getPolygons()) {
-			List<Integer> polyIndices = new ArrayList<>();
-
-			p.vertices.stream().forEach((v) -> {
-				if (!vertices.contains(v)) {
-					vertices.add(v);
+		List<Polygon> polygons = getPolygons();
+		VertexIndex vertices = new VertexIndex();
+		int[] offsets = new int[polygons.size() + 1];
+		int[] indices = new int[polygons.size() * 3];
+		int count = 0;
+
+		for (int i = 0; i < polygons.size(); i++) {
+			Polygon p = polygons.get(i);
+			for (Vertex v : p.vertices) {
+				int size = vertices.size();
+				int index = vertices.add(v.pos);
+				if (index == size) {
 					v.toObjString(sb);
-					polyIndices.add(vertices.size());
-				} else {
-					polyIndices.add(vertices.indexOf(v) + 1);
 				}
-			});
+				if (count == indices.length) {
+					indices = Arrays.copyOf(indices, indices.length * 2);
+				}
+				indices[count++] = index + 1;
+			}
+			offsets[i + 1] = count;
 
+			if (mtlName != null && !materialNames.containsKey(p.getStorage())) {
+				int materialIndex = materialNames.size() + 1;
+				materialNames.put(p.getStorage(), materialIndex);
+				p.getStorage().set("material:name", materialIndex);
+			}
+			flushObj(sb, writer, false);
 		}
 
 		sb.append("\n# Faces").append("\n");
 
-		for (PolygonStruct ps : indices) {
+		for (int i = 0; i < polygons.size(); i++) {
+			// add mtl info
+			if (mtlName != null) {
+				PropertyStorage storage = polygons.get(i).getStorage();
+				if (storage.getValue("material:color").isPresent()) {
+					sb.append("usemtl material-").append(materialNames.get(storage)).append("\n");
+				}
+			}
+
 			// we triangulate the polygon to ensure
 			// compatibility with 3d printer software
-			List<Integer> pVerts = ps.indices;
-			int index1 = pVerts.get(0);
-			for (int i = 0; i < pVerts.size() - 2; i++) {
-				int index2 = pVerts.get(i + 1);
-				int index3 = pVerts.get(i + 2);
-
-				sb.append("f ").append(index1).append(" ").append(index2).append(" ").append(index3).append("\n");
+			int index1 = indices[offsets[i]];
+			for (int c = offsets[i] + 1; c < offsets[i + 1] - 1; c++) {
+				sb.append("f ").append(index1).append(" ").append(indices[c]).append(" ").append(indices[c + 1])
+						.append("\n");
 			}
+			flushObj(sb, writer, false);
 		}
 
 		sb.append("\n# End Group v3d.csg").append("\n");
+		flushObj(sb, writer, true);
+	}
 
-		return sb;
+	/**
+	 * Writes the content of the string builder to the writer if it exceeds
+	 * the buffer size.
+	 *
+	 * @param sb
+	 *            string builder
+	 * @param writer
+	 *            writer, may be {@code null}
+	 * @param force
+	 *            whether to write regardless of the size
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	private static void flushObj(StringBuilder sb, Writer writer, boolean force) throws IOException {
+		if (writer != null && (force || sb.length() >= OBJ_BUFFER_SIZE)) {
+			writer.append(sb);
+			sb.setLength(0);
+		}
+	}
+
+	/**
+	 * Returns the material library of the specified materials.
+	 *
+	 * @param materialNames
+	 *            material index of each storage
+	 * @return the material library in MTL format
+	 */
+	private static String toMtl(Map<PropertyStorage, Integer> materialNames) {
+		StringBuilder mtlSb = new StringBuilder();
+
+		materialNames.keySet().forEach(s -> {
+			if (s.contains("material:color")) {
+				mtlSb.append("newmtl material-").append(s.getValue("material:name").get()).append("\n");
+				mtlSb.append("Kd ").append(s.getValue("material:color").get()).append("\n");
+			}
+		});
+
+		return mtlSb.toString();
 	}
 
 	/**
@@ -1368,6 +1945,14 @@ public class CSG {
 	 */
 	public CSG transformed(Transform transform) {
 
+		IndexedMesh m = mesh;
+		if (m != null) {
+			CSG result = CSG.fromMesh(m.transformed(transform)).optimization(getOptType())
+					.inheritSplitStrategy(this);
+			result.storage = storage;
+			return result.historySync(this);
+		}
+
 		if (getPolygons().isEmpty()) {
 			return clone();
 		}
@@ -1375,7 +1960,7 @@ public class CSG {
 		List<Polygon> newpolygons = this.getPolygons().stream().map(p -> p.transformed(transform))
 				.collect(Collectors.toList());
 
-		CSG result = CSG.fromPolygons(newpolygons).optimization(getOptType());
+		CSG result = CSG.fromPolygons(newpolygons).optimization(getOptType()).inheritSplitStrategy(this);
 
 		result.storage = storage;
 
@@ -1546,6 +2131,11 @@ public class CSG {
 	public Bounds getBounds() {
 		if (bounds != null)
 			return bounds;
+		IndexedMesh m = mesh;
+		if (m != null) {
+			bounds = m.getBounds();
+			return bounds;
+		}
 		if (getPolygons().isEmpty()) {
 			bounds = new Bounds(Vector3d.ZERO, Vector3d.ZERO);
 			return bounds;
@@ -1710,6 +2300,197 @@ public class CSG {
 		this.optType = optType;
 	}
 
+	/**
+	 * Gets the BSP split strategy of this csg.
+	 *
+	 * @return the split strategy of this csg or the default strategy if none
+	 *         has been set
+	 */
+	public IBspSplitStrategy getSplitStrategy() {
+		return splitStrategy != null ? splitStrategy : defaultSplitStrategy;
+	}
+
+	/**
+	 * Sets the BSP split strategy of this csg. The strategy is used for boolean
+	 * operations where this csg is the left operand.
+	 *
+	 * @param splitStrategy
+	 *            the split strategy to set, {@code null} selects the default
+	 *            strategy
+	 * @return this csg
+	 */
+	public CSG setSplitStrategy(IBspSplitStrategy splitStrategy) {
+		this.splitStrategy = splitStrategy;
+		return this;
+	}
+
+	/**
+	 * Gets the default BSP split strategy.
+	 *
+	 * @return the default split strategy
+	 */
+	public static IBspSplitStrategy getDefaultSplitStrategy() {
+		return defaultSplitStrategy;
+	}
+
+	/**
+	 * Sets the default BSP split strategy.
+	 *
+	 * @param splitStrategy
+	 *            the split strategy to set
+	 */
+	public static void setDefaultSplitStrategy(IBspSplitStrategy splitStrategy) {
+		if (splitStrategy == null)
+			throw new NullPointerException("The default split strategy must not be null");
+		defaultSplitStrategy = splitStrategy;
+	}
+
+	/**
+	 * Indicates whether {@link #union(List)}, {@link #difference(List)} and
+	 * {@link #intersect(List)} use a parallel tree reduction.
+	 *
+	 * @return {@code true} if the tree reduction is used; {@code false} if
+	 *         the operands are folded one at a time
+	 */
+	public static boolean isTreeReduction() {
+		return treeReduction;
+	}
+
+	/**
+	 * Defines whether {@link #union(List)}, {@link #difference(List)} and
+	 * {@link #intersect(List)} use a parallel tree reduction instead of
+	 * folding the operands one at a time. Operands are paired by spatial
+	 * proximity and operands that do not overlap are concatenated without
+	 * BSP operations. The fold is used by default.
+	 *
+	 * @param enabled
+	 *            whether to use the tree reduction
+	 */
+	public static void setTreeReduction(boolean enabled) {
+		treeReduction = enabled;
+	}
+
+	/**
+	 * Gets the provenance mode of csg objects.
+	 *
+	 * @return the provenance mode
+	 */
+	public static ProvenanceMode getProvenanceMode() {
+		return Provenance.getCsgMode();
+	}
+
+	/**
+	 * Sets the provenance mode of csg objects, i.e., how the groovy lines
+	 * returned by {@link #getCreationEventStackTraceList()} are recorded. The
+	 * default is {@link ProvenanceMode#LAZY}.
+	 *
+	 * @param mode
+	 *            the provenance mode
+	 */
+	public static void setProvenanceMode(ProvenanceMode mode) {
+		Provenance.setCsgMode(mode);
+	}
+
+	/**
+	 * Gets the provenance mode of polygons.
+	 *
+	 * @return the provenance mode
+	 */
+	public static ProvenanceMode getPolygonProvenanceMode() {
+		return Provenance.getPolygonMode();
+	}
+
+	/**
+	 * Sets the provenance mode of polygons, i.e., whether
+	 * {@link Polygon#getCreationEventStackTrace()} returns a trace. The
+	 * default is {@link ProvenanceMode#OFF}.
+	 *
+	 * @param mode
+	 *            the provenance mode
+	 */
+	public static void setPolygonProvenanceMode(ProvenanceMode mode) {
+		Provenance.setPolygonMode(mode);
+	}
+
+	/**
+	 * Gets the provenance sample rate.
+	 *
+	 * @return the number of objects per recorded trace in
+	 *         {@link ProvenanceMode#SAMPLED} mode
+	 */
+	public static int getProvenanceSampleRate() {
+		return Provenance.getSampleRate();
+	}
+
+	/**
+	 * Sets the provenance sample rate.
+	 *
+	 * @param rate
+	 *            the number of objects per recorded trace in
+	 *            {@link ProvenanceMode#SAMPLED} mode, must be positive
+	 */
+	public static void setProvenanceSampleRate(int rate) {
+		Provenance.setSampleRate(rate);
+	}
+
+	/**
+	 * Gets the parallel BSP clipping threshold.
+	 *
+	 * @return the minimum number of polygons a BSP subtree must hold before it
+	 *         is clipped in a separate fork/join task, a value &lt;= 0 means
+	 *         parallel clipping is disabled
+	 */
+	public static int getParallelClipThreshold() {
+		return Node.getParallelThreshold();
+	}
+
+	/**
+	 * Sets the parallel BSP clipping threshold. Once a BSP subtree holds more
+	 * polygons than the threshold, its front and back subtrees are clipped as
+	 * parallel tasks. The resulting polygons are the same as with sequential
+	 * clipping. Parallel clipping is disabled by default.
+	 *
+	 * @param threshold
+	 *            the minimum number of polygons a BSP subtree must hold before
+	 *            it is clipped in a separate task, a value &lt;= 0 disables
+	 *            parallel clipping
+	 */
+	public static void setParallelClipThreshold(int threshold) {
+		Node.setParallelThreshold(threshold);
+	}
+
+	/**
+	 * Gets the pool used for parallel BSP clipping and tree reductions.
+	 *
+	 * @return the pool used for parallel BSP clipping
+	 */
+	public static ForkJoinPool getClipPool() {
+		return Node.getPool();
+	}
+
+	/**
+	 * Sets the pool used for parallel BSP clipping and tree reductions. The
+	 * common pool is used by default.
+	 *
+	 * @param pool
+	 *            the pool to use
+	 */
+	public static void setClipPool(ForkJoinPool pool) {
+		Node.setPool(pool);
+	}
+
+	/**
+	 * Copies the split strategy of the specified csg to this csg.
+	 *
+	 * @param source
+	 *            the csg to copy the strategy from
+	 * @return this csg
+	 */
+	private CSG inheritSplitStrategy(CSG source) {
+		this.splitStrategy = source.splitStrategy;
+		return this;
+	}
+
 	/**
 	 * Sets the polygons.
 	 *
@@ -1718,6 +2499,8 @@ public class CSG {
 	 */
 	public void setPolygons(List<Polygon> polygons) {
 		bounds = null;
+		bvh = null;
+		mesh = null;
 		this.polygons = polygons;
 	}
 
@@ -1732,6 +2515,14 @@ public class CSG {
 		/** The polygon bound. */
 		POLYGON_BOUND,
 
+		/**
+		 * Uses a bounding volume hierarchy to find the polygons that overlap
+		 * polygons of the other operand. Only these are partitioned by the BSP
+		 * tree. The remaining polygons are classified by ray casting. Requires
+		 * closed solids.
+		 */
+		POLYGON_BVH,
+
 		/** The none. */
 		NONE
 	}
@@ -1760,22 +2551,45 @@ public class CSG {
 	 *  To make a normal inset, difference this collection
 	 *  To make an outset by the normals, union this collection with this object. 
 	 * 
+	 * The hulls are computed from the vertex sums of each polygon and the
+	 * convex hull of the traveling shape, in parallel on the clip pool.
+	 * 
 	 * @param travelingShape a shap to sweep around
 	 * @return
 	 */
 	public ArrayList<CSG> minkowski( CSG travelingShape){
-		ArrayList<CSG> allFaces = new ArrayList<CSG>();
-		for(Polygon p: getPolygons()){
-			ArrayList<CSG> corners =new ArrayList<CSG>();
-			for(Vertex v:p.vertices){
-				corners.add(travelingShape.move(v));
-			}
-			CSG face = corners.remove(0);
-			face=face.hull(corners);
-			allFaces.add(face);
+		ArrayList<CSG> allFaces = new ArrayList<CSG>(
+				Minkowski.faceHulls(this, travelingShape, travelingShape.storage));
+		for (CSG face : allFaces) {
+			face.historySync(travelingShape);
 		}
 		return allFaces;
 	}
+
+	/**
+	 * Returns the Minkowski sum of this csg and the convex hull of the
+	 * traveling shape, i.e., a non-convex traveling shape is replaced by its
+	 * hull. If this csg is convex, the result is the convex hull of the
+	 * pairwise vertex sums. Otherwise the hulls of {@link #minkowski(CSG)},
+	 * which cover the sum of the surface, are merged with a copy of this csg
+	 * moved by a vertex of the traveling shape by a spatially balanced union.
+	 * The traveling shape does not have to contain the origin.
+	 * 
+	 * @param travelingShape
+	 *            a shape to sweep around
+	 * @return the Minkowski sum
+	 */
+	public CSG minkowskiSum(CSG travelingShape) {
+		if (Minkowski.isConvex(this)) {
+			return Minkowski.convexSum(this, travelingShape, storage).historySync(this)
+					.historySync(travelingShape);
+		}
+		// A + B = (A + p) u (surface of A + B) for any point p of B
+		List<CSG> operands = new ArrayList<>();
+		operands.add(move(travelingShape.getPolygons().get(0).vertices.get(0).pos));
+		operands.addAll(minkowski(travelingShape));
+		return treeUnion(operands, "Minkowski");
+	}
 	
 	public CSG toolOffset(double shellThickness) {
 		
@@ -1785,9 +2599,13 @@ public class CSG {
 			return this;
 		CSG printNozzel = new Icosahedron(shellThickness).toCSG();
 		
-		if(cut)
-			return difference(minkowski(printNozzel));
-		return union(minkowski(printNozzel));
+		if(cut) {
+			List<CSG> faces = minkowski(printNozzel);
+			if (faces.isEmpty())
+				return clone();
+			return difference(faces.get(0).treeUnion(faces, "Difference"));
+		}
+		return minkowskiSum(printNozzel);
 	}
 
 	public CSG makeKeepaway(double shellThickness) {
@@ -1821,42 +2639,70 @@ public class CSG {
 
 	public CSG addCreationEventStackTraceList(ArrayList<Exception> incoming) {
 		for (Exception ex : incoming) {
-			addStackTrace(ex);
+			addCreationEventStackTrace(ex);
 
 		}
 		return this;
 	}
 
+	/**
+	 * Adds the groovy lines of the specified trace to the history of this csg.
+	 * In {@link ProvenanceMode#LAZY} mode the trace is resolved when the
+	 * history is requested.
+	 *
+	 * @param trace
+	 *            the trace
+	 */
+	private synchronized void addCreationEventStackTrace(Exception trace) {
+		if (Provenance.getCsgMode() != ProvenanceMode.LAZY) {
+			addStackTrace(trace);
+			return;
+		}
+		if (pendingStackTraces == null) {
+			pendingStackTraces = new ArrayList<>();
+		} else if (pendingStackTraces.size() >= MAX_PENDING_STACK_TRACES) {
+			resolveStackTraces();
+			pendingStackTraces = new ArrayList<>();
+		}
+		pendingStackTraces.add(trace);
+	}
+
+	/**
+	 * Resolves all pending traces.
+	 */
+	private synchronized void resolveStackTraces() {
+		if (pendingStackTraces != null) {
+			List<Exception> traces = pendingStackTraces;
+			pendingStackTraces = null;
+			for (Exception trace : traces) {
+				addStackTrace(trace);
+			}
+		}
+	}
+
 	private void addStackTrace(Exception creationEventStackTrace2) {
 		for (StackTraceElement el : creationEventStackTrace2.getStackTrace()) {
-			try {
-				if (el.getFileName().contains(".groovy") && el.getLineNumber() > 0) {
-					boolean dupLine = false;
-					String thisline = el.getFileName() + ":" + el.getLineNumber();
-					for (String s : groovyFileLines) {
-						if (s.contentEquals(thisline)) {
-							dupLine = true;
-							// System.err.println("Dupe: "+thisline);
-							break;
-						}
-					}
-					if (dupLine == false) {
-						groovyFileLines.add(thisline);
-						// System.err.println("Line: "+thisline);
-						// for(String s:groovyFileLines){
-						// //System.err.println("\t\t "+s);
-						// creationEventStackTrace2.printStackTrace();
-						// }
-					}
-				}
-			} catch (NullPointerException ex) {
-
+			String fileName = el.getFileName();
+			if (fileName != null && fileName.contains(".groovy") && el.getLineNumber() > 0) {
+				addCreationEventString(fileName + ":" + el.getLineNumber());
 			}
 		}
 	}
 
 	public CSG historySync(CSG dyingCSG) {
-		this.addCreationEventStringList(dyingCSG.getCreationEventStackTraceList());
+		if (dyingCSG != this) {
+			List<Exception> traces;
+			synchronized (dyingCSG) {
+				traces = dyingCSG.pendingStackTraces == null ? null
+						: new ArrayList<>(dyingCSG.pendingStackTraces);
+			}
+			if (traces != null) {
+				for (Exception trace : traces) {
+					addCreationEventStackTrace(trace);
+				}
+			}
+		}
+		this.addCreationEventStringList(dyingCSG.groovyFileLines);
 		Set<String> params = dyingCSG.getParameters();
 		for (String param : params) {
 			boolean existing = false;
@@ -1870,10 +2716,48 @@ public class CSG {
 					this.setParameter(vals, dyingCSG.getMapOfparametrics().get(param));
 			}
 		}
+		if (dyingCSG != this) {
+			if (dyingCSG.regenerate != null) {
+				addDependencies(Collections.singleton(dyingCSG));
+			} else {
+				addDependencies(dyingCSG.getDependencies());
+			}
+		}
 		this.setColor(dyingCSG.getColor());
 		return this;
 	}
 
+	private void addDependencies(Set<CSG> csgs) {
+		if (csgs.isEmpty()) {
+			return;
+		}
+		synchronized (this) {
+			if (dependencies == null) {
+				dependencies = Collections.newSetFromMap(new IdentityHashMap<>());
+			}
+			dependencies.addAll(csgs);
+		}
+		if (regenerate != null) {
+			registerWithGraph();
+		}
+	}
+
+	/**
+	 * Returns the regenerable CSGs (see {@link #setRegenerate(IRegenerate)})
+	 * this csg has been derived from. CSGs that were derived from other
+	 * regenerable CSGs hide their own dependencies.
+	 *
+	 * @return the dependencies of this csg
+	 */
+	public synchronized Set<CSG> getDependencies() {
+		if (dependencies == null) {
+			return Collections.emptySet();
+		}
+		Set<CSG> copy = Collections.newSetFromMap(new IdentityHashMap<>());
+		copy.addAll(dependencies);
+		return Collections.unmodifiableSet(copy);
+	}
+
 	public CSG addCreationEventStringList(ArrayList<String> incoming) {
 
 		for (String s : incoming) {
@@ -1883,16 +2767,9 @@ public class CSG {
 		return this;
 	}
 
-	public CSG addCreationEventString(String thisline) {
+	public synchronized CSG addCreationEventString(String thisline) {
 
-		boolean dupLine = false;
-		for (String s : groovyFileLines) {
-			if (s.contentEquals(thisline)) {
-				dupLine = true;
-				break;
-			}
-		}
-		if (!dupLine) {
+		if (groovyFileLineSet.add(thisline)) {
 			groovyFileLines.add(thisline);
 		}
 
@@ -1900,6 +2777,7 @@ public class CSG {
 	}
 
 	public ArrayList<String> getCreationEventStackTraceList() {
+		resolveStackTraces();
 		return groovyFileLines;
 	}
 
@@ -1945,8 +2823,11 @@ public class CSG {
 			return this;
 		if (CSGDatabase.get(w.getName()) == null)
 			CSGDatabase.set(w.getName(), w);
-		if (getMapOfparametrics().get(w.getName()) == null)
+		if (getMapOfparametrics().get(w.getName()) == null) {
 			getMapOfparametrics().put(w.getName(), function);
+			if (regenerate != null)
+				registerWithGraph();
+		}
 		return this;
 	}
 
@@ -1997,11 +2878,39 @@ public class CSG {
 		return this;
 	}
 
+	/**
+	 * Sets the function that regenerates this csg. If
+	 * {@link DependencyGraph#setAutoRegister(boolean) auto registration} of the
+	 * default {@link DependencyGraph} is enabled, a csg with a regeneration
+	 * function is regenerated by the graph whenever one of its parameters or
+	 * one of the regenerable CSGs it depends on changes.
+	 *
+	 * @param function
+	 *            the function, {@code null} to remove this csg from the
+	 *            dependency graph
+	 * @return this csg
+	 */
 	public CSG setRegenerate(IRegenerate function) {
 		regenerate = function;
+		if (function != null) {
+			registerWithGraph();
+		} else {
+			DependencyGraph.getDefault().unregister(this);
+		}
 		return this;
 	}
 
+	private void registerWithGraph() {
+		DependencyGraph graph = DependencyGraph.getDefault();
+		if (graph.isAutoRegister()) {
+			graph.register(this);
+		}
+	}
+
+	public IRegenerate getRegenerate() {
+		return regenerate;
+	}
+
 	public CSG regenerate() {
 		this.markForRegeneration = false;
 		if (regenerate == null)
@@ -0,0 +1,419 @@
+package eu.mihosoft.vrl.v3d;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Native binary format of {@link CSG}.
+ *
+ * A file stores the indexed mesh of a CSG, i.e., shared vertex positions and
+ * normals, the corner indices of each polygon, the polygon planes and the
+ * property storage of each polygon. Storages that are shared by several
+ * polygons are stored only once. All values are little endian:
+ *
+ * <pre>
+ * header    magic "JCSG", version, flags, color (r, g, b, opacity),
+ *           number of vertices, normals, faces, corners and storages
+ * storages  per storage: number of entries, per entry: key, type, value
+ * arrays    positions, weights (if flagged), normals, face offsets,
+ *           corner vertex indices, corner normal indices, planes,
+ *           storage index per face
+ * </pre>
+ *
+ * Storage values of type {@link String}, {@link Integer}, {@link Long},
+ * {@link Double} and {@link Boolean} are written; other values (e.g., hole
+ * polygons) are skipped.
+ *
+ * The reader reads the file into one buffer and bulk-copies the arrays into an
+ * {@link IndexedMesh}, the polygons of the returned CSG are created when they
+ * are accessed for the first time.
+ *
+ * @see CSG#toBinary(java.nio.file.Path)
+ * @see CSG#fromBinary(java.nio.file.Path)
+ */
+public final class CSGBinary {
+
+    /**
+     * First bytes of every file ("JCSG").
+     */
+    static final int MAGIC = 0x4753434A;
+
+    /**
+     * Current format version.
+     */
+    static final int VERSION = 1;
+
+    private static final int FLAG_WEIGHTS = 1;
+
+    private static final int HEADER_SIZE = 4 * 4 + 4 * 8 + 5 * 4;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_DOUBLE = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+
+    private CSGBinary() {
+        throw new AssertionError("Don't instantiate me!", null);
+    }
+
+    /**
+     * Writes the specified csg to the specified file. Existing files are
+     * overwritten.
+     *
+     * @param csg the csg to write
+     * @param path destination file
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(CSG csg, Path path) throws IOException {
+        IndexedMesh mesh = csg.toIndexedMesh();
+
+        Map<PropertyStorage, Integer> storageIds = new IdentityHashMap<>();
+        List<PropertyStorage> storages = new ArrayList<>();
+        int numFaces = mesh.getNumberOfFaces();
+        int[] faceStorages = new int[numFaces];
+        for (int f = 0; f < numFaces; f++) {
+            PropertyStorage storage = mesh.storages[f];
+            Integer id = storageIds.get(storage);
+            if (id == null) {
+                id = storages.size();
+                storageIds.put(storage, id);
+                storages.add(storage);
+            }
+            faceStorages[f] = id;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel);
+
+            Color color = csg.getColor();
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(mesh.weights != null ? FLAG_WEIGHTS : 0);
+            out.putInt(0);
+            out.putDouble(color.getRed());
+            out.putDouble(color.getGreen());
+            out.putDouble(color.getBlue());
+            out.putDouble(color.getOpacity());
+            out.putInt(mesh.positions.length / 3);
+            out.putInt(mesh.normals.length / 3);
+            out.putInt(numFaces);
+            out.putInt(mesh.indices.length);
+            out.putInt(storages.size());
+
+            for (PropertyStorage storage : storages) {
+                writeStorage(out, storage);
+            }
+
+            out.putDoubles(mesh.positions);
+            if (mesh.weights != null) {
+                out.putDoubles(mesh.weights);
+            }
+            out.putDoubles(mesh.normals);
+            out.putInts(mesh.faceOffsets);
+            out.putInts(mesh.indices);
+            out.putInts(mesh.normalIndices);
+            out.putDoubles(mesh.planes);
+            out.putInts(faceStorages);
+            out.flush();
+        }
+    }
+
+    /**
+     * Reads a csg from the specified file.
+     *
+     * @param path file to read
+     * @return a csg that is backed by an indexed mesh
+     * @throws IOException if the file cannot be read or is not a csg file
+     */
+    public static CSG read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Not a CSG file: " + path);
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("CSG file too large: " + path);
+            }
+            // the file is not mapped, a mapping would keep it open until it
+            // is garbage collected and block deleting or replacing it
+            ByteBuffer in = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            while (in.hasRemaining()) {
+                if (channel.read(in) < 0) {
+                    throw new IOException("Unexpected end of CSG file");
+                }
+            }
+            in.flip();
+            try {
+                return parse(in, path);
+            } catch (BufferUnderflowException ex) {
+                throw new IOException("Unexpected end of CSG file", ex);
+            }
+        }
+    }
+
+    private static CSG parse(ByteBuffer in, Path path) throws IOException {
+        if (in.getInt() != MAGIC) {
+            throw new IOException("Not a CSG file: " + path);
+        }
+        int version = in.getInt();
+        if (version > VERSION) {
+            throw new IOException("Unsupported CSG file version " + version + ": " + path);
+        }
+        int flags = in.getInt();
+        in.getInt();
+        Color color = Color.color(in.getDouble(), in.getDouble(),
+                in.getDouble(), in.getDouble());
+        int numVertices = in.getInt();
+        int numNormals = in.getInt();
+        int numFaces = in.getInt();
+        int numCorners = in.getInt();
+        int numStorages = in.getInt();
+        if (numVertices < 0 || numNormals < 0 || numFaces < 0 || numCorners < 0 || numStorages < 0) {
+            throw new IOException("Corrupt CSG file: " + path);
+        }
+        // each storage takes at least its entry count, the arrays follow
+        long weightsLength = (flags & FLAG_WEIGHTS) != 0 ? numVertices : 0;
+        require(in, numStorages * 4L
+                + ((numVertices * 3L + weightsLength + numNormals * 3L + numFaces * 4L) * 8)
+                + ((numFaces + 1L + numCorners * 2L + numFaces) * 4));
+
+        PropertyStorage[] storageTable = new PropertyStorage[numStorages];
+        for (int i = 0; i < numStorages; i++) {
+            storageTable[i] = readStorage(in);
+        }
+
+        double[] positions = new double[numVertices * 3];
+        double[] weights = (flags & FLAG_WEIGHTS) != 0 ? new double[numVertices] : null;
+        double[] normals = new double[numNormals * 3];
+        int[] faceOffsets = new int[numFaces + 1];
+        int[] indices = new int[numCorners];
+        int[] normalIndices = new int[numCorners];
+        double[] planes = new double[numFaces * 4];
+        int[] faceStorages = new int[numFaces];
+
+        readDoubles(in, positions);
+        if (weights != null) {
+            readDoubles(in, weights);
+        }
+        readDoubles(in, normals);
+        readInts(in, faceOffsets);
+        readInts(in, indices);
+        readInts(in, normalIndices);
+        readDoubles(in, planes);
+        readInts(in, faceStorages);
+
+        PropertyStorage[] storages = new PropertyStorage[numFaces];
+        for (int f = 0; f < numFaces; f++) {
+            if (faceStorages[f] < 0 || faceStorages[f] >= numStorages) {
+                throw new IOException("Corrupt CSG file: " + path);
+            }
+            storages[f] = storageTable[faceStorages[f]];
+        }
+
+        CSG csg = CSG.fromMesh(new IndexedMesh(positions, weights, normals,
+                faceOffsets, indices, normalIndices, planes, storages));
+        csg.setColor(color);
+        return csg;
+    }
+
+    private static void writeStorage(Output out, PropertyStorage storage) throws IOException {
+        List<Map.Entry<String, Object>> entries = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : storage.entries()) {
+            if (typeOf(entry.getValue()) != 0) {
+                entries.add(entry);
+            }
+        }
+        out.putInt(entries.size());
+        for (Map.Entry<String, Object> entry : entries) {
+            Object value = entry.getValue();
+            byte type = typeOf(value);
+            out.putString(entry.getKey());
+            out.putByte(type);
+            switch (type) {
+                case TYPE_STRING:
+                    out.putString((String) value);
+                    break;
+                case TYPE_INT:
+                    out.putInt((Integer) value);
+                    break;
+                case TYPE_LONG:
+                    out.putLong((Long) value);
+                    break;
+                case TYPE_DOUBLE:
+                    out.putDouble((Double) value);
+                    break;
+                default:
+                    out.putByte((byte) ((Boolean) value ? 1 : 0));
+                    break;
+            }
+        }
+    }
+
+    private static PropertyStorage readStorage(ByteBuffer in) throws IOException {
+        PropertyStorage storage = new PropertyStorage();
+        // the constructor assigns a random color
+        storage.delete("material:color");
+        int numEntries = in.getInt();
+        // each entry takes at least its key length and type
+        require(in, numEntries * 5L);
+        for (int i = 0; i < numEntries; i++) {
+            String key = readString(in);
+            byte type = in.get();
+            switch (type) {
+                case TYPE_STRING:
+                    storage.set(key, readString(in));
+                    break;
+                case TYPE_INT:
+                    storage.set(key, in.getInt());
+                    break;
+                case TYPE_LONG:
+                    storage.set(key, in.getLong());
+                    break;
+                case TYPE_DOUBLE:
+                    storage.set(key, in.getDouble());
+                    break;
+                case TYPE_BOOLEAN:
+                    storage.set(key, in.get() != 0);
+                    break;
+                default:
+                    throw new IOException("Unknown property type " + type + " of '" + key + "'");
+            }
+        }
+        return storage;
+    }
+
+    private static byte typeOf(Object value) {
+        if (value instanceof String) {
+            return TYPE_STRING;
+        } else if (value instanceof Integer) {
+            return TYPE_INT;
+        } else if (value instanceof Long) {
+            return TYPE_LONG;
+        } else if (value instanceof Double) {
+            return TYPE_DOUBLE;
+        } else if (value instanceof Boolean) {
+            return TYPE_BOOLEAN;
+        }
+        return 0;
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = in.getInt();
+        require(in, length);
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void readDoubles(ByteBuffer in, double[] values) throws IOException {
+        require(in, (long) values.length * 8);
+        in.asDoubleBuffer().get(values);
+        in.position(in.position() + values.length * 8);
+    }
+
+    private static void readInts(ByteBuffer in, int[] values) throws IOException {
+        require(in, (long) values.length * 4);
+        in.asIntBuffer().get(values);
+        in.position(in.position() + values.length * 4);
+    }
+
+    private static void require(ByteBuffer in, long length) throws IOException {
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException("Unexpected end of CSG file");
+        }
+    }
+
+    /**
+     * Buffered little endian output to a channel.
+     */
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            for (int offset = 0; offset < bytes.length;) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        void putDoubles(double[] values) throws IOException {
+            for (int offset = 0; offset < values.length;) {
+                ensure(8);
+                int length = Math.min(buffer.remaining() / 8, values.length - offset);
+                buffer.asDoubleBuffer().put(values, offset, length);
+                buffer.position(buffer.position() + length * 8);
+                offset += length;
+            }
+        }
+
+        void putInts(int[] values) throws IOException {
+            for (int offset = 0; offset < values.length;) {
+                ensure(4);
+                int length = Math.min(buffer.remaining() / 4, values.length - offset);
+                buffer.asIntBuffer().put(values, offset, length);
+                buffer.position(buffer.position() + length * 4);
+                offset += length;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
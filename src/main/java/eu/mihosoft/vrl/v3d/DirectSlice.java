@@ -0,0 +1,532 @@
+package eu.mihosoft.vrl.v3d;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import javax.vecmath.Matrix4d;
+
+/**
+ * Slice engine that intersects each polygon with the slice plane directly.
+ *
+ * Every polygon that crosses the plane contributes a segment. Segments are
+ * oriented such that the solid lies on their left side and are chained into
+ * closed loops by hashing their end points with a {@link VertexIndex}. Loops
+ * that are nested an odd number of times are holes; they are oriented
+ * clockwise and registered with their outline under
+ * {@link Edge#KEY_POLYGON_HOLES}.
+ *
+ * The slice plane is the XY plane transformed by the slice transform. The
+ * returned polygons are expressed in the coordinate system of the slice
+ * plane, i.e., they lie in its z=0 plane.
+ *
+ * @see Slice#setSliceEngine(ISlice)
+ */
+public class DirectSlice implements ISlice {
+
+	/**
+	 * Maximum distance of segment end points that are joined.
+	 */
+	static final double COINCIDENCE_TOLERANCE = 0.0001;
+
+	/**
+	 * Vertices that are closer to the plane than this distance count as
+	 * below the plane.
+	 */
+	private static final double PLANE_TOLERANCE = Plane.EPSILON;
+
+	/**
+	 * Maximum miter length of inset corners, in multiples of the inset
+	 * distance.
+	 */
+	private static final double MITER_LIMIT = 4;
+
+	@Override
+	public List<Polygon> slice(CSG incoming, Transform slicePlane, double normalInsetDistance) {
+		double[][] polygons = toLocal(incoming.getPolygons(), slicePlane);
+		List<double[]> segments = new ArrayList<>();
+		for (double[] polygon : polygons) {
+			intersect(polygon, 0, segments);
+		}
+		return toPolygons(segments, 0, normalInsetDistance);
+	}
+
+	/**
+	 * Slices the specified solid at several planes parallel to the slice
+	 * plane. The polygons are sorted by their extent along the plane normal
+	 * once, each layer only visits the polygons that may cross it.
+	 *
+	 * @param incoming
+	 *            the solid to slice
+	 * @param basePlane
+	 *            transform that maps the XY plane to the base plane
+	 * @param offsets
+	 *            distances of the layers from the base plane along its normal
+	 * @param normalInsetDistance
+	 *            distance by which the loops are moved towards the interior
+	 *            of the solid
+	 * @return a lazy, parallel stream with the loops of each layer in the
+	 *         order of the offsets, expressed in the coordinate system of the
+	 *         base plane
+	 */
+	public Stream<List<Polygon>> sliceLayers(CSG incoming, Transform basePlane, double[] offsets,
+			double normalInsetDistance) {
+		double[] layers = offsets.clone();
+		LayerIndex index = new LayerIndex(toLocal(incoming.getPolygons(), basePlane));
+		return IntStream.range(0, layers.length).parallel().mapToObj(layer -> {
+			double z = layers[layer];
+			List<double[]> segments = new ArrayList<>();
+			index.forCandidates(z, polygon -> intersect(polygon, z, segments));
+			return toPolygons(segments, z, normalInsetDistance);
+		});
+	}
+
+	/**
+	 * Polygons sorted by their lowest z coordinate, grouped into blocks that
+	 * know the highest z coordinate of their members. A layer query stops at
+	 * the first polygon that starts above the layer and skips every block
+	 * that ends below it.
+	 */
+	private static final class LayerIndex {
+		private static final int BLOCK_SIZE = 64;
+
+		private final double[][] polygons;
+		private final double[] minZ;
+		private final double[] maxZ;
+		private final double[] blockMaxZ;
+
+		LayerIndex(double[][] local) {
+			int n = local.length;
+			double[] lo = new double[n];
+			double[] hi = new double[n];
+			Integer[] order = new Integer[n];
+			for (int i = 0; i < n; i++) {
+				double[] polygon = local[i];
+				double min = Double.POSITIVE_INFINITY;
+				double max = Double.NEGATIVE_INFINITY;
+				for (int j = 2; j < polygon.length; j += 3) {
+					min = Math.min(min, polygon[j]);
+					max = Math.max(max, polygon[j]);
+				}
+				lo[i] = min;
+				hi[i] = max;
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> Double.compare(lo[a], lo[b]));
+
+			polygons = new double[n][];
+			minZ = new double[n];
+			maxZ = new double[n];
+			blockMaxZ = new double[(n + BLOCK_SIZE - 1) / BLOCK_SIZE];
+			Arrays.fill(blockMaxZ, Double.NEGATIVE_INFINITY);
+			for (int i = 0; i < n; i++) {
+				polygons[i] = local[order[i]];
+				minZ[i] = lo[order[i]];
+				maxZ[i] = hi[order[i]];
+				blockMaxZ[i / BLOCK_SIZE] = Math.max(blockMaxZ[i / BLOCK_SIZE], maxZ[i]);
+			}
+		}
+
+		/**
+		 * Passes every polygon that has vertices on both sides of the plane
+		 * at the specified height to the specified consumer.
+		 */
+		void forCandidates(double z, Consumer<double[]> consumer) {
+			// polygons that start above the plane cannot cross it
+			int end = upperBound(z + PLANE_TOLERANCE);
+			for (int block = 0; block * BLOCK_SIZE < end; block++) {
+				if (blockMaxZ[block] <= z + PLANE_TOLERANCE) {
+					continue;
+				}
+				int last = Math.min(end, (block + 1) * BLOCK_SIZE);
+				for (int i = block * BLOCK_SIZE; i < last; i++) {
+					if (maxZ[i] - z > PLANE_TOLERANCE) {
+						consumer.accept(polygons[i]);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Returns the number of polygons whose lowest z coordinate is at most
+		 * the specified value.
+		 */
+		private int upperBound(double z) {
+			int low = 0;
+			int high = minZ.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (minZ[mid] <= z) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * Returns the vertex coordinates of the specified polygons in the
+	 * coordinate system of the slice plane.
+	 *
+	 * @param polygons
+	 *            the polygons
+	 * @param slicePlane
+	 *            transform that maps the XY plane to the slice plane
+	 * @return x, y, z per vertex of each polygon
+	 */
+	static double[][] toLocal(List<Polygon> polygons, Transform slicePlane) {
+		Matrix4d m = new Matrix4d(slicePlane.getInternalMatrix());
+		m.invert();
+
+		double[][] result = new double[polygons.size()][];
+		for (int i = 0; i < result.length; i++) {
+			List<Vertex> vertices = polygons.get(i).vertices;
+			double[] coords = new double[vertices.size() * 3];
+			for (int j = 0; j < vertices.size(); j++) {
+				Vector3d p = vertices.get(j).pos;
+				coords[j * 3] = m.m00 * p.x + m.m01 * p.y + m.m02 * p.z + m.m03;
+				coords[j * 3 + 1] = m.m10 * p.x + m.m11 * p.y + m.m12 * p.z + m.m13;
+				coords[j * 3 + 2] = m.m20 * p.x + m.m21 * p.y + m.m22 * p.z + m.m23;
+			}
+			result[i] = coords;
+		}
+		return result;
+	}
+
+	/**
+	 * Intersects the specified polygon with the plane at the specified
+	 * height. Each resulting segment is added as {x1, y1, x2, y2}, oriented
+	 * such that the interior of the solid lies on its left.
+	 *
+	 * @param polygon
+	 *            x, y, z per vertex
+	 * @param z
+	 *            height of the plane
+	 * @param segments
+	 *            receives the segments
+	 */
+	static void intersect(double[] polygon, double z, List<double[]> segments) {
+		int n = polygon.length / 3;
+
+		// count crossings first, most polygons do not cross the plane
+		int crossings = 0;
+		boolean firstAbove = polygon[2] - z > PLANE_TOLERANCE;
+		boolean above = firstAbove;
+		for (int i = 1; i <= n; i++) {
+			boolean nextAbove = i == n ? firstAbove : polygon[i * 3 + 2] - z > PLANE_TOLERANCE;
+			if (nextAbove != above) {
+				crossings++;
+			}
+			above = nextAbove;
+		}
+		if (crossings < 2) {
+			return;
+		}
+
+		// newell normal, the segments run along z x normal
+		double nx = 0;
+		double ny = 0;
+		for (int i = 0; i < n; i++) {
+			int j = (i + 1) % n;
+			double yi = polygon[i * 3 + 1], zi = polygon[i * 3 + 2];
+			double yj = polygon[j * 3 + 1], zj = polygon[j * 3 + 2];
+			double xi = polygon[i * 3], xj = polygon[j * 3];
+			nx += (yi - yj) * (zi + zj);
+			ny += (zi - zj) * (xi + xj);
+		}
+		double dx = -ny;
+		double dy = nx;
+
+		double[] points = new double[crossings * 2];
+		int c = 0;
+		for (int i = 0; i < n; i++) {
+			int j = (i + 1) % n;
+			double zi = polygon[i * 3 + 2] - z;
+			double zj = polygon[j * 3 + 2] - z;
+			if ((zi > PLANE_TOLERANCE) != (zj > PLANE_TOLERANCE)) {
+				double t = zi / (zi - zj);
+				points[c++] = polygon[i * 3] + t * (polygon[j * 3] - polygon[i * 3]);
+				points[c++] = polygon[i * 3 + 1] + t * (polygon[j * 3 + 1] - polygon[i * 3 + 1]);
+			}
+		}
+
+		if (crossings > 2) {
+			// concave polygon, pair the crossings in order along the
+			// segment direction
+			Integer[] order = new Integer[crossings];
+			for (int i = 0; i < crossings; i++) {
+				order[i] = i;
+			}
+			final double[] p = points;
+			Arrays.sort(order, (a, b) -> Double.compare(p[a * 2] * dx + p[a * 2 + 1] * dy,
+					p[b * 2] * dx + p[b * 2 + 1] * dy));
+			double[] sorted = new double[points.length];
+			for (int i = 0; i < crossings; i++) {
+				sorted[i * 2] = points[order[i] * 2];
+				sorted[i * 2 + 1] = points[order[i] * 2 + 1];
+			}
+			points = sorted;
+		}
+
+		for (int i = 0; i + 1 < crossings; i += 2) {
+			double x1 = points[i * 2], y1 = points[i * 2 + 1];
+			double x2 = points[i * 2 + 2], y2 = points[i * 2 + 3];
+			if ((x2 - x1) * dx + (y2 - y1) * dy < 0) {
+				segments.add(new double[] { x2, y2, x1, y1 });
+			} else {
+				segments.add(new double[] { x1, y1, x2, y2 });
+			}
+		}
+	}
+
+	/**
+	 * Chains the specified segments into closed loops and converts them to
+	 * polygons.
+	 *
+	 * @param segments
+	 *            segments as {x1, y1, x2, y2}
+	 * @param z
+	 *            height of the plane
+	 * @param normalInsetDistance
+	 *            distance by which the loops are moved towards the interior
+	 *            of the solid
+	 * @return the loops, outlines are oriented counter-clockwise, holes
+	 *         clockwise
+	 */
+	static List<Polygon> toPolygons(List<double[]> segments, double z, double normalInsetDistance) {
+		List<double[]> loops = chain(segments);
+
+		// nesting depth of each loop, odd depths are holes
+		int[] depth = new int[loops.size()];
+		double[] areas = new double[loops.size()];
+		for (int i = 0; i < loops.size(); i++) {
+			areas[i] = area(loops.get(i));
+		}
+		for (int i = 0; i < loops.size(); i++) {
+			double[] loop = loops.get(i);
+			for (int j = 0; j < loops.size(); j++) {
+				if (i != j && Math.abs(areas[j]) > Math.abs(areas[i])
+						&& contains(loops.get(j), loop[0], loop[1])) {
+					depth[i]++;
+				}
+			}
+		}
+
+		List<Polygon> result = new ArrayList<>(loops.size());
+		for (int i = 0; i < loops.size(); i++) {
+			double[] loop = loops.get(i);
+			boolean hole = depth[i] % 2 != 0;
+			if (hole == areas[i] > 0) {
+				loop = reverse(loop);
+			}
+			if (normalInsetDistance != 0) {
+				loop = inset(loop, normalInsetDistance);
+			}
+			result.add(toPolygon(loop, z));
+		}
+
+		// register each hole with the smallest enclosing outline
+		for (int i = 0; i < loops.size(); i++) {
+			if (depth[i] % 2 == 0) {
+				continue;
+			}
+			double[] loop = loops.get(i);
+			int parent = -1;
+			for (int j = 0; j < loops.size(); j++) {
+				if (depth[j] == depth[i] - 1 && Math.abs(areas[j]) > Math.abs(areas[i])
+						&& (parent < 0 || Math.abs(areas[j]) < Math.abs(areas[parent]))
+						&& contains(loops.get(j), loop[0], loop[1])) {
+					parent = j;
+				}
+			}
+			if (parent >= 0) {
+				PropertyStorage storage = result.get(parent).getStorage();
+				List<Polygon> holes = storage.<List<Polygon>> getValue(Edge.KEY_POLYGON_HOLES)
+						.orElseGet(ArrayList::new);
+				holes.add(result.get(i));
+				storage.set(Edge.KEY_POLYGON_HOLES, holes);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Chains the specified segments into closed loops. Open chains are
+	 * dropped.
+	 *
+	 * @param segments
+	 *            segments as {x1, y1, x2, y2}
+	 * @return the loops (x, y per vertex), collinear vertices removed
+	 */
+	private static List<double[]> chain(List<double[]> segments) {
+		VertexIndex points = new VertexIndex(COINCIDENCE_TOLERANCE);
+		int[] start = new int[segments.size()];
+		int[] end = new int[segments.size()];
+		for (int i = 0; i < segments.size(); i++) {
+			double[] s = segments.get(i);
+			start[i] = points.add(s[0], s[1], 0);
+			end[i] = points.add(s[2], s[3], 0);
+		}
+
+		// segments by start point (linked lists in primitive arrays)
+		int[] first = new int[points.size()];
+		Arrays.fill(first, -1);
+		int[] next = new int[segments.size()];
+		for (int i = segments.size() - 1; i >= 0; i--) {
+			next[i] = first[start[i]];
+			first[start[i]] = i;
+		}
+
+		boolean[] used = new boolean[segments.size()];
+		List<double[]> loops = new ArrayList<>();
+		double[] loop = new double[16];
+		for (int s = 0; s < segments.size(); s++) {
+			if (used[s] || start[s] == end[s]) {
+				continue;
+			}
+			int count = 0;
+			int origin = start[s];
+			int current = s;
+			boolean closed = false;
+			while (current >= 0) {
+				used[current] = true;
+				if (count + 2 > loop.length) {
+					loop = Arrays.copyOf(loop, loop.length * 2);
+				}
+				Vector3d p = points.get(start[current]);
+				loop[count++] = p.x;
+				loop[count++] = p.y;
+				if (end[current] == origin) {
+					closed = true;
+					break;
+				}
+				int candidate = first[end[current]];
+				while (candidate >= 0 && (used[candidate] || start[candidate] == end[candidate])) {
+					candidate = next[candidate];
+				}
+				current = candidate;
+			}
+			if (closed) {
+				double[] simplified = removeCollinear(Arrays.copyOf(loop, count));
+				if (simplified.length >= 6) {
+					loops.add(simplified);
+				}
+			}
+		}
+		return loops;
+	}
+
+	/**
+	 * Removes vertices that lie on the line through their neighbours.
+	 */
+	private static double[] removeCollinear(double[] loop) {
+		double[] result = loop.clone();
+		int n = result.length / 2;
+		boolean changed = true;
+		while (changed && n >= 3) {
+			changed = false;
+			for (int i = 0; i < n && n >= 3; i++) {
+				int a = (i + n - 1) % n;
+				int b = (i + 1) % n;
+				double ax = result[a * 2], ay = result[a * 2 + 1];
+				double px = result[i * 2], py = result[i * 2 + 1];
+				double bx = result[b * 2], by = result[b * 2 + 1];
+				double cross = (px - ax) * (by - ay) - (py - ay) * (bx - ax);
+				double length = Math.hypot(bx - ax, by - ay);
+				if (Math.abs(cross) <= Plane.EPSILON * length) {
+					System.arraycopy(result, (i + 1) * 2, result, i * 2, (n - i - 1) * 2);
+					n--;
+					i--;
+					changed = true;
+				}
+			}
+		}
+		return Arrays.copyOf(result, n * 2);
+	}
+
+	/**
+	 * Moves the edges of the specified loop to their left side by the
+	 * specified distance.
+	 */
+	private static double[] inset(double[] loop, double distance) {
+		int n = loop.length / 2;
+		double[] result = new double[loop.length];
+		for (int i = 0; i < n; i++) {
+			int a = (i + n - 1) % n;
+			int b = (i + 1) % n;
+			// left normals of the incoming and outgoing edge
+			double ex1 = loop[i * 2] - loop[a * 2], ey1 = loop[i * 2 + 1] - loop[a * 2 + 1];
+			double ex2 = loop[b * 2] - loop[i * 2], ey2 = loop[b * 2 + 1] - loop[i * 2 + 1];
+			double l1 = Math.hypot(ex1, ey1), l2 = Math.hypot(ex2, ey2);
+			double n1x = -ey1 / l1, n1y = ex1 / l1;
+			double n2x = -ey2 / l2, n2y = ex2 / l2;
+			double scale = distance / Math.max(1 + n1x * n2x + n1y * n2y, 2 / (MITER_LIMIT * MITER_LIMIT));
+			result[i * 2] = loop[i * 2] + (n1x + n2x) * scale;
+			result[i * 2 + 1] = loop[i * 2 + 1] + (n1y + n2y) * scale;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the signed area of the specified loop, positive if it is
+	 * oriented counter-clockwise.
+	 */
+	private static double area(double[] loop) {
+		double area = 0;
+		int n = loop.length / 2;
+		for (int i = 0; i < n; i++) {
+			int j = (i + 1) % n;
+			area += loop[i * 2] * loop[j * 2 + 1] - loop[j * 2] * loop[i * 2 + 1];
+		}
+		return area / 2;
+	}
+
+	/**
+	 * Determines whether the specified loop contains the specified point
+	 * (even-odd rule).
+	 */
+	private static boolean contains(double[] loop, double x, double y) {
+		boolean inside = false;
+		int n = loop.length / 2;
+		for (int i = 0, j = n - 1; i < n; j = i++) {
+			double xi = loop[i * 2], yi = loop[i * 2 + 1];
+			double xj = loop[j * 2], yj = loop[j * 2 + 1];
+			if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+				inside = !inside;
+			}
+		}
+		return inside;
+	}
+
+	/**
+	 * Reverses the order of the vertices of the specified loop.
+	 */
+	private static double[] reverse(double[] loop) {
+		int n = loop.length / 2;
+		double[] result = new double[loop.length];
+		for (int i = 0; i < n; i++) {
+			result[i * 2] = loop[(n - 1 - i) * 2];
+			result[i * 2 + 1] = loop[(n - 1 - i) * 2 + 1];
+		}
+		return result;
+	}
+
+	/**
+	 * Converts the specified loop to a polygon in the plane at the specified
+	 * height.
+	 */
+	private static Polygon toPolygon(double[] loop, double z) {
+		Vector3d normal = new Vector3d(0, 0, 1);
+		List<Vertex> vertices = new ArrayList<>(loop.length / 2);
+		for (int i = 0; i < loop.length; i += 2) {
+			vertices.add(new Vertex(new Vector3d(loop[i], loop[i + 1], z), normal));
+		}
+		return new Polygon(vertices);
+	}
+}
@@ -6,8 +6,9 @@
 package eu.mihosoft.vrl.v3d;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -147,24 +148,24 @@ public class Edge {
 
         List<Vector3d> boundaryPath = new ArrayList<>();
 
+        int[] next = nextEdges(boundaryEdges);
         boolean[] used = new boolean[boundaryEdges.size()];
-        Edge edge = boundaryEdges.get(0);
+        int edgeIndex = 0;
         used[0] = true;
         while (true) {
-            Edge finalEdge = edge;
+            boundaryPath.add(boundaryEdges.get(edgeIndex).p1.pos);
 
-            boundaryPath.add(finalEdge.p1.pos);
+            int nextEdgeIndex = next[edgeIndex];
 
-            int nextEdgeIndex = boundaryEdges.indexOf(boundaryEdges.stream().
-                    filter(e -> finalEdge.p2.equals(e.p1)).findFirst().get());
+            if (nextEdgeIndex < 0) {
+                throw new NoSuchElementException("Unclosed path: no edge found with "
+                        + boundaryEdges.get(edgeIndex).p2);
+            }
 
             if (used[nextEdgeIndex]) {
-//                System.out.println("nexIndex: " + nextEdgeIndex);
                 break;
             }
-//            System.out.print("edge: " + edge.p2.pos);
-            edge = boundaryEdges.get(nextEdgeIndex);
-//            System.out.println("-> edge: " + edge.p1.pos);
+            edgeIndex = nextEdgeIndex;
             used[nextEdgeIndex] = true;
         }
 
@@ -408,9 +409,15 @@ public class Edge {
     private static List<Polygon> boundaryPaths(List<Edge> boundaryEdges) {
         List<Polygon> result = new ArrayList<>();
 
+        if (boundaryEdges.isEmpty()) {
+            return result;
+        }
+
+        int[] next = nextEdges(boundaryEdges);
+
         boolean[] used = new boolean[boundaryEdges.size()];
         int startIndex = 0;
-        Edge edge = boundaryEdges.get(startIndex);
+        int edgeIndex = startIndex;
         used[startIndex] = true;
 
         startIndex = 1;
@@ -419,31 +426,23 @@ public class Edge {
             List<Vector3d> boundaryPath = new ArrayList<>();
 
             while (true) {
-                Edge finalEdge = edge;
-
-                boundaryPath.add(finalEdge.p1.pos);
+                Edge edge = boundaryEdges.get(edgeIndex);
 
-                System.out.print("edge: " + edge.p2.pos);
+                boundaryPath.add(edge.p1.pos);
 
-                Optional<Edge> nextEdgeResult = boundaryEdges.stream().
-                        filter(e -> finalEdge.p2.equals(e.p1)).findFirst();
+                int nextEdgeIndex = next[edgeIndex];
 
-                if (!nextEdgeResult.isPresent()) {
-                    System.out.println("ERROR: unclosed path:"
-                            + " no edge found with " + finalEdge.p2);
+                if (nextEdgeIndex < 0) {
+                    System.err.println("ERROR: unclosed path:"
+                            + " no edge found with " + edge.p2);
                     break;
                 }
 
-                Edge nextEdge = nextEdgeResult.get();
-
-                int nextEdgeIndex = boundaryEdges.indexOf(nextEdge);
-
                 if (used[nextEdgeIndex]) {
                     break;
                 }
 
-                edge = nextEdge;
-                System.out.println("-> edge: " + edge.p1.pos);
+                edgeIndex = nextEdgeIndex;
                 used[nextEdgeIndex] = true;
             }
 
@@ -452,28 +451,58 @@ public class Edge {
             }
 
             result.add(Polygon.fromPoints(boundaryPath));
-            startIndex = nextUnused(used);
+            startIndex = nextUnused(used, startIndex);
 
             if (startIndex > 0) {
-                edge = boundaryEdges.get(startIndex);
+                edgeIndex = startIndex;
                 used[startIndex] = true;
             }
 
         }
 
-        System.out.println("paths: " + result.size());
-
         return result;
     }
 
+    /**
+     * Returns the index of the successor of each edge, i.e., of the first
+     * edge that starts where the edge ends. Start and end points are
+     * compared with a {@link VertexIndex}.
+     *
+     * @param edges the edges
+     * @return the index of the successor of each edge or {@code -1} if an
+     * edge has no successor
+     */
+    private static int[] nextEdges(List<Edge> edges) {
+        VertexIndex vertices = new VertexIndex();
+        int[] starts = new int[edges.size()];
+        for (int i = 0; i < edges.size(); i++) {
+            starts[i] = vertices.add(edges.get(i).p1);
+        }
+
+        int[] firstEdge = new int[vertices.size()];
+        Arrays.fill(firstEdge, -1);
+        for (int i = edges.size() - 1; i >= 0; i--) {
+            firstEdge[starts[i]] = i;
+        }
+
+        int[] next = new int[edges.size()];
+        for (int i = 0; i < edges.size(); i++) {
+            int end = vertices.find(edges.get(i).p2.pos);
+            next[i] = end < 0 ? -1 : firstEdge[end];
+        }
+        return next;
+    }
+
     /**
      * Returns the next unused index as specified in the given boolean array.
      *
      * @param usage the usage array
+     * @param from the index to start searching at, all smaller indices must
+     * be used
      * @return the next unused index or a value &lt; 0 if all indices are used
      */
-    private static int nextUnused(boolean[] usage) {
-        for (int i = 0; i < usage.length; i++) {
+    private static int nextUnused(boolean[] usage, int from) {
+        for (int i = from; i < usage.length; i++) {
             if (usage[i] == false) {
                 return i;
             }
@@ -493,24 +522,24 @@ public class Edge {
 
         List<Vector3d> boundaryPath = new ArrayList<>();
 
+        int[] next = nextEdges(boundaryEdges);
         boolean[] used = new boolean[boundaryEdges.size()];
-        Edge edge = boundaryEdges.get(0);
+        int edgeIndex = 0;
         used[0] = true;
         while (true) {
-            Edge finalEdge = edge;
+            boundaryPath.add(boundaryEdges.get(edgeIndex).p1.pos);
 
-            boundaryPath.add(finalEdge.p1.pos);
+            int nextEdgeIndex = next[edgeIndex];
 
-            int nextEdgeIndex = boundaryEdges.indexOf(boundaryEdges.stream().
-                    filter(e -> finalEdge.p2.equals(e.p1)).findFirst().get());
+            if (nextEdgeIndex < 0) {
+                throw new NoSuchElementException("Unclosed path: no edge found with "
+                        + boundaryEdges.get(edgeIndex).p2);
+            }
 
             if (used[nextEdgeIndex]) {
-//                System.out.println("nexIndex: " + nextEdgeIndex);
                 break;
             }
-//            System.out.print("edge: " + edge.p2.pos);
-            edge = boundaryEdges.get(nextEdgeIndex);
-//            System.out.println("-> edge: " + edge.p1.pos);
+            edgeIndex = nextEdgeIndex;
             used[nextEdgeIndex] = true;
         }
 
@@ -697,7 +726,7 @@ public class Edge {
     public static List<Polygon> boundaryPolygons(CSG csg) {
         List<Polygon> result = new ArrayList<>();
 
-        for (List<Polygon> polygonGroup : searchPlaneGroups(csg.getPolygons())) {
+        for (List<Polygon> polygonGroup : csg.getPlaneGroups()) {
             result.addAll(boundaryPolygonsOfPlaneGroup(polygonGroup));
         }
 
@@ -713,40 +742,25 @@ public class Edge {
     private static List<Edge> boundaryEdgesOfPlaneGroup(List<Polygon> planeGroup) {
         List<Edge> edges = new ArrayList<>();
 
-        Stream<Polygon> pStream;
-
-        if (planeGroup.size() > 200) {
-            pStream = planeGroup.parallelStream();
-        } else {
-            pStream = planeGroup.stream();
+        for (Polygon p : planeGroup) {
+            edges.addAll(Edge.fromPolygon(p));
         }
 
-        pStream.map((p) -> Edge.fromPolygon(p)).forEach((pEdges) -> {
-            edges.addAll(pEdges);
-        });
-
-        Stream<Edge> edgeStream;
-
-        if (edges.size() > 200) {
-            edgeStream = edges.parallelStream();
-        } else {
-            edgeStream = edges.stream();
-        }
+        Adjacency adjacency = new Adjacency(edges);
 
         // find potential boundary edges, i.e., edges that occur once (freq=1)
-        List<Edge> potentialBoundaryEdges = new ArrayList<>();
-        edgeStream.forEachOrdered((e) -> {
-            int count = Collections.frequency(edges, e);
-            if (count == 1) {
-                potentialBoundaryEdges.add(e);
+        List<Integer> potentialBoundaryEdges = new ArrayList<>();
+        for (int i = 0; i < edges.size(); i++) {
+            if (adjacency.frequency(i) == 1) {
+                potentialBoundaryEdges.add(i);
             }
-        });
+        }
 
         // now find "false boundary" edges end remove them from the 
         // boundary-edge-list
         // 
         // thanks to Susanne Höllbacher for the idea :)
-        Stream<Edge> bndEdgeStream;
+        Stream<Integer> bndEdgeStream;
 
         if (potentialBoundaryEdges.size() > 200) {
             bndEdgeStream = potentialBoundaryEdges.parallelStream();
@@ -755,14 +769,9 @@ public class Edge {
         }
 
         List<Edge> realBndEdges = bndEdgeStream.
-                filter(be -> edges.stream().filter(
-                                e -> falseBoundaryEdgeSharedWithOtherEdge(be, e)
-                        ).count() == 0).collect(Collectors.toList());
-
-        //
-//        System.out.println("#bnd-edges: " + realBndEdges.size()
-//                + ",#edges: " + edges.size()
-//                + ", #del-bnd-edges: " + (boundaryEdges.size() - realBndEdges.size()));
+                filter(i -> !adjacency.isFalseBoundary(i)).
+                map(edges::get).collect(Collectors.toList());
+
         return realBndEdges;
     }
 
@@ -778,8 +787,6 @@ public class Edge {
         List<Polygon> polygons = boundaryPathsWithHoles(
                 boundaryPaths(boundaryEdgesOfPlaneGroup(planeGroup)));
 
-        System.out.println("polygons: " + polygons.size());
-
         List<Polygon> result = new ArrayList<>(polygons.size());
 
         for (Polygon p : polygons) {
@@ -822,53 +829,195 @@ public class Edge {
     }
 
     /**
-     * Search plane groups.
-     *
-     * @param polygons the polygons
-     * @return the list
+     * Edge adjacency of a plane group. Edge end points are welded with a
+     * {@link VertexIndex}, so that edge frequencies can be counted by key and
+     * the "false boundary" test only has to look at edges whose end points
+     * lie in the grid cells covered by the boundary edge.
      */
-    private static List<List<Polygon>> searchPlaneGroups(List<Polygon> polygons) {
-        List<List<Polygon>> planeGroups = new ArrayList<>();
-        boolean[] used = new boolean[polygons.size()];
-        System.out.println("#polys: " + polygons.size());
-        for (int pOuterI = 0; pOuterI < polygons.size(); pOuterI++) {
-
-            if (used[pOuterI]) {
-                continue;
-            }
+    private static final class Adjacency {
 
-            Polygon pOuter = polygons.get(pOuterI);
+        /** The edges. */
+        private final List<Edge> edges;
 
-            List<Polygon> otherPolysInPlane = new ArrayList<>();
+        /** Vertex ids of the edge end points (p1, p2 per edge). */
+        private final int[] ends;
 
-            otherPolysInPlane.add(pOuter);
+        /** Number of edges per undirected vertex pair. */
+        private final LongIntMap frequencies;
 
-            for (int pInnerI = 0; pInnerI < polygons.size(); pInnerI++) {
+        /** Edges incident to each vertex (offsets and edge indices). */
+        private final int[] incidentOffsets;
+        private final int[] incident;
 
-                Polygon pInner = polygons.get(pInnerI);
+        /** Vertex positions. */
+        private final double[] positions;
 
-                if (pOuter.equals(pInner)) {
-                    continue;
-                }
+        /** Most recently added vertex per grid cell. */
+        private final LongIntMap cells;
+
+        /** Next vertex in the same grid cell per vertex, -1 terminates. */
+        private final int[] nextInCell;
 
-                Vector3d nOuter = pOuter.plane.normal;
-                Vector3d nInner = pInner.plane.normal;
+        /** Grid origin and cell size. */
+        private final double minX, minY, minZ;
+        private final double cellSize;
+
+        /**
+         * Instantiates a new adjacency.
+         *
+         * @param edges the edges
+         */
+        Adjacency(List<Edge> edges) {
+            this.edges = edges;
+
+            VertexIndex vertices = new VertexIndex();
+            ends = new int[edges.size() * 2];
+            frequencies = new LongIntMap(edges.size());
+            for (int i = 0; i < edges.size(); i++) {
+                Edge e = edges.get(i);
+                ends[i * 2] = vertices.add(e.p1);
+                ends[i * 2 + 1] = vertices.add(e.p2);
+                long key = key(ends[i * 2], ends[i * 2 + 1]);
+                frequencies.put(key, Math.max(0, frequencies.get(key)) + 1);
+            }
 
-                double angle = nOuter.angle(nInner);
+            int n = vertices.size();
 
-//                System.out.println("angle: " + angle + " between " + pOuterI+" -> " + pInnerI);
-                if (angle < 0.01 /*&& abs(pOuter.plane.dist - pInner.plane.dist) < 0.1*/) {
-                    otherPolysInPlane.add(pInner);
-                    used[pInnerI] = true;
-                    System.out.println("used: " + pOuterI + " -> " + pInnerI);
+            incidentOffsets = new int[n + 1];
+            for (int end : ends) {
+                incidentOffsets[end + 1]++;
+            }
+            for (int v = 0; v < n; v++) {
+                incidentOffsets[v + 1] += incidentOffsets[v];
+            }
+            incident = new int[ends.length];
+            int[] fill = Arrays.copyOf(incidentOffsets, n);
+            for (int i = 0; i < ends.length; i++) {
+                incident[fill[ends[i]]++] = i / 2;
+            }
+
+            positions = new double[n * 3];
+            double x0 = Double.POSITIVE_INFINITY, y0 = x0, z0 = x0;
+            double x1 = Double.NEGATIVE_INFINITY, y1 = x1, z1 = x1;
+            for (int v = 0; v < n; v++) {
+                Vector3d p = vertices.get(v);
+                positions[v * 3] = p.x;
+                positions[v * 3 + 1] = p.y;
+                positions[v * 3 + 2] = p.z;
+                x0 = Math.min(x0, p.x);
+                y0 = Math.min(y0, p.y);
+                z0 = Math.min(z0, p.z);
+                x1 = Math.max(x1, p.x);
+                y1 = Math.max(y1, p.y);
+                z1 = Math.max(z1, p.z);
+            }
+            minX = x0;
+            minY = y0;
+            minZ = z0;
+
+            // plane groups are flat, about sqrt(n) cells per axis keep the
+            // number of vertices per cell small
+            double extent = Math.max(x1 - x0, Math.max(y1 - y0, z1 - z0));
+            cellSize = Math.max(extent / Math.max(1, Math.ceil(Math.sqrt(n))),
+                    Plane.EPSILON);
+
+            cells = new LongIntMap(n);
+            nextInCell = new int[n];
+            for (int v = 0; v < n; v++) {
+                nextInCell[v] = cells.put(cellKey(cell(positions[v * 3], minX),
+                        cell(positions[v * 3 + 1], minY),
+                        cell(positions[v * 3 + 2], minZ)), v);
+            }
+        }
+
+        /**
+         * Returns the number of edges that are equal to the specified edge.
+         *
+         * @param e edge index
+         * @return the frequency of the edge
+         */
+        int frequency(int e) {
+            return frequencies.get(key(ends[e * 2], ends[e * 2 + 1]));
+        }
+
+        /**
+         * Determines whether an end point of an edge that does not share end
+         * points with the specified edge lies on the specified edge.
+         *
+         * @param e edge index
+         * @return {@code true} if the edge is a false boundary edge
+         */
+        boolean isFalseBoundary(int e) {
+            Edge fbe = edges.get(e);
+            Vector3d a = fbe.p1.pos;
+            Vector3d b = fbe.p2.pos;
+            // contains() accepts points slightly beyond the segment and
+            // welded positions may differ by EPSILON from the end points
+            double tol = 2 * Plane.EPSILON;
+
+            long cx0 = cell(Math.min(a.x, b.x) - tol, minX);
+            long cx1 = cell(Math.max(a.x, b.x) + tol, minX);
+            long cy0 = cell(Math.min(a.y, b.y) - tol, minY);
+            long cy1 = cell(Math.max(a.y, b.y) + tol, minY);
+            long cz0 = cell(Math.min(a.z, b.z) - tol, minZ);
+            long cz1 = cell(Math.max(a.z, b.z) + tol, minZ);
+
+            if ((cx1 - cx0 + 1) * (cy1 - cy0 + 1) * (cz1 - cz0 + 1) > cells.size()) {
+                for (int v = 0; v < nextInCell.length; v++) {
+                    if (isFalseBoundary(fbe, v)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            for (long cx = cx0; cx <= cx1; cx++) {
+                for (long cy = cy0; cy <= cy1; cy++) {
+                    for (long cz = cz0; cz <= cz1; cz++) {
+                        for (int v = cells.get(cellKey(cx, cy, cz)); v >= 0; v = nextInCell[v]) {
+                            if (isFalseBoundary(fbe, v)) {
+                                return true;
+                            }
+                        }
+                    }
                 }
             }
+            return false;
+        }
 
-            if (!otherPolysInPlane.isEmpty()) {
-                planeGroups.add(otherPolysInPlane);
+        /**
+         * Tests the edges incident to the specified vertex.
+         */
+        private boolean isFalseBoundary(Edge fbe, int v) {
+            for (int i = incidentOffsets[v]; i < incidentOffsets[v + 1]; i++) {
+                if (falseBoundaryEdgeSharedWithOtherEdge(fbe, edges.get(incident[i]))) {
+                    return true;
+                }
             }
+            return false;
+        }
+
+        /**
+         * Returns the cell coordinate of the specified value.
+         */
+        private long cell(double v, double min) {
+            return (long) Math.floor((v - min) / cellSize);
+        }
+
+        /**
+         * Returns the key of the specified cell.
+         */
+        private static long cellKey(long x, long y, long z) {
+            return ((x & 0x1fffff) << 42) | ((y & 0x1fffff) << 21) | (z & 0x1fffff);
+        }
+
+        /**
+         * Returns the key of the undirected edge between the specified
+         * vertices.
+         */
+        private static long key(int v1, int v2) {
+            return ((long) Math.min(v1, v2) << 32) | Math.max(v1, v2);
         }
-        return planeGroups;
     }
 
 }
@@ -369,11 +369,9 @@ public class Extrude {
 					.rotz(i)
 			);
 		}
-		for(int i=0;i<parts.size()-1;i++){
-			CSG sweep = parts.get(i)
-						.union(parts.get(i+1))
-						.hull();
-			parts.set(i,sweep);
+		List<CSG> sweep = Sweep.segments(parts);
+		for(int i=0;i<sweep.size();i++){
+			parts.set(i,sweep.get(i));
 		}
 		
 		return parts;
@@ -391,11 +389,9 @@ public class Extrude {
 	public static ArrayList<CSG>  bezier(ArrayList<CSG>   s, ArrayList<Double> controlA, ArrayList<Double> controlB,ArrayList<Double> endPoint){
 		ArrayList<CSG> slice = moveBezier(s,controlA,controlB,endPoint);
 	
-		for(int i=0;i<slice.size()-1;i++){
-			CSG sweep = slice.get(i)
-						.union(slice.get(i+1))
-						.hull();
-			slice.set(i,sweep);
+		List<CSG> sweep = Sweep.segments(slice);
+		for(int i=0;i<sweep.size();i++){
+			slice.set(i,sweep.get(i));
 		}
 		
 		return slice;
@@ -411,6 +407,41 @@ public class Extrude {
 		return bezier(s,start,endPoint,endPoint,numSlices);
 	}
 	
+	/**
+	 * Lofts the specified profile along the specified transforms. The
+	 * profile is placed by every transform, consecutive placements are
+	 * connected by side walls and the first and last one are capped.
+	 *
+	 * @param profile
+	 *            profile in the XY plane, concave or convex, with optional
+	 *            holes stored under {@link Edge#KEY_POLYGON_HOLES}
+	 * @param transforms
+	 *            placement of the profile per ring, at least two
+	 * @return a single watertight csg
+	 */
+	public static CSG loft(Polygon profile, List<Transform> transforms) {
+		return Loft.loft(profile, transforms);
+	}
+
+	/**
+	 * Lofts the specified profile along the specified paths.
+	 *
+	 * @param profile
+	 *            profile in the XY plane, concave or convex, with optional
+	 *            holes stored under {@link Edge#KEY_POLYGON_HOLES}
+	 * @param pathA
+	 *            path in the XY plane
+	 * @param pathB
+	 *            height of the path
+	 * @param iterations
+	 *            number of placements of the profile
+	 * @return a single watertight csg
+	 * @see #bezierToTransforms(BezierPath, BezierPath, int)
+	 */
+	public static CSG loft(Polygon profile, BezierPath pathA, BezierPath pathB, int iterations) {
+		return loft(profile, bezierToTransforms(pathA, pathB, iterations));
+	}
+
 	public static ArrayList<CSG>  move(ArrayList<CSG> slice,ArrayList<Transform> p ){
 		ArrayList<CSG> s = new ArrayList<CSG> ();
 		//s.add(slice.get(0));
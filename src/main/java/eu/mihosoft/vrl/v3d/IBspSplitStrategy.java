@@ -0,0 +1,17 @@
+package eu.mihosoft.vrl.v3d;
+
+import java.util.List;
+
+public interface IBspSplitStrategy {
+	/**
+	 * Chooses the plane a BSP node partitions its polygons with.
+	 *
+	 * The returned plane should be the plane of one of the specified polygons
+	 * (or a plane coplanar to it). Otherwise the node may not consume any
+	 * polygon and the tree will not terminate.
+	 *
+	 * @param polygons the polygons of the node that is built, never empty
+	 * @return the split plane, must not be {@code null}
+	 */
+	Plane selectSplitPlane(List<Polygon> polygons);
+}
@@ -0,0 +1,732 @@
+package eu.mihosoft.vrl.v3d;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.vecmath.Matrix4d;
+
+/**
+ * Compact shared-vertex representation of a polygon mesh.
+ *
+ * Vertex positions, vertex normals and face planes are stored in flat
+ * {@code double} arrays. Faces reference vertices by index, i.e., a corner
+ * that is shared by several faces is stored only once. Each face corner is
+ * also a half-edge that starts at the corner's vertex and ends at the vertex
+ * of the next corner of the same face. Half-edge adjacency (twin, next, face)
+ * is computed on demand.
+ *
+ * Instances are immutable. Operations like
+ * {@link #transformed(eu.mihosoft.vrl.v3d.Transform)} return new meshes that
+ * share all arrays that are not affected by the operation.
+ *
+ * @see CSG#fromMesh(eu.mihosoft.vrl.v3d.IndexedMesh)
+ * @see CSG#toIndexedMesh()
+ */
+public final class IndexedMesh {
+
+    /**
+     * Number of characters that are buffered before they are written by the
+     * streaming OBJ export.
+     */
+    private static final int OBJ_BUFFER_SIZE = 8192;
+
+    /**
+     * Vertex positions (x, y, z per vertex).
+     */
+    final double[] positions;
+    /**
+     * Vertex weights, {@code null} if all weights are {@code 1}.
+     */
+    final double[] weights;
+    /**
+     * Unique vertex normals (x, y, z per normal).
+     */
+    final double[] normals;
+    /**
+     * Start of each face in {@link #indices}, {@code faceOffsets[numFaces]}
+     * is the total number of corners.
+     */
+    final int[] faceOffsets;
+    /**
+     * Vertex index of each face corner.
+     */
+    final int[] indices;
+    /**
+     * Normal index of each face corner.
+     */
+    final int[] normalIndices;
+    /**
+     * Face planes (normal x, y, z and distance per face).
+     */
+    final double[] planes;
+    /**
+     * Shared property storage of each face.
+     */
+    final PropertyStorage[] storages;
+
+    /**
+     * Twin of each half-edge, lazily computed.
+     */
+    private volatile int[] twins;
+    /**
+     * Face of each half-edge, lazily computed.
+     */
+    private volatile int[] faces;
+    /**
+     * Bounds, lazily computed.
+     */
+    private volatile Bounds bounds;
+
+    /**
+     * Constructor. The arrays are used without copying them.
+     */
+    IndexedMesh(double[] positions, double[] weights, double[] normals,
+            int[] faceOffsets, int[] indices, int[] normalIndices,
+            double[] planes, PropertyStorage[] storages) {
+        this.positions = positions;
+        this.weights = weights;
+        this.normals = normals;
+        this.faceOffsets = faceOffsets;
+        this.indices = indices;
+        this.normalIndices = normalIndices;
+        this.planes = planes;
+        this.storages = storages;
+    }
+
+    /**
+     * Creates a mesh from the specified polygons. Vertices with identical
+     * position and weight are merged, as are identical vertex normals.
+     *
+     * @param polygons polygons
+     * @return a mesh that contains the specified polygons
+     */
+    public static IndexedMesh fromPolygons(List<Polygon> polygons) {
+
+        int numCorners = 0;
+        for (Polygon p : polygons) {
+            numCorners += p.vertices.size();
+        }
+
+        Map<Key, Integer> vertexIds = new HashMap<>();
+        Map<Key, Integer> normalIds = new HashMap<>();
+
+        double[] positions = new double[numCorners * 3];
+        double[] weights = null;
+        double[] normals = new double[numCorners * 3];
+        int numVertices = 0;
+        int numNormals = 0;
+
+        int[] faceOffsets = new int[polygons.size() + 1];
+        int[] indices = new int[numCorners];
+        int[] normalIndices = new int[numCorners];
+        double[] planes = new double[polygons.size() * 4];
+        PropertyStorage[] storages = new PropertyStorage[polygons.size()];
+
+        int corner = 0;
+        for (int f = 0; f < polygons.size(); f++) {
+            Polygon p = polygons.get(f);
+            faceOffsets[f] = corner;
+
+            for (Vertex v : p.vertices) {
+                double w = v.getWeight();
+
+                Integer id = vertexIds.putIfAbsent(
+                        new Key(v.pos.x, v.pos.y, v.pos.z, w), numVertices);
+                if (id == null) {
+                    id = numVertices++;
+                    positions[id * 3] = v.pos.x;
+                    positions[id * 3 + 1] = v.pos.y;
+                    positions[id * 3 + 2] = v.pos.z;
+                    if (w != 1.0) {
+                        if (weights == null) {
+                            weights = new double[numCorners];
+                            Arrays.fill(weights, 1.0);
+                        }
+                        weights[id] = w;
+                    }
+                }
+                indices[corner] = id;
+
+                Integer normalId = normalIds.putIfAbsent(
+                        new Key(v.normal.x, v.normal.y, v.normal.z, 0), numNormals);
+                if (normalId == null) {
+                    normalId = numNormals++;
+                    normals[normalId * 3] = v.normal.x;
+                    normals[normalId * 3 + 1] = v.normal.y;
+                    normals[normalId * 3 + 2] = v.normal.z;
+                }
+                normalIndices[corner] = normalId;
+
+                corner++;
+            }
+
+            planes[f * 4] = p.plane.normal.x;
+            planes[f * 4 + 1] = p.plane.normal.y;
+            planes[f * 4 + 2] = p.plane.normal.z;
+            planes[f * 4 + 3] = p.plane.dist;
+            storages[f] = p.getStorage();
+        }
+        faceOffsets[polygons.size()] = corner;
+
+        return new IndexedMesh(
+                Arrays.copyOf(positions, numVertices * 3),
+                weights == null ? null : Arrays.copyOf(weights, numVertices),
+                Arrays.copyOf(normals, numNormals * 3),
+                faceOffsets, indices, normalIndices, planes, storages);
+    }
+
+    /**
+     * Creates a mesh from indexed triangles. Only the referenced points
+     * become vertices of the mesh. Like
+     * {@link Polygon#fromPoints(java.util.List, PropertyStorage)} the face
+     * planes are computed from the corners and the vertex normals are zero.
+     *
+     * @param coords x, y, z per point
+     * @param triangles three point indices per triangle
+     * @param storage shared property storage of all faces
+     * @return a mesh that contains the specified triangles
+     */
+    public static IndexedMesh fromTriangles(double[] coords, int[] triangles,
+            PropertyStorage storage) {
+        int numFaces = triangles.length / 3;
+
+        int[] vertexIds = new int[coords.length / 3];
+        Arrays.fill(vertexIds, -1);
+        int numVertices = 0;
+        int[] indices = new int[numFaces * 3];
+        for (int c = 0; c < indices.length; c++) {
+            int point = triangles[c];
+            if (vertexIds[point] < 0) {
+                vertexIds[point] = numVertices++;
+            }
+            indices[c] = vertexIds[point];
+        }
+
+        double[] positions = new double[numVertices * 3];
+        for (int point = 0; point < vertexIds.length; point++) {
+            int id = vertexIds[point];
+            if (id >= 0) {
+                System.arraycopy(coords, point * 3, positions, id * 3, 3);
+            }
+        }
+
+        int[] faceOffsets = new int[numFaces + 1];
+        double[] planes = new double[numFaces * 4];
+        PropertyStorage[] storages = new PropertyStorage[numFaces];
+        for (int f = 0; f < numFaces; f++) {
+            faceOffsets[f] = f * 3;
+            Plane plane = Plane.createFromPoints(
+                    position(coords, triangles[f * 3]),
+                    position(coords, triangles[f * 3 + 1]),
+                    position(coords, triangles[f * 3 + 2]));
+            planes[f * 4] = plane.normal.x;
+            planes[f * 4 + 1] = plane.normal.y;
+            planes[f * 4 + 2] = plane.normal.z;
+            planes[f * 4 + 3] = plane.dist;
+            storages[f] = storage;
+        }
+        faceOffsets[numFaces] = numFaces * 3;
+
+        return new IndexedMesh(positions, null, new double[3], faceOffsets,
+                indices, new int[indices.length], planes, storages);
+    }
+
+    private static Vector3d position(double[] coords, int point) {
+        return new Vector3d(coords[point * 3], coords[point * 3 + 1], coords[point * 3 + 2]);
+    }
+
+    /**
+     * Creates new polygons from this mesh. The polygons do not share any
+     * vertices, i.e., they can be modified independently.
+     *
+     * @return polygons of this mesh
+     */
+    public List<Polygon> toPolygons() {
+        int numFaces = getNumberOfFaces();
+        List<Polygon> result = new ArrayList<>(numFaces);
+
+        for (int f = 0; f < numFaces; f++) {
+            int start = faceOffsets[f];
+            int end = faceOffsets[f + 1];
+            List<Vertex> vertices = new ArrayList<>(end - start);
+
+            for (int c = start; c < end; c++) {
+                int v = indices[c] * 3;
+                int n = normalIndices[c] * 3;
+                Vertex vertex = new Vertex(
+                        new Vector3d(positions[v], positions[v + 1], positions[v + 2]),
+                        new Vector3d(normals[n], normals[n + 1], normals[n + 2]));
+                if (weights != null) {
+                    vertex.setWeight(weights[indices[c]]);
+                }
+                vertices.add(vertex);
+            }
+
+            Plane plane = new Plane(Vector3d.Z_ONE, 0);
+            plane.normal = new Vector3d(planes[f * 4], planes[f * 4 + 1], planes[f * 4 + 2]);
+            plane.dist = planes[f * 4 + 3];
+
+            result.add(new Polygon(vertices, storages[f], plane));
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns a transformed copy of this mesh. Like
+     * {@link Polygon#transform(eu.mihosoft.vrl.v3d.Transform)} the face planes
+     * are recomputed from the first three corners and faces are flipped if the
+     * transform performs a mirror operation.
+     *
+     * @param transform the transform to apply
+     * @return a transformed copy of this mesh
+     */
+    public IndexedMesh transformed(Transform transform) {
+        Matrix4d m = transform.getInternalMatrix();
+
+        double[] newPositions = new double[positions.length];
+        for (int i = 0; i < positions.length; i += 3) {
+            double x = positions[i];
+            double y = positions[i + 1];
+            double z = positions[i + 2];
+            double tx = m.m00 * x + m.m01 * y + m.m02 * z + m.m03;
+            double ty = m.m10 * x + m.m11 * y + m.m12 * z + m.m13;
+            double tz = m.m20 * x + m.m21 * y + m.m22 * z + m.m23;
+            if (weights != null) {
+                double w = weights[i / 3];
+                tx = x + (tx - x) * w;
+                ty = y + (ty - y) * w;
+                tz = z + (tz - z) * w;
+            }
+            newPositions[i] = tx;
+            newPositions[i + 1] = ty;
+            newPositions[i + 2] = tz;
+        }
+
+        int numFaces = getNumberOfFaces();
+        double[] newPlanes = new double[planes.length];
+        for (int f = 0; f < numFaces; f++) {
+            int c = faceOffsets[f];
+            int a = indices[c] * 3;
+            int b = indices[c + 1] * 3;
+            int d = indices[c + 2] * 3;
+            double abx = newPositions[b] - newPositions[a];
+            double aby = newPositions[b + 1] - newPositions[a + 1];
+            double abz = newPositions[b + 2] - newPositions[a + 2];
+            double adx = newPositions[d] - newPositions[a];
+            double ady = newPositions[d + 1] - newPositions[a + 1];
+            double adz = newPositions[d + 2] - newPositions[a + 2];
+            double nx = aby * adz - abz * ady;
+            double ny = abz * adx - abx * adz;
+            double nz = abx * ady - aby * adx;
+            double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            nx /= length;
+            ny /= length;
+            nz /= length;
+            newPlanes[f * 4] = nx;
+            newPlanes[f * 4 + 1] = ny;
+            newPlanes[f * 4 + 2] = nz;
+            newPlanes[f * 4 + 3] = nx * newPositions[a] + ny * newPositions[a + 1] + nz * newPositions[a + 2];
+        }
+
+        if (!transform.isMirror()) {
+            return new IndexedMesh(newPositions, weights, normals,
+                    faceOffsets, indices, normalIndices, newPlanes, storages);
+        }
+
+        // the transformation includes mirroring. flip faces
+        double[] newNormals = new double[normals.length];
+        for (int i = 0; i < normals.length; i++) {
+            newNormals[i] = -normals[i];
+        }
+        for (int i = 0; i < newPlanes.length; i++) {
+            newPlanes[i] = -newPlanes[i];
+        }
+        int[] newIndices = new int[indices.length];
+        int[] newNormalIndices = new int[normalIndices.length];
+        for (int f = 0; f < numFaces; f++) {
+            int start = faceOffsets[f];
+            int end = faceOffsets[f + 1];
+            for (int c = start; c < end; c++) {
+                newIndices[c] = indices[start + end - 1 - c];
+                newNormalIndices[c] = normalIndices[start + end - 1 - c];
+            }
+        }
+
+        return new IndexedMesh(newPositions, weights, newNormals,
+                faceOffsets, newIndices, newNormalIndices, newPlanes, storages);
+    }
+
+    /**
+     * Returns the bounds of this mesh.
+     *
+     * @return the bounds of this mesh
+     */
+    public Bounds getBounds() {
+        Bounds result = bounds;
+        if (result != null) {
+            return result;
+        }
+
+        if (positions.length == 0) {
+            result = new Bounds(Vector3d.ZERO, Vector3d.ZERO);
+        } else {
+            double minX = Double.POSITIVE_INFINITY;
+            double minY = Double.POSITIVE_INFINITY;
+            double minZ = Double.POSITIVE_INFINITY;
+
+            double maxX = Double.NEGATIVE_INFINITY;
+            double maxY = Double.NEGATIVE_INFINITY;
+            double maxZ = Double.NEGATIVE_INFINITY;
+
+            // only referenced vertices contribute
+            for (int index : indices) {
+                int i = index * 3;
+                minX = Math.min(minX, positions[i]);
+                minY = Math.min(minY, positions[i + 1]);
+                minZ = Math.min(minZ, positions[i + 2]);
+                maxX = Math.max(maxX, positions[i]);
+                maxY = Math.max(maxY, positions[i + 1]);
+                maxZ = Math.max(maxZ, positions[i + 2]);
+            }
+
+            result = new Bounds(new Vector3d(minX, minY, minZ), new Vector3d(maxX, maxY, maxZ));
+        }
+
+        bounds = result;
+        return result;
+    }
+
+    /**
+     * Returns the number of faces.
+     *
+     * @return the number of faces
+     */
+    public int getNumberOfFaces() {
+        return faceOffsets.length - 1;
+    }
+
+    /**
+     * Returns the number of (unique) vertices.
+     *
+     * @return the number of vertices
+     */
+    public int getNumberOfVertices() {
+        return positions.length / 3;
+    }
+
+    /**
+     * Returns the number of half-edges, i.e., the number of face corners.
+     *
+     * @return the number of half-edges
+     */
+    public int getNumberOfHalfEdges() {
+        return indices.length;
+    }
+
+    /**
+     * Returns the position of the specified vertex.
+     *
+     * @param vertex vertex index
+     * @return the position of the specified vertex
+     */
+    public Vector3d getPosition(int vertex) {
+        return new Vector3d(positions[vertex * 3], positions[vertex * 3 + 1], positions[vertex * 3 + 2]);
+    }
+
+    /**
+     * Returns the first half-edge of the specified face. The half-edges of a
+     * face are numbered consecutively.
+     *
+     * @param face face index
+     * @return the first half-edge of the specified face
+     */
+    public int getFirstHalfEdge(int face) {
+        return faceOffsets[face];
+    }
+
+    /**
+     * Returns the number of vertices of the specified face.
+     *
+     * @param face face index
+     * @return the number of vertices of the specified face
+     */
+    public int getFaceSize(int face) {
+        return faceOffsets[face + 1] - faceOffsets[face];
+    }
+
+    /**
+     * Returns the shared property storage of the specified face.
+     *
+     * @param face face index
+     * @return the storage of the specified face
+     */
+    public PropertyStorage getStorage(int face) {
+        return storages[face];
+    }
+
+    /**
+     * Returns the vertex the specified half-edge starts at.
+     *
+     * @param halfEdge half-edge index
+     * @return the start vertex
+     */
+    public int getOrigin(int halfEdge) {
+        return indices[halfEdge];
+    }
+
+    /**
+     * Returns the next half-edge of the same face.
+     *
+     * @param halfEdge half-edge index
+     * @return the next half-edge
+     */
+    public int getNext(int halfEdge) {
+        int face = getFace(halfEdge);
+        return halfEdge + 1 < faceOffsets[face + 1] ? halfEdge + 1 : faceOffsets[face];
+    }
+
+    /**
+     * Returns the face of the specified half-edge.
+     *
+     * @param halfEdge half-edge index
+     * @return the face index
+     */
+    public int getFace(int halfEdge) {
+        int[] result = faces;
+        if (result == null) {
+            result = new int[indices.length];
+            for (int f = 0; f < getNumberOfFaces(); f++) {
+                Arrays.fill(result, faceOffsets[f], faceOffsets[f + 1], f);
+            }
+            faces = result;
+        }
+        return result[halfEdge];
+    }
+
+    /**
+     * Returns the opposite half-edge of the specified half-edge, i.e., the
+     * half-edge of the neighbouring face that runs in the opposite direction.
+     *
+     * @param halfEdge half-edge index
+     * @return the twin half-edge or {@code -1} if the edge is a boundary edge
+     * (or not manifold)
+     */
+    public int getTwin(int halfEdge) {
+        int[] result = twins;
+        if (result == null) {
+            result = computeTwins();
+            twins = result;
+        }
+        return result[halfEdge];
+    }
+
+    /**
+     * Matches the half-edges by their end vertices.
+     *
+     * @return the twin of each half-edge
+     */
+    private int[] computeTwins() {
+        int[] result = new int[indices.length];
+        Arrays.fill(result, -1);
+
+        LongIntMap open = new LongIntMap(indices.length);
+
+        for (int h = 0; h < indices.length; h++) {
+            int from = indices[h];
+            int to = indices[getNext(h)];
+
+            int twin = open.remove(edgeKey(to, from));
+            if (twin >= 0 && result[twin] == -1) {
+                result[h] = twin;
+                result[twin] = h;
+            } else {
+                open.put(edgeKey(from, to), h);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the key of the directed edge between the specified vertices.
+     */
+    private static long edgeKey(int from, int to) {
+        return ((long) from << 32) | (to & 0xffffffffL);
+    }
+
+    /**
+     * Returns this mesh in STL string format.
+     *
+     * @param sb string builder
+     * @return the specified string builder
+     */
+    public StringBuilder toStlString(StringBuilder sb) {
+        sb.append("solid v3d.csg\n");
+        for (int f = 0; f < getNumberOfFaces(); f++) {
+            toStlString(sb, f);
+        }
+        sb.append("endsolid v3d.csg\n");
+        return sb;
+    }
+
+    /**
+     * Appends the facets of the specified face in STL string format.
+     *
+     * @param sb string builder
+     * @param f face index
+     * @return the specified string builder
+     */
+    StringBuilder toStlString(StringBuilder sb, int f) {
+        int start = faceOffsets[f];
+        int end = faceOffsets[f + 1];
+
+        // STL requires triangular polygons
+        for (int c = start + 1; c < end - 1; c++) {
+            sb.append("  facet normal ").
+                    append(planes[f * 4]).append(" ").
+                    append(planes[f * 4 + 1]).append(" ").
+                    append(planes[f * 4 + 2]).append("\n").
+                    append("    outer loop\n");
+            appendStlVertex(sb, indices[start]);
+            appendStlVertex(sb, indices[c]);
+            appendStlVertex(sb, indices[c + 1]);
+            sb.append("    endloop\n").
+                    append("  endfacet\n");
+        }
+        return sb;
+    }
+
+    /**
+     * Appends a vertex line in STL string format.
+     */
+    private void appendStlVertex(StringBuilder sb, int vertex) {
+        sb.append("      vertex ").
+                append(positions[vertex * 3]).append(" ").
+                append(positions[vertex * 3 + 1]).append(" ").
+                append(positions[vertex * 3 + 2]).append("\n");
+    }
+
+    /**
+     * Returns this mesh in OBJ string format. Each vertex is written once and
+     * faces are triangulated.
+     *
+     * @param sb string builder
+     * @return the specified string builder
+     */
+    public StringBuilder toObjString(StringBuilder sb) {
+        try {
+            toObjString(sb, null);
+        } catch (IOException ex) {
+            // cannot happen, no writer
+            throw new UncheckedIOException(ex);
+        }
+        return sb;
+    }
+
+    /**
+     * Writes this mesh in OBJ string format. Each vertex is written once and
+     * faces are triangulated.
+     *
+     * @param writer the destination, it is not closed
+     * @throws IOException if writing fails
+     */
+    public void toObjString(Writer writer) throws IOException {
+        toObjString(new StringBuilder(OBJ_BUFFER_SIZE + 256), writer);
+    }
+
+    /**
+     * Appends this mesh in OBJ string format to the specified string
+     * builder.
+     *
+     * @param sb string builder
+     * @param writer if not {@code null}, the content of the string builder is
+     * written to this writer whenever it exceeds the buffer size and at the
+     * end
+     * @throws IOException if writing fails
+     */
+    private void toObjString(StringBuilder sb, Writer writer) throws IOException {
+        sb.append("# Group").append("\n");
+        sb.append("g v3d.csg\n");
+
+        sb.append("\n# Vertices\n");
+        for (int i = 0; i < positions.length; i += 3) {
+            sb.append("v ").append(positions[i]).append(" ").
+                    append(positions[i + 1]).append(" ").
+                    append(positions[i + 2]).append("\n");
+            flush(sb, writer, false);
+        }
+
+        sb.append("\n# Faces").append("\n");
+        for (int f = 0; f < getNumberOfFaces(); f++) {
+            int start = faceOffsets[f];
+            int end = faceOffsets[f + 1];
+            int index1 = indices[start] + 1;
+            for (int c = start + 1; c < end - 1; c++) {
+                sb.append("f ").append(index1).append(" ").
+                        append(indices[c] + 1).append(" ").
+                        append(indices[c + 1] + 1).append("\n");
+            }
+            flush(sb, writer, false);
+        }
+
+        sb.append("\n# End Group v3d.csg").append("\n");
+        flush(sb, writer, true);
+    }
+
+    /**
+     * Writes the content of the string builder to the writer if it exceeds
+     * the buffer size.
+     */
+    private static void flush(StringBuilder sb, Writer writer, boolean force) throws IOException {
+        if (writer != null && (force || sb.length() >= OBJ_BUFFER_SIZE)) {
+            writer.append(sb);
+            sb.setLength(0);
+        }
+    }
+
+    /**
+     * Exact key of a vertex position or normal.
+     */
+    private static final class Key {
+
+        private final double x;
+        private final double y;
+        private final double z;
+        private final double w;
+
+        Key(double x, double y, double z, double w) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.w = w;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Double.compare(x, other.x) == 0
+                    && Double.compare(y, other.y) == 0
+                    && Double.compare(z, other.z) == 0
+                    && Double.compare(w, other.w) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(x);
+            bits = 31 * bits + Double.doubleToLongBits(y);
+            bits = 31 * bits + Double.doubleToLongBits(z);
+            bits = 31 * bits + Double.doubleToLongBits(w);
+            return (int) (bits ^ (bits >>> 32));
+        }
+    }
+}
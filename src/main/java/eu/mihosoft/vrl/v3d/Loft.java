@@ -0,0 +1,208 @@
+package eu.mihosoft.vrl.v3d;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import javax.vecmath.Matrix4d;
+
+import eu.mihosoft.vrl.v3d.ext.org.poly2tri.PolygonUtil;
+
+/**
+ * Lofts a planar profile along a list of transforms.
+ *
+ * The outline and the holes of the profile are placed by each transform.
+ * Consecutive rings are connected by side walls and the first and the last
+ * ring are closed by caps that are triangulated once. The result is a single
+ * watertight mesh whose size is linear in the number of transforms, no hulls
+ * or boolean operations are involved. Unlike hulls of consecutive slices this
+ * works for concave profiles and profiles with holes.
+ *
+ * @see Extrude#loft(Polygon, List)
+ */
+final class Loft {
+
+	private Loft() {
+		throw new AssertionError("Don't instantiate me!", null);
+	}
+
+	/**
+	 * Lofts the specified profile along the specified transforms.
+	 *
+	 * @param profile
+	 *            profile in the XY plane, concave or convex, with optional
+	 *            holes stored under {@link Edge#KEY_POLYGON_HOLES}
+	 * @param transforms
+	 *            placement of the profile per ring, at least two
+	 * @return the lofted solid
+	 */
+	static CSG loft(Polygon profile, List<Transform> transforms) {
+		if (transforms.size() < 2) {
+			throw new IllegalArgumentException("At least two transforms are required: " + transforms.size());
+		}
+
+		// rings: the outline counter-clockwise, the holes clockwise
+		List<List<Vector3d>> rings = new ArrayList<>();
+		List<Vector3d> outline = new ArrayList<>();
+		for (Vertex v : profile.vertices) {
+			outline.add(v.pos);
+		}
+		rings.add(Extrude.toCCW(outline));
+		List<Polygon> holes = new ArrayList<>();
+		Optional<List<Polygon>> holesOfProfile = profile.getStorage().getValue(Edge.KEY_POLYGON_HOLES);
+		if (holesOfProfile.isPresent()) {
+			for (Polygon hole : holesOfProfile.get()) {
+				List<Vector3d> points = new ArrayList<>();
+				for (Vertex v : hole.vertices) {
+					points.add(v.pos);
+				}
+				points = Extrude.toCW(points);
+				rings.add(points);
+				holes.add(Polygon.fromPoints(points));
+			}
+		}
+
+		// maps the triangulation back to the ring points
+		VertexIndex index = new VertexIndex(Plane.EPSILON);
+		List<Integer> pointOfId = new ArrayList<>();
+		int[] ringOffsets = new int[rings.size() + 1];
+		for (int r = 0; r < rings.size(); r++) {
+			int j = ringOffsets[r];
+			for (Vector3d p : rings.get(r)) {
+				if (index.add(p) == pointOfId.size()) {
+					pointOfId.add(j);
+				}
+				j++;
+			}
+			ringOffsets[r + 1] = j;
+		}
+		int numPoints = ringOffsets[rings.size()];
+
+		// the cap is triangulated once in the profile plane
+		PropertyStorage capStorage = new PropertyStorage();
+		if (!holes.isEmpty()) {
+			capStorage.set(Edge.KEY_POLYGON_HOLES, holes);
+		}
+		Polygon cap = Polygon.fromPoints(rings.get(0), capStorage);
+		List<Vector3d> extra = new ArrayList<>();
+		List<int[]> capTriangles = new ArrayList<>();
+		for (Polygon t : PolygonUtil.concaveToConvex(cap)) {
+			int[] triangle = new int[3];
+			for (int k = 0; k < 3; k++) {
+				Vector3d p = t.vertices.get(k).pos;
+				int id = index.find(p);
+				if (id < 0) {
+					// steiner point of the triangulation
+					id = index.add(p);
+					pointOfId.add(numPoints + extra.size());
+					extra.add(p);
+				}
+				triangle[k] = pointOfId.get(id);
+			}
+			// the start cap faces against the loft direction, i.e. -z
+			Vector3d a = t.vertices.get(0).pos;
+			Vector3d b = t.vertices.get(1).pos;
+			Vector3d c = t.vertices.get(2).pos;
+			if ((b.x - a.x) * (c.y - a.y) - (b.y - a.y) * (c.x - a.x) > 0) {
+				int tmp = triangle[1];
+				triangle[1] = triangle[2];
+				triangle[2] = tmp;
+			}
+			capTriangles.add(triangle);
+		}
+
+		int numRings = transforms.size();
+		double[] coords = new double[(numRings * numPoints + 2 * extra.size()) * 3];
+		for (int k = 0; k < numRings; k++) {
+			Matrix4d m = transforms.get(k).getInternalMatrix();
+			int i = k * numPoints * 3;
+			for (List<Vector3d> ring : rings) {
+				for (Vector3d p : ring) {
+					i = transform(m, p, coords, i);
+				}
+			}
+		}
+		int extraOffset = numRings * numPoints;
+		Matrix4d first = transforms.get(0).getInternalMatrix();
+		Matrix4d last = transforms.get(numRings - 1).getInternalMatrix();
+		int i = extraOffset * 3;
+		for (Vector3d p : extra) {
+			i = transform(first, p, coords, i);
+		}
+		for (Vector3d p : extra) {
+			i = transform(last, p, coords, i);
+		}
+
+		int numTriangles = 2 * capTriangles.size() + 2 * (numRings - 1) * numPoints;
+		int[] triangles = new int[numTriangles * 3];
+		int t = 0;
+
+		// side walls, two triangles per quad as consecutive rings may be
+		// twisted against each other
+		for (int k = 0; k + 1 < numRings; k++) {
+			int bottom = k * numPoints;
+			int top = bottom + numPoints;
+			for (int r = 0; r < rings.size(); r++) {
+				int start = ringOffsets[r];
+				int size = ringOffsets[r + 1] - start;
+				for (int j = 0; j < size; j++) {
+					int v1 = start + j;
+					int v2 = start + (j + 1) % size;
+					triangles[t++] = bottom + v2;
+					triangles[t++] = top + v2;
+					triangles[t++] = top + v1;
+					triangles[t++] = bottom + v2;
+					triangles[t++] = top + v1;
+					triangles[t++] = bottom + v1;
+				}
+			}
+		}
+
+		// caps, the end cap is reversed
+		int lastRing = (numRings - 1) * numPoints;
+		for (int[] triangle : capTriangles) {
+			for (int k = 0; k < 3; k++) {
+				int p = triangle[k];
+				triangles[t++] = p < numPoints ? p : extraOffset + p - numPoints;
+			}
+		}
+		for (int[] triangle : capTriangles) {
+			for (int k = 2; k >= 0; k--) {
+				int p = triangle[k];
+				triangles[t++] = p < numPoints ? lastRing + p : extraOffset + extra.size() + p - numPoints;
+			}
+		}
+
+		// transforms that move against the profile normal or mirror it turn
+		// the mesh inside out
+		if (signedVolume(coords, triangles) < 0) {
+			for (int j = 0; j < triangles.length; j += 3) {
+				int tmp = triangles[j + 1];
+				triangles[j + 1] = triangles[j + 2];
+				triangles[j + 2] = tmp;
+			}
+		}
+
+		return CSG.fromMesh(IndexedMesh.fromTriangles(coords, triangles, new PropertyStorage()));
+	}
+
+	private static int transform(Matrix4d m, Vector3d p, double[] coords, int i) {
+		coords[i++] = m.m00 * p.x + m.m01 * p.y + m.m02 * p.z + m.m03;
+		coords[i++] = m.m10 * p.x + m.m11 * p.y + m.m12 * p.z + m.m13;
+		coords[i++] = m.m20 * p.x + m.m21 * p.y + m.m22 * p.z + m.m23;
+		return i;
+	}
+
+	private static double signedVolume(double[] coords, int[] triangles) {
+		double volume = 0;
+		for (int t = 0; t < triangles.length; t += 3) {
+			int a = triangles[t] * 3;
+			int b = triangles[t + 1] * 3;
+			int c = triangles[t + 2] * 3;
+			volume += coords[a] * (coords[b + 1] * coords[c + 2] - coords[b + 2] * coords[c + 1])
+					+ coords[a + 1] * (coords[b + 2] * coords[c] - coords[b] * coords[c + 2])
+					+ coords[a + 2] * (coords[b] * coords[c + 1] - coords[b + 1] * coords[c]);
+		}
+		return volume;
+	}
+}
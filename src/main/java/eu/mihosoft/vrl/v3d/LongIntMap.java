@@ -0,0 +1,174 @@
+package eu.mihosoft.vrl.v3d;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from {@code long} keys to non-negative
+ * {@code int} values. Keys and values are stored in primitive arrays, i.e.,
+ * neither lookups nor insertions allocate objects. Used by the spatial
+ * indices and adjacency structures of this package.
+ */
+final class LongIntMap {
+
+    /**
+     * Keys per slot.
+     */
+    private long[] keys;
+    /**
+     * Values per slot, shifted by one. {@code 0} marks a free slot.
+     */
+    private int[] values;
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Constructor. Creates an empty map.
+     */
+    LongIntMap() {
+        this(16);
+    }
+
+    /**
+     * Constructor. Creates an empty map that holds the specified number of
+     * entries without resizing.
+     *
+     * @param expectedSize expected number of entries
+     */
+    LongIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(8, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+    }
+
+    /**
+     * Returns the value of the specified key.
+     *
+     * @param key key
+     * @return the value or {@code -1} if the key is not mapped
+     */
+    int get(long key) {
+        int mask = values.length - 1;
+        for (int i = slot(key, mask); values[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Maps the specified key to the specified value.
+     *
+     * @param key key
+     * @param value value, must not be negative or {@code Integer.MAX_VALUE}
+     * @return the previous value or {@code -1} if the key was not mapped
+     */
+    int put(long key, int value) {
+        if (value < 0 || value == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid value: " + value);
+        }
+        int mask = values.length - 1;
+        int i = slot(key, mask);
+        for (; values[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                int previous = values[i] - 1;
+                values[i] = value + 1;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value + 1;
+        if (++size * 2 > values.length) {
+            rehash(values.length * 2);
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the mapping of the specified key.
+     *
+     * @param key key
+     * @return the removed value or {@code -1} if the key was not mapped
+     */
+    int remove(long key) {
+        int mask = values.length - 1;
+        int i = slot(key, mask);
+        for (; values[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                break;
+            }
+        }
+        if (values[i] == 0) {
+            return -1;
+        }
+        int removed = values[i] - 1;
+
+        // shift following entries of the probe sequence back
+        int free = i;
+        for (int j = (i + 1) & mask; values[j] != 0; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            // move the entry if its home slot is not in (free, j]
+            if (((j - home) & mask) >= ((j - free) & mask)) {
+                keys[free] = keys[j];
+                values[free] = values[j];
+                free = j;
+            }
+        }
+        values[free] = 0;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the number of entries
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    void clear() {
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    /**
+     * Resizes the tables.
+     */
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] != 0) {
+                int i = slot(oldKeys[j], mask);
+                while (values[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Returns the home slot of the specified key.
+     */
+    private static int slot(long key, int mask) {
+        // murmur3 finalizer, spreads packed cell coordinates
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+}
@@ -0,0 +1,133 @@
+package eu.mihosoft.vrl.v3d;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import eu.mihosoft.vrl.v3d.ext.quickhull3d.HullUtil;
+
+/**
+ * Minkowski sums that work on vertex sums instead of moved copies of the
+ * traveling shape.
+ *
+ * The Minkowski sum of two convex solids is the convex hull of the pairwise
+ * sums of their vertices. Only the vertices of the convex hull of the
+ * traveling shape contribute to such a hull, the traveling shape is
+ * therefore reduced to them once.
+ *
+ * @see CSG#minkowski(CSG)
+ * @see CSG#minkowskiSum(CSG)
+ */
+final class Minkowski {
+
+	private Minkowski() {
+		throw new AssertionError("Don't instantiate me!", null);
+	}
+
+	/**
+	 * Returns the unique vertex positions of the specified csg.
+	 */
+	static List<Vector3d> vertices(CSG csg) {
+		VertexIndex index = new VertexIndex(Plane.EPSILON);
+		for (Polygon p : csg.getPolygons()) {
+			for (Vertex v : p.vertices) {
+				index.add(v.pos);
+			}
+		}
+		List<Vector3d> result = new ArrayList<>(index.size());
+		for (int i = 0; i < index.size(); i++) {
+			result.add(index.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the vertices of the convex hull of the specified csg.
+	 */
+	static List<Vector3d> hullVertices(CSG csg) {
+		List<Vector3d> points = vertices(csg);
+		if (points.size() <= 4) {
+			return points;
+		}
+		return vertices(HullUtil.hull(points));
+	}
+
+	/**
+	 * Determines whether the specified csg is convex, i.e., whether all of its
+	 * vertices lie behind or on the plane of each of its polygons.
+	 *
+	 * @param csg
+	 *            the csg
+	 * @return {@code true} if the csg is convex
+	 */
+	static boolean isConvex(CSG csg) {
+		List<Vector3d> points = vertices(csg);
+		Bounds b = csg.getBounds();
+		double tolerance = Plane.EPSILON * Math.max(1, b.getMax().minus(b.getMin()).magnitude());
+		for (Polygon p : csg.getPolygons()) {
+			Vector3d n = p.plane.normal;
+			double d = p.plane.dist;
+			for (Vector3d v : points) {
+				if (n.dot(v) - d > tolerance) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the convex hull of the pairwise sums of the specified points.
+	 */
+	static CSG hullOfSums(List<Vector3d> a, List<Vector3d> b, PropertyStorage storage) {
+		List<Vector3d> sums = new ArrayList<>(a.size() * b.size());
+		for (Vector3d p : a) {
+			for (Vector3d q : b) {
+				sums.add(new Vector3d(p.x + q.x, p.y + q.y, p.z + q.z));
+			}
+		}
+		return HullUtil.hull(sums, storage);
+	}
+
+	/**
+	 * Returns the Minkowski sum of two convex solids.
+	 *
+	 * @param a
+	 *            convex solid
+	 * @param b
+	 *            convex solid
+	 * @param storage
+	 *            storage of the result polygons
+	 * @return the Minkowski sum
+	 */
+	static CSG convexSum(CSG a, CSG b, PropertyStorage storage) {
+		return hullOfSums(hullVertices(a), hullVertices(b), storage);
+	}
+
+	/**
+	 * Sweeps the traveling shape over each polygon of the specified csg. Each
+	 * result is the convex hull of the traveling shape placed at every
+	 * vertex of one polygon. The hulls are computed in parallel on the
+	 * {@link CSG#getClipPool() clip pool}.
+	 *
+	 * @param csg
+	 *            the csg whose polygons are swept
+	 * @param travelingShape
+	 *            the traveling shape
+	 * @param storage
+	 *            storage of the result polygons
+	 * @return one hull per polygon, in polygon order
+	 */
+	static List<CSG> faceHulls(CSG csg, CSG travelingShape, PropertyStorage storage) {
+		List<Vector3d> tool = hullVertices(travelingShape);
+		List<Polygon> polygons = csg.getPolygons();
+		return CSG.getClipPool().submit(() -> IntStream.range(0, polygons.size()).parallel().mapToObj(i -> {
+			List<Vector3d> corners = new ArrayList<>(polygons.get(i).vertices.size());
+			for (Vertex v : polygons.get(i).vertices) {
+				corners.add(v.pos);
+			}
+			return hullOfSums(corners, tool, storage);
+		}).collect(Collectors.toList())).join();
+	}
+}
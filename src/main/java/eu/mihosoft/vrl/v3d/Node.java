@@ -33,8 +33,13 @@
  */
 package eu.mihosoft.vrl.v3d;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -45,9 +50,23 @@ import java.util.stream.Stream;
  * polygons) are added directly to that node and the other polygons are added to
  * the front and/or back subtrees. This is not a leafy BSP tree since there is
  * no distinction between internal and leaf nodes.
+ *
+ * All tree operations use explicit stacks instead of recursion. Unbalanced
+ * trees can therefore be arbitrarily deep without causing a
+ * {@link StackOverflowError}.
  */
 final class Node {
 
+    /**
+     * Minimum number of polygons a subtree must hold before it is clipped in a
+     * separate fork/join task. A value &lt;= 0 disables parallel clipping.
+     */
+    private static volatile int parallelThreshold = 0;
+    /**
+     * Pool used for parallel clipping.
+     */
+    private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
     /**
      * Polygons.
      */
@@ -64,6 +83,10 @@ final class Node {
      * Polygons in back of the plane.
      */
     private Node back;
+    /**
+     * Strategy used to pick the split plane of new nodes.
+     */
+    private final IBspSplitStrategy splitStrategy;
 
     /**
      * Constructor.
@@ -71,19 +94,85 @@ final class Node {
      * Creates a BSP node consisting of the specified polygons.
      *
      * @param polygons polygons
+     * @param splitStrategy strategy used to pick split planes
      */
-    public Node(List<Polygon> polygons) {
+    public Node(List<Polygon> polygons, IBspSplitStrategy splitStrategy) {
         this.polygons = new ArrayList<>();
+        this.splitStrategy = splitStrategy;
         if (polygons != null) {
             this.build(polygons);
         }
     }
 
+    /**
+     * Constructor.
+     *
+     * Creates a BSP node consisting of the specified polygons that uses the
+     * default split strategy.
+     *
+     * @param polygons polygons
+     */
+    public Node(List<Polygon> polygons) {
+        this(polygons, CSG.getDefaultSplitStrategy());
+    }
+
+    /**
+     * Constructor. Creates a node without polygons.
+     *
+     * @param splitStrategy strategy used to pick split planes
+     */
+    public Node(IBspSplitStrategy splitStrategy) {
+        this(null, splitStrategy);
+    }
+
     /**
      * Constructor. Creates a node without polygons.
      */
     public Node() {
-        this(null);
+        this((List<Polygon>) null);
+    }
+
+    /**
+     * Returns the parallel clipping threshold.
+     *
+     * @return the minimum number of polygons a subtree must hold before it is
+     * clipped in a separate task; a value &lt;= 0 means parallel clipping is
+     * disabled
+     */
+    static int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Sets the parallel clipping threshold.
+     *
+     * @param threshold the minimum number of polygons a subtree must hold
+     * before it is clipped in a separate task; a value &lt;= 0 disables
+     * parallel clipping
+     */
+    static void setParallelThreshold(int threshold) {
+        parallelThreshold = threshold;
+    }
+
+    /**
+     * Returns the pool used for parallel clipping.
+     *
+     * @return the pool used for parallel clipping
+     */
+    static ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Sets the pool used for parallel clipping.
+     *
+     * @param forkJoinPool the pool to use
+     */
+    static void setPool(ForkJoinPool forkJoinPool) {
+        if (forkJoinPool == null) {
+            throw new NullPointerException("The pool must not be null");
+        }
+        pool = forkJoinPool;
     }
 
     /* (non-Javadoc)
@@ -91,68 +180,84 @@ final class Node {
      */
     @Override
     public Node clone() {
-        Node node = new Node();
-        node.plane = this.plane == null ? null : this.plane.clone();
-        node.front = this.front == null ? null : this.front.clone();
-        node.back = this.back == null ? null : this.back.clone();
+        Node root = new Node(splitStrategy);
+
+        Deque<Node> originals = new ArrayDeque<>();
+        Deque<Node> copies = new ArrayDeque<>();
+        originals.push(this);
+        copies.push(root);
+
+        while (!originals.isEmpty()) {
+            Node original = originals.pop();
+            Node node = copies.pop();
+
+            node.plane = original.plane == null ? null : original.plane.clone();
 //        node.polygons = new ArrayList<>();
 //        polygons.parallelStream().forEach((Polygon p) -> {
 //            node.polygons.add(p.clone());
 //        });
 
-        Stream<Polygon> polygonStream;
+            Stream<Polygon> polygonStream;
 
-        if (polygons.size() > 200) {
-            polygonStream = polygons.parallelStream();
-        } else {
-            polygonStream = polygons.stream();
-        }
+            if (original.polygons.size() > 200) {
+                polygonStream = original.polygons.parallelStream();
+            } else {
+                polygonStream = original.polygons.stream();
+            }
+
+            node.polygons = polygonStream.
+                    map(p -> p.clone()).collect(Collectors.toList());
 
-        node.polygons = polygonStream.
-                map(p -> p.clone()).collect(Collectors.toList());
+            if (original.front != null) {
+                node.front = new Node(splitStrategy);
+                originals.push(original.front);
+                copies.push(node.front);
+            }
+            if (original.back != null) {
+                node.back = new Node(splitStrategy);
+                originals.push(original.back);
+                copies.push(node.back);
+            }
+        }
 
-        return node;
+        return root;
     }
 
     /**
      * Converts solid space to empty space and vice verca.
      */
     public void invert() {
-        
-        Stream<Polygon> polygonStream;
 
-        if (polygons.size() > 200) {
-            polygonStream = polygons.parallelStream();
-        } else {
-            polygonStream = polygons.stream();
-        }
+        for (Node node : nodes()) {
+            Stream<Polygon> polygonStream;
 
-        polygonStream.forEach((polygon) -> {
-            polygon.flip();
-        });
+            if (node.polygons.size() > 200) {
+                polygonStream = node.polygons.parallelStream();
+            } else {
+                polygonStream = node.polygons.stream();
+            }
 
-        if (this.plane == null && !polygons.isEmpty()) {
-            this.plane = polygons.get(0).plane.clone();
-        } else if (this.plane == null && polygons.isEmpty()) {
-            throw new RuntimeException("Please fix me! I don't know what to do?");
-        }
+            polygonStream.forEach((polygon) -> {
+                polygon.flip();
+            });
 
-        this.plane.flip();
+            if (node.plane == null && !node.polygons.isEmpty()) {
+                node.plane = node.polygons.get(0).plane.clone();
+            } else if (node.plane == null && node.polygons.isEmpty()) {
+                throw new RuntimeException("Please fix me! I don't know what to do?");
+            }
 
-        if (this.front != null) {
-            this.front.invert();
-        }
-        if (this.back != null) {
-            this.back.invert();
+            node.plane.flip();
+
+            Node temp = node.front;
+            node.front = node.back;
+            node.back = temp;
         }
-        Node temp = this.front;
-        this.front = this.back;
-        this.back = temp;
     }
 
     /**
-     * Recursively removes all polygons in the {@link polygons} list that are
-     * contained within this BSP tree.
+     * Removes all polygons in the {@link polygons} list that are contained
+     * within this BSP tree.
      *
      *  Note:  polygons are splitted if necessary.
      *
@@ -166,23 +271,17 @@ final class Node {
             return new ArrayList<>(polygons);
         }
 
-        List<Polygon> frontP = new ArrayList<>();
-        List<Polygon> backP = new ArrayList<>();
+        int threshold = parallelThreshold;
 
-        for (Polygon polygon : polygons) {
-            this.plane.splitPolygon(polygon, frontP, backP, frontP, backP);
-        }
-        if (this.front != null) {
-            frontP = this.front.clipPolygons(frontP);
-        }
-        if (this.back != null) {
-            backP = this.back.clipPolygons(backP);
-        } else {
-            backP = new ArrayList<>(0);
+        if (threshold > 0 && polygons.size() > threshold) {
+            ClipTask task = new ClipTask(this, polygons, threshold);
+            if (ForkJoinTask.inForkJoinPool()) {
+                return task.invoke();
+            }
+            return pool.invoke(task);
         }
 
-        frontP.addAll(backP);
-        return frontP;
+        return new ClipTask(this, polygons, 0).compute();
     }
 
     // Remove all polygons in this BSP tree that are inside the other BSP tree
@@ -196,12 +295,26 @@ final class Node {
      * @param bsp bsp that shall be used for clipping
      */
     public void clipTo(Node bsp) {
-        this.polygons = bsp.clipPolygons(this.polygons);
-        if (this.front != null) {
-            this.front.clipTo(bsp);
+        List<Node> nodes = nodes();
+
+        int threshold = parallelThreshold;
+
+        if (threshold > 0 && nodes.size() > 1
+                && nodes.stream().mapToInt(n -> n.polygons.size()).sum() > threshold) {
+            // the nodes of this tree are independent of each other, i.e.,
+            // the front and back subtrees can be clipped concurrently
+            Runnable clipAll = () -> nodes.parallelStream().forEach(
+                    (node) -> node.polygons = bsp.clipPolygons(node.polygons));
+            if (ForkJoinTask.inForkJoinPool()) {
+                clipAll.run();
+            } else {
+                pool.submit(clipAll).join();
+            }
+            return;
         }
-        if (this.back != null) {
-            this.back.clipTo(bsp);
+
+        for (Node node : nodes) {
+            node.polygons = bsp.clipPolygons(node.polygons);
         }
     }
 
@@ -211,55 +324,206 @@ final class Node {
      * @return a list of all polygons in this BSP tree
      */
     public List<Polygon> allPolygons() {
-        List<Polygon> localPolygons = new ArrayList<>(this.polygons);
-        if (this.front != null) {
-            localPolygons.addAll(this.front.allPolygons());
-//            polygons = Utils.concat(polygons, this.front.allPolygons());
-        }
-        if (this.back != null) {
-//            polygons = Utils.concat(polygons, this.back.allPolygons());
-            localPolygons.addAll(this.back.allPolygons());
+        List<Polygon> localPolygons = new ArrayList<>();
+
+        for (Node node : nodes()) {
+            localPolygons.addAll(node.polygons);
         }
 
         return localPolygons;
     }
 
+    /**
+     * Returns all nodes of this tree in pre-order (node, front subtree, back
+     * subtree).
+     *
+     * @return all nodes of this tree
+     */
+    private List<Node> nodes() {
+        List<Node> result = new ArrayList<>();
+
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(this);
+
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            result.add(node);
+            if (node.back != null) {
+                stack.push(node.back);
+            }
+            if (node.front != null) {
+                stack.push(node.front);
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Build a BSP tree out of {@code polygons}. When called on an existing
      * tree, the new polygons are filtered down to the bottom of the tree and
      * become new nodes there. Each set of polygons is partitioned using the
-     * first polygon (no heuristic is used to pick a good split).
+     * plane picked by the split strategy of this node.
      *
      * @param polygons polygons used to build the BSP
      */
     public final void build(List<Polygon> polygons) {
-        
-        if (polygons.isEmpty()) return;
 
-        if (this.plane == null) {
-            this.plane = polygons.get(0).plane.clone();
-        }
+        Deque<Node> nodes = new ArrayDeque<>();
+        Deque<List<Polygon>> lists = new ArrayDeque<>();
+        nodes.push(this);
+        lists.push(polygons);
 
-        List<Polygon> frontP = new ArrayList<>();
-        List<Polygon> backP = new ArrayList<>();
+        while (!nodes.isEmpty()) {
+            Node node = nodes.pop();
+            List<Polygon> nodePolygons = lists.pop();
 
-        // parellel version does not work here
-        polygons.forEach((polygon) -> {
-            this.plane.splitPolygon(
-                    polygon, this.polygons, this.polygons, frontP, backP);
-        });
+            if (nodePolygons.isEmpty()) {
+                continue;
+            }
 
-        if (frontP.size() > 0) {
-            if (this.front == null) {
-                this.front = new Node();
+            if (node.plane == null) {
+                node.plane = node.splitStrategy.selectSplitPlane(nodePolygons);
             }
-            this.front.build(frontP);
+
+            List<Polygon> frontP = new ArrayList<>();
+            List<Polygon> backP = new ArrayList<>();
+
+            // parellel version does not work here
+            for (Polygon polygon : nodePolygons) {
+                node.plane.splitPolygon(
+                        polygon, node.polygons, node.polygons, frontP, backP);
+            }
+
+            if (frontP.size() > 0) {
+                if (node.front == null) {
+                    node.front = new Node(node.splitStrategy);
+                }
+                nodes.push(node.front);
+                lists.push(frontP);
+            }
+            if (backP.size() > 0) {
+                if (node.back == null) {
+                    node.back = new Node(node.splitStrategy);
+                }
+                nodes.push(node.back);
+                lists.push(backP);
+            }
+        }
+    }
+
+    /**
+     * Clips a list of polygons against a (sub)tree. The tree is traversed with
+     * an explicit stack. Subtrees that receive more polygons than the
+     * threshold are clipped in forked tasks if the opposite subtree is big
+     * enough to keep this task busy. The order of the resulting polygons does
+     * not depend on the threshold.
+     */
+    private static final class ClipTask extends RecursiveTask<List<Polygon>> {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Root of the subtree to clip against. */
+        private final Node root;
+        /** Polygons to clip. */
+        private final List<Polygon> polygons;
+        /** Fork threshold, a value &lt;= 0 disables forking. */
+        private final int threshold;
+
+        /**
+         * Constructor.
+         *
+         * @param root root of the subtree to clip against
+         * @param polygons polygons to clip
+         * @param threshold fork threshold
+         */
+        ClipTask(Node root, List<Polygon> polygons, int threshold) {
+            this.root = root;
+            this.polygons = polygons;
+            this.threshold = threshold;
         }
-        if (backP.size() > 0) {
-            if (this.back == null) {
-                this.back = new Node();
+
+        @Override
+        protected List<Polygon> compute() {
+
+            // results in traversal order, either polygon lists or forked
+            // tasks whose results are joined at the end
+            List<Object> segments = new ArrayList<>();
+            List<Polygon> current = new ArrayList<>();
+
+            // a stack entry is either a node with its polygons or a forked
+            // task that marks the position of its results
+            Deque<Object> stack = new ArrayDeque<>();
+            Deque<List<Polygon>> lists = new ArrayDeque<>();
+            stack.push(root);
+            lists.push(polygons);
+
+            while (!stack.isEmpty()) {
+                Object entry = stack.pop();
+                List<Polygon> nodePolygons = lists.pop();
+
+                if (entry instanceof ClipTask) {
+                    segments.add(current);
+                    segments.add(entry);
+                    current = new ArrayList<>();
+                    continue;
+                }
+
+                Node node = (Node) entry;
+
+                if (node.plane == null) {
+                    current.addAll(nodePolygons);
+                    continue;
+                }
+
+                List<Polygon> frontP = new ArrayList<>();
+                List<Polygon> backP = new ArrayList<>();
+
+                for (Polygon polygon : nodePolygons) {
+                    node.plane.splitPolygon(polygon, frontP, backP, frontP, backP);
+                }
+
+                // polygons behind a leaf are inside the solid and are dropped
+                if (node.back != null && !backP.isEmpty()) {
+                    if (threshold > 0 && backP.size() > threshold
+                            && node.front != null && frontP.size() > threshold) {
+                        ClipTask task = new ClipTask(node.back, backP, threshold);
+                        task.fork();
+                        stack.push(task);
+                        lists.push(backP);
+                    } else {
+                        stack.push(node.back);
+                        lists.push(backP);
+                    }
+                }
+
+                if (node.front != null) {
+                    stack.push(node.front);
+                    lists.push(frontP);
+                } else {
+                    current.addAll(frontP);
+                }
             }
-            this.back.build(backP);
+
+            if (segments.isEmpty()) {
+                return current;
+            }
+
+            segments.add(current);
+
+            List<Polygon> result = new ArrayList<>();
+
+            for (Object segment : segments) {
+                if (segment instanceof ClipTask) {
+                    result.addAll(((ClipTask) segment).join());
+                } else {
+                    @SuppressWarnings("unchecked")
+                    List<Polygon> segmentPolygons = (List<Polygon>) segment;
+                    result.addAll(segmentPolygons);
+                }
+            }
+
+            return result;
         }
     }
 }
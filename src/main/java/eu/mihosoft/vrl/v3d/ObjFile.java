@@ -54,6 +54,44 @@ public final class ObjFile {
      */
     public void toFiles(Path p) throws IOException {
 
+        obj = obj.replace(MTL_NAME, mtlPath(p).getFileName().toString());
+        objStream = null;
+
+        FileUtil.write(objPath(p), obj);
+        FileUtil.write(mtlPath(p), mtl);
+
+    }
+
+    /**
+     * Returns the path of the OBJ file for the specified destination.
+     *
+     * @param p the destination
+     * @return the destination with extension {@code .obj}
+     */
+    static Path objPath(Path p) {
+        return withExtension(p, ".obj");
+    }
+
+    /**
+     * Returns the path of the MTL file for the specified destination.
+     *
+     * @param p the destination
+     * @return the destination with extension {@code .mtl}
+     */
+    static Path mtlPath(Path p) {
+        return withExtension(p, ".mtl");
+    }
+
+    /**
+     * Replaces an {@code .obj} or {@code .mtl} extension of the specified
+     * path with the specified extension.
+     *
+     * @param p the path
+     * @param extension the extension
+     * @return the path with the new extension
+     */
+    private static Path withExtension(Path p, String extension) {
+
         Path parent = p.getParent();
 
         String fileName = p.getFileName().toString();
@@ -63,20 +101,11 @@ public final class ObjFile {
             fileName = fileName.substring(0, fileName.length() - 4);
         }
 
-        String objName = fileName + ".obj";
-        String mtlName = fileName + ".mtl";
-
-        obj = obj.replace(MTL_NAME, mtlName);
-        objStream = null;
-
         if (parent == null) {
-            FileUtil.write(Paths.get(objName), obj);
-            FileUtil.write(Paths.get(mtlName), mtl);
+            return Paths.get(fileName + extension);
         } else {
-            FileUtil.write(Paths.get(parent.toString(), objName), obj);
-            FileUtil.write(Paths.get(parent.toString(), mtlName), mtl);
+            return Paths.get(parent.toString(), fileName + extension);
         }
-
     }
 
     /**
@@ -51,6 +51,15 @@ public class Plane {
      */
     public static final double EPSILON = 1e-6;
 
+    /** Classification: polygon or point lies in this plane. */
+    static final int COPLANAR = 0;
+    /** Classification: polygon or point lies in front of this plane. */
+    static final int FRONT = 1;
+    /** Classification: polygon or point lies behind this plane. */
+    static final int BACK = 2;
+    /** Classification: polygon spans this plane. */
+    static final int SPANNING = 3;
+
     /**
      * XY plane.
      */
@@ -114,6 +123,33 @@ public class Plane {
         dist = -dist;
     }
 
+    /**
+     * Classifies the specified polygon with respect to this plane.
+     *
+     * @param polygon polygon to classify
+     * @return one of {@link #COPLANAR}, {@link #FRONT}, {@link #BACK} or
+     * {@link #SPANNING}
+     */
+    int classify(Polygon polygon) {
+        int polygonType = 0;
+        for (int i = 0; i < polygon.vertices.size(); i++) {
+            double t = this.normal.dot(polygon.vertices.get(i).pos) - this.dist;
+            polygonType |= (t < -Plane.EPSILON) ? BACK : (t > Plane.EPSILON) ? FRONT : COPLANAR;
+            if (polygonType == SPANNING) {
+                break;
+            }
+        }
+        return polygonType;
+    }
+
+    /**
+     * Per-thread scratch buffers used by
+     * {@link #splitPolygon(eu.mihosoft.vrl.v3d.Polygon, java.util.List, java.util.List, java.util.List, java.util.List)
+     * }. They grow on demand and are never shrunk.
+     */
+    private static final ThreadLocal<SplitBuffer> SPLIT_BUFFER
+            = ThreadLocal.withInitial(SplitBuffer::new);
+
     /**
      * Splits a {@link Polygon} by this plane if needed. After that it puts the
      * polygons or the polygon fragments in the appropriate lists
@@ -122,6 +158,10 @@ public class Plane {
      * orientation with respect to this plane. Polygons in front or back of this
      * plane go into either {@code front} or {@code back}.
      *
+     * Vertex classification uses reusable per-thread buffers, i.e., no objects
+     * are allocated unless the polygon spans this plane. Fragments with less
+     * than three vertices are dropped before any vertex is copied.
+     *
      * @param polygon polygon to split
      * @param coplanarFront "coplanar front" polygons
      * @param coplanarBack "coplanar back" polygons
@@ -134,68 +174,157 @@ public class Plane {
             List<Polygon> coplanarBack,
             List<Polygon> front,
             List<Polygon> back) {
-        final int COPLANAR = 0;
-        final int FRONT = 1;
-        final int BACK = 2;
-        final int SPANNING = 3;
+
+        List<Vertex> vertices = polygon.vertices;
+        int n = vertices.size();
+
+        SplitBuffer buffer = SPLIT_BUFFER.get();
+        int[] types = buffer.types(n);
+        double[] dists = buffer.dists(n);
+
+        double nx = normal.x;
+        double ny = normal.y;
+        double nz = normal.z;
 
         // Classify each point as well as the entire polygon into one of the above
         // four classes.
         int polygonType = 0;
-        List<Integer> types = new ArrayList<>();
-        for (int i = 0; i < polygon.vertices.size(); i++) {
-            double t = this.normal.dot(polygon.vertices.get(i).pos) - this.dist;
+        for (int i = 0; i < n; i++) {
+            Vector3d pos = vertices.get(i).pos;
+            double t = nx * pos.x + ny * pos.y + nz * pos.z - this.dist;
             int type = (t < -Plane.EPSILON) ? BACK : (t > Plane.EPSILON) ? FRONT : COPLANAR;
             polygonType |= type;
-            types.add(type);
+            types[i] = type;
+            dists[i] = t;
         }
-        
-        //System.out.println("> switching");
 
         // Put the polygon in the correct list, splitting it when necessary.
         switch (polygonType) {
             case COPLANAR:
-                //System.out.println(" -> coplanar");
                 (this.normal.dot(polygon.plane.normal) > 0 ? coplanarFront : coplanarBack).add(polygon);
                 break;
             case FRONT:
-                //System.out.println(" -> front");
                 front.add(polygon);
                 break;
             case BACK:
-                //System.out.println(" -> back");
                 back.add(polygon);
                 break;
             case SPANNING:
-                //System.out.println(" -> spanning");
-                List<Vertex> f = new ArrayList<>();
-                List<Vertex> b = new ArrayList<>();
-                for (int i = 0; i < polygon.vertices.size(); i++) {
-                    int j = (i + 1) % polygon.vertices.size();
-                    int ti = types.get(i);
-                    int tj = types.get(j);
-                    Vertex vi = polygon.vertices.get(i);
-                    Vertex vj = polygon.vertices.get(j);
+                // count the fragment vertices first to skip degenerate
+                // fragments and to allocate the vertex lists only once
+                int numFront = 0;
+                int numBack = 0;
+                for (int i = 0; i < n; i++) {
+                    int ti = types[i];
+                    int tj = types[(i + 1) % n];
                     if (ti != BACK) {
-                        f.add(vi);
+                        numFront++;
                     }
                     if (ti != FRONT) {
+                        numBack++;
+                    }
+                    if ((ti | tj) == SPANNING) {
+                        numFront++;
+                        numBack++;
+                    }
+                }
+
+                List<Vertex> f = numFront >= 3 ? new ArrayList<>(numFront) : null;
+                List<Vertex> b = numBack >= 3 ? new ArrayList<>(numBack) : null;
+
+                for (int i = 0; i < n; i++) {
+                    int j = (i + 1) % n;
+                    int ti = types[i];
+                    int tj = types[j];
+                    Vertex vi = vertices.get(i);
+                    if (ti != BACK && f != null) {
+                        f.add(vi);
+                    }
+                    if (ti != FRONT && b != null) {
                         b.add(ti != BACK ? vi.clone() : vi);
                     }
                     if ((ti | tj) == SPANNING) {
-                        double t = (this.dist - this.normal.dot(vi.pos)) / this.normal.dot(vj.pos.minus(vi.pos));
-                        Vertex v = vi.interpolate(vj, t);
-                        f.add(v);
-                        b.add(v.clone());
+                        Vertex v = interpolate(vi, vertices.get(j), dists[i] / (dists[i] - dists[j]));
+                        if (f != null) {
+                            f.add(v);
+                        }
+                        if (b != null) {
+                            b.add(f != null ? v.clone() : v);
+                        }
                     }
                 }
-                if (f.size() >= 3) {
-                    front.add(new Polygon(f, polygon.getStorage()));
+
+                // fragments lie in the plane of the split polygon
+                if (f != null) {
+                    front.add(new Polygon(f, polygon.getStorage(), polygon.plane.clone()));
                 }
-                if (b.size() >= 3) {
-                    back.add(new Polygon(b, polygon.getStorage()));
+                if (b != null) {
+                    back.add(new Polygon(b, polygon.getStorage(), polygon.plane.clone()));
                 }
                 break;
         }
     }
+
+    /**
+     * Creates a vertex between the specified vertices.
+     * Equivalent to {@link Vertex#interpolate(eu.mihosoft.vrl.v3d.Vertex, double)}
+     * without the temporary vectors.
+     *
+     * @param a first vertex
+     * @param b second vertex
+     * @param t interpolation parameter, {@code 0} yields {@code a}
+     * @return the interpolated vertex
+     */
+    private static Vertex interpolate(Vertex a, Vertex b, double t) {
+        Vector3d pa = a.pos;
+        Vector3d pb = b.pos;
+        Vector3d na = a.normal;
+        Vector3d nb = b.normal;
+        return new Vertex(
+                new Vector3d(
+                        pa.x + (pb.x - pa.x) * t,
+                        pa.y + (pb.y - pa.y) * t,
+                        pa.z + (pb.z - pa.z) * t),
+                new Vector3d(
+                        na.x + (nb.x - na.x) * t,
+                        na.y + (nb.y - na.y) * t,
+                        na.z + (nb.z - na.z) * t));
+    }
+
+    /**
+     * Scratch buffers for vertex classification.
+     */
+    private static final class SplitBuffer {
+
+        /** Vertex types. */
+        private int[] types = new int[16];
+        /** Signed vertex distances. */
+        private double[] dists = new double[16];
+
+        /**
+         * Returns the type buffer.
+         *
+         * @param size minimum size
+         * @return the type buffer
+         */
+        int[] types(int size) {
+            if (types.length < size) {
+                types = new int[Math.max(size, types.length * 2)];
+            }
+            return types;
+        }
+
+        /**
+         * Returns the distance buffer.
+         *
+         * @param size minimum size
+         * @return the distance buffer
+         */
+        double[] dists(int size) {
+            if (dists.length < size) {
+                dists = new double[Math.max(size, dists.length * 2)];
+            }
+            return dists;
+        }
+    }
 }
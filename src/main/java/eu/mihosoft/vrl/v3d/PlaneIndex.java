@@ -0,0 +1,258 @@
+package eu.mihosoft.vrl.v3d;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hash index that assigns group ids to planes. Two planes receive the same
+ * id if the angle between their normals is below the angle tolerance and
+ * their distances to the origin differ by at most the distance tolerance.
+ *
+ * Planes are hashed by their quantized normal and distance. A lookup only
+ * probes the buckets that intersect the tolerance box of the plane, so
+ * grouping {@code n} polygons takes linear time instead of comparing every
+ * pair. Ids are assigned in insertion order; if several stored planes match,
+ * the smallest id is returned.
+ *
+ * @see CSG#getPlaneGroups()
+ */
+public final class PlaneIndex {
+
+    /**
+     * Default angle tolerance (radians).
+     */
+    public static final double DEFAULT_ANGLE_TOLERANCE = 0.01;
+    /**
+     * Default distance tolerance.
+     */
+    public static final double DEFAULT_DISTANCE_TOLERANCE = 1e-3;
+
+    /**
+     * The angle tolerance.
+     */
+    private final double angleTolerance;
+    /**
+     * The distance tolerance.
+     */
+    private final double distanceTolerance;
+    /**
+     * The minimum dot product of matching normals.
+     */
+    private final double minDot;
+    /**
+     * Maximum difference of a normal component of matching planes.
+     */
+    private final double normalTolerance;
+    /**
+     * Stored planes (nx, ny, nz, dist per id).
+     */
+    private double[] planes = new double[4 * 16];
+    /**
+     * Number of ids.
+     */
+    private int size;
+    /**
+     * Most recently added id per bucket.
+     */
+    private final LongIntMap buckets = new LongIntMap(16);
+    /**
+     * Next id in the same bucket per id, {@code -1} terminates the list.
+     */
+    private int[] nextInBucket = new int[16];
+
+    /**
+     * Constructor. Creates an index with the default tolerances.
+     */
+    public PlaneIndex() {
+        this(DEFAULT_ANGLE_TOLERANCE, DEFAULT_DISTANCE_TOLERANCE);
+    }
+
+    /**
+     * Constructor. Creates an index with the specified tolerances.
+     *
+     * @param angleTolerance maximum angle between normals of planes that
+     * share an id (radians), must be positive and less than {@code PI / 2}
+     * @param distanceTolerance maximum difference between the distances of
+     * planes that share an id, must be positive
+     */
+    public PlaneIndex(double angleTolerance, double distanceTolerance) {
+        if (!(angleTolerance > 0) || !(angleTolerance < Math.PI / 2)) {
+            throw new IllegalArgumentException(
+                    "Angle tolerance must be in (0, PI/2): " + angleTolerance);
+        }
+        if (!(distanceTolerance > 0)) {
+            throw new IllegalArgumentException(
+                    "Distance tolerance must be positive: " + distanceTolerance);
+        }
+        this.angleTolerance = angleTolerance;
+        this.distanceTolerance = distanceTolerance;
+        this.minDot = Math.cos(angleTolerance);
+        // components of unit vectors enclosing the angle a differ by at
+        // most the chord length 2 sin(a / 2) < a
+        this.normalTolerance = angleTolerance;
+    }
+
+    /**
+     * Returns the id of the specified plane. A new id is assigned if no
+     * matching plane has been added before.
+     *
+     * @param plane plane
+     * @return the id of the plane
+     */
+    public int add(Plane plane) {
+        int id = find(plane);
+        if (id >= 0) {
+            return id;
+        }
+
+        id = size++;
+        if (planes.length < size * 4) {
+            planes = Arrays.copyOf(planes, planes.length * 2);
+            nextInBucket = Arrays.copyOf(nextInBucket, nextInBucket.length * 2);
+        }
+        Vector3d n = plane.normal;
+        planes[id * 4] = n.x;
+        planes[id * 4 + 1] = n.y;
+        planes[id * 4 + 2] = n.z;
+        planes[id * 4 + 3] = plane.dist;
+
+        nextInBucket[id] = buckets.put(key(
+                normalCell(n.x), normalCell(n.y), normalCell(n.z),
+                distanceCell(plane.dist)), id);
+        return id;
+    }
+
+    /**
+     * Returns the id of the specified plane.
+     *
+     * @param plane plane
+     * @return the id of the plane or {@code -1} if no matching plane has been
+     * added
+     */
+    public int find(Plane plane) {
+        Vector3d n = plane.normal;
+        double d = plane.dist;
+
+        long x0 = normalCell(n.x - normalTolerance);
+        long x1 = normalCell(n.x + normalTolerance);
+        long y0 = normalCell(n.y - normalTolerance);
+        long y1 = normalCell(n.y + normalTolerance);
+        long z0 = normalCell(n.z - normalTolerance);
+        long z1 = normalCell(n.z + normalTolerance);
+        long d0 = distanceCell(d - distanceTolerance);
+        long d1 = distanceCell(d + distanceTolerance);
+
+        int result = -1;
+        for (long x = x0; x <= x1; x++) {
+            for (long y = y0; y <= y1; y++) {
+                for (long z = z0; z <= z1; z++) {
+                    for (long w = d0; w <= d1; w++) {
+                        for (int id = buckets.get(key(x, y, z, w)); id >= 0; id = nextInBucket[id]) {
+                            if ((result < 0 || id < result) && matches(id, n, d)) {
+                                result = id;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the plane with the specified id, i.e., the first plane that was
+     * added with this id.
+     *
+     * @param id id
+     * @return the plane
+     */
+    public Plane getPlane(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Id: " + id + ", size: " + size);
+        }
+        return new Plane(new Vector3d(planes[id * 4], planes[id * 4 + 1],
+                planes[id * 4 + 2]), planes[id * 4 + 3]);
+    }
+
+    /**
+     * Returns the number of ids.
+     *
+     * @return the number of ids
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the angle tolerance of this index.
+     *
+     * @return the angle tolerance (radians)
+     */
+    public double getAngleTolerance() {
+        return angleTolerance;
+    }
+
+    /**
+     * Returns the distance tolerance of this index.
+     *
+     * @return the distance tolerance
+     */
+    public double getDistanceTolerance() {
+        return distanceTolerance;
+    }
+
+    /**
+     * Groups the specified polygons by plane. Groups are ordered by their
+     * first polygon, polygons keep their order within each group.
+     *
+     * @param polygons polygons to group
+     * @return the polygons of each plane
+     */
+    public List<List<Polygon>> group(List<Polygon> polygons) {
+        List<List<Polygon>> groups = new ArrayList<>();
+        for (Polygon p : polygons) {
+            int id = add(p.plane);
+            if (id == groups.size()) {
+                groups.add(new ArrayList<>());
+            }
+            groups.get(id).add(p);
+        }
+        return groups;
+    }
+
+    /**
+     * Determines whether the plane with the specified id matches the
+     * specified plane.
+     */
+    private boolean matches(int id, Vector3d n, double d) {
+        double dot = planes[id * 4] * n.x + planes[id * 4 + 1] * n.y
+                + planes[id * 4 + 2] * n.z;
+        return dot >= minDot
+                && Math.abs(planes[id * 4 + 3] - d) <= distanceTolerance;
+    }
+
+    /**
+     * Returns the cell coordinate of the specified normal component.
+     */
+    private long normalCell(double v) {
+        return (long) Math.floor(v / (4 * normalTolerance));
+    }
+
+    /**
+     * Returns the cell coordinate of the specified distance.
+     */
+    private long distanceCell(double v) {
+        return (long) Math.floor(v / (4 * distanceTolerance));
+    }
+
+    /**
+     * Packs the cell coordinates into a key. Distinct cells may share a key;
+     * this only merges their buckets since candidates are always compared
+     * by plane.
+     */
+    private static long key(long x, long y, long z, long d) {
+        return ((x & 0xffff) << 48) | ((y & 0xffff) << 32)
+                | ((z & 0xffff) << 16) | (d & 0xffff);
+    }
+}
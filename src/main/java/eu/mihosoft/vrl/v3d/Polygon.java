@@ -62,7 +62,7 @@ public final class Polygon {
      *  Note:  uses first three vertices to define the plane.
      */
     public final Plane plane;
-	private final Exception creationEventStackTrace = new Exception();
+	private final Exception creationEventStackTrace = Provenance.capture(Provenance.getPolygonMode());
     
 
     /**
@@ -117,6 +117,21 @@ public final class Polygon {
                 vertices.get(2).pos);
     }
 
+    /**
+     * Constructor. Creates a new polygon that consists of the specified
+     * vertices and lies in the specified plane. The plane is not computed from
+     * the vertices and is used without copying it.
+     *
+     * @param vertices polygon vertices
+     * @param shared shared property
+     * @param plane plane of the polygon
+     */
+    Polygon(List<Vertex> vertices, PropertyStorage shared, Plane plane) {
+        this.vertices = vertices;
+        this.shared = shared;
+        this.plane = plane;
+    }
+
     /**
      * Constructor. Creates a new polygon that consists of the specified
      * vertices.
@@ -369,6 +384,27 @@ public final class Polygon {
         return new Polygon(vertices, shared);
     }
 
+    /**
+     * Returns the centroid of the vertices of this polygon.
+     *
+     * @return the centroid of this polygon
+     */
+    public Vector3d centroid() {
+        double x = 0;
+        double y = 0;
+        double z = 0;
+
+        for (Vertex v : vertices) {
+            x += v.pos.x;
+            y += v.pos.y;
+            z += v.pos.z;
+        }
+
+        int n = vertices.size();
+
+        return new Vector3d(x / n, y / n, z / n);
+    }
+
     /**
      * Returns the bounds of this polygon.
      *
@@ -584,6 +620,12 @@ public final class Polygon {
         return shared;
     }
 
+	/**
+	 * Returns the trace recorded when this polygon was created.
+	 *
+	 * @return the trace or {@code null} if no trace was recorded
+	 * @see CSG#setPolygonProvenanceMode(ProvenanceMode)
+	 */
 	public Exception getCreationEventStackTrace() {
 		return creationEventStackTrace;
 	}
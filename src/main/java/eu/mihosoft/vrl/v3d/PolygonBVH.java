@@ -0,0 +1,634 @@
+package eu.mihosoft.vrl.v3d;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounding volume hierarchy (axis aligned bounding box tree) over the polygons
+ * of a csg.
+ *
+ * The tree is stored in flat arrays. Each node covers a contiguous range of
+ * {@link #order}, leaves hold at most {@link #LEAF_SIZE} polygons. Boxes are
+ * enlarged by {@link Plane#EPSILON}, i.e., touching polygons are reported as
+ * overlapping.
+ */
+final class PolygonBVH {
+
+    /**
+     * Maximum number of polygons per leaf.
+     */
+    private static final int LEAF_SIZE = 4;
+
+    /**
+     * Ray directions used for point classification. They are deliberately not
+     * aligned with any axis or typical diagonal.
+     */
+    private static final double[][] RAY_DIRECTIONS = {
+        {0.5773502691896258, 0.5773502691896257, 0.5773502691896259},
+        {0.8017837257372732, 0.2672612419124244, 0.5345224838248488},
+        {-0.3015113445777636, 0.9045340337332909, -0.3015113445777636},
+        {0.1825741858350554, -0.3651483716701107, 0.9128709291752769},
+        {-0.8728715609439696, -0.2182178902359924, 0.4364357804719848}
+    };
+
+    /**
+     * The polygons.
+     */
+    private final List<Polygon> polygons;
+    /**
+     * Polygon boxes (min x, y, z, max x, y, z per polygon).
+     */
+    private final double[] polygonBoxes;
+    /**
+     * Polygon indices in tree order.
+     */
+    private final int[] order;
+    /**
+     * Node boxes (min x, y, z, max x, y, z per node).
+     */
+    private final double[] nodeBoxes;
+    /**
+     * Start of the range of each node in {@link #order}.
+     */
+    private final int[] nodeStart;
+    /**
+     * End (exclusive) of the range of each node in {@link #order}.
+     */
+    private final int[] nodeEnd;
+    /**
+     * Left child of each node, {@code -1} for leaves. The right child is
+     * stored in {@link #right}.
+     */
+    private final int[] left;
+    /**
+     * Right child of each node, {@code -1} for leaves.
+     */
+    private final int[] right;
+    /**
+     * Number of nodes.
+     */
+    private final int numNodes;
+
+    /**
+     * Constructor. Builds the tree.
+     *
+     * @param polygons polygons, must not be modified while this tree is in
+     * use
+     */
+    PolygonBVH(List<Polygon> polygons) {
+        this.polygons = polygons;
+
+        int n = polygons.size();
+
+        polygonBoxes = new double[n * 6];
+        double[] centers = new double[n * 3];
+        order = new int[n];
+
+        for (int i = 0; i < n; i++) {
+            computeBox(polygons.get(i), polygonBoxes, i * 6);
+            for (int a = 0; a < 3; a++) {
+                centers[i * 3 + a] = (polygonBoxes[i * 6 + a] + polygonBoxes[i * 6 + 3 + a]) * 0.5;
+            }
+            order[i] = i;
+        }
+
+        // every leaf holds at least one polygon
+        int maxNodes = Math.max(1, 2 * n - 1);
+        nodeBoxes = new double[maxNodes * 6];
+        nodeStart = new int[maxNodes];
+        nodeEnd = new int[maxNodes];
+        left = new int[maxNodes];
+        right = new int[maxNodes];
+
+        if (n == 0) {
+            numNodes = 0;
+            return;
+        }
+
+        // explicit stack of nodes that still have to be split
+        int[] stack = new int[maxNodes];
+        int stackSize = 0;
+        int count = 1;
+        nodeStart[0] = 0;
+        nodeEnd[0] = n;
+        stack[stackSize++] = 0;
+
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            int start = nodeStart[node];
+            int end = nodeEnd[node];
+
+            computeNodeBox(node, start, end);
+
+            left[node] = -1;
+            right[node] = -1;
+
+            if (end - start <= LEAF_SIZE) {
+                continue;
+            }
+
+            // split at the median of the longest axis of the centers
+            double[] extent = centerExtent(centers, start, end);
+            int axis = 0;
+            if (extent[1] > extent[axis]) {
+                axis = 1;
+            }
+            if (extent[2] > extent[axis]) {
+                axis = 2;
+            }
+
+            int mid = (start + end) >>> 1;
+            select(centers, axis, start, end - 1, mid);
+
+            int l = count++;
+            int r = count++;
+            nodeStart[l] = start;
+            nodeEnd[l] = mid;
+            nodeStart[r] = mid;
+            nodeEnd[r] = end;
+            left[node] = l;
+            right[node] = r;
+            stack[stackSize++] = l;
+            stack[stackSize++] = r;
+        }
+
+        numNodes = count;
+    }
+
+    /**
+     * Returns the polygons of this tree.
+     *
+     * @return the polygons of this tree
+     */
+    List<Polygon> getPolygons() {
+        return polygons;
+    }
+
+    /**
+     * Returns the number of polygons this tree was built from.
+     *
+     * @return the number of polygons
+     */
+    int size() {
+        return order.length;
+    }
+
+    /**
+     * Indicates whether the box of any polygon intersects the specified box.
+     *
+     * @param bounds box to check
+     * @return {@code true} if a polygon box intersects the specified box;
+     * {@code false} otherwise
+     */
+    boolean intersects(Bounds bounds) {
+        if (numNodes == 0) {
+            return false;
+        }
+
+        double[] box = toArray(bounds);
+
+        int[] stack = new int[numNodes];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            if (!overlaps(nodeBoxes, node * 6, box, 0)) {
+                continue;
+            }
+            if (left[node] < 0) {
+                for (int i = nodeStart[node]; i < nodeEnd[node]; i++) {
+                    if (overlaps(polygonBoxes, order[i] * 6, box, 0)) {
+                        return true;
+                    }
+                }
+            } else {
+                stack[stackSize++] = left[node];
+                stack[stackSize++] = right[node];
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Marks all polygons whose box intersects the specified box.
+     *
+     * @param bounds box to check
+     * @param marks marks, indexed like the polygon list
+     */
+    void mark(Bounds bounds, boolean[] marks) {
+        if (numNodes == 0) {
+            return;
+        }
+
+        double[] box = toArray(bounds);
+
+        int[] stack = new int[numNodes];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            if (!overlaps(nodeBoxes, node * 6, box, 0)) {
+                continue;
+            }
+            if (left[node] < 0) {
+                for (int i = nodeStart[node]; i < nodeEnd[node]; i++) {
+                    if (overlaps(polygonBoxes, order[i] * 6, box, 0)) {
+                        marks[order[i]] = true;
+                    }
+                }
+            } else {
+                stack[stackSize++] = left[node];
+                stack[stackSize++] = right[node];
+            }
+        }
+    }
+
+    /**
+     * Marks all polygons of {@code a} whose box intersects the box of a
+     * polygon of {@code b} and vice versa.
+     *
+     * @param a first tree
+     * @param b second tree
+     * @param marksA marks of the polygons of {@code a}
+     * @param marksB marks of the polygons of {@code b}
+     */
+    static void markOverlaps(PolygonBVH a, PolygonBVH b, boolean[] marksA, boolean[] marksB) {
+        if (a.numNodes == 0 || b.numNodes == 0) {
+            return;
+        }
+
+        // stack of node pairs
+        int[] stack = new int[2 * (a.numNodes + b.numNodes) + 2];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        stack[stackSize++] = 0;
+
+        while (stackSize > 0) {
+            int nodeB = stack[--stackSize];
+            int nodeA = stack[--stackSize];
+
+            if (!overlaps(a.nodeBoxes, nodeA * 6, b.nodeBoxes, nodeB * 6)) {
+                continue;
+            }
+
+            boolean leafA = a.left[nodeA] < 0;
+            boolean leafB = b.left[nodeB] < 0;
+
+            if (leafA && leafB) {
+                for (int i = a.nodeStart[nodeA]; i < a.nodeEnd[nodeA]; i++) {
+                    int pa = a.order[i];
+                    for (int j = b.nodeStart[nodeB]; j < b.nodeEnd[nodeB]; j++) {
+                        int pb = b.order[j];
+                        if (overlaps(a.polygonBoxes, pa * 6, b.polygonBoxes, pb * 6)) {
+                            marksA[pa] = true;
+                            marksB[pb] = true;
+                        }
+                    }
+                }
+            } else if (leafB || (!leafA
+                    && a.nodeEnd[nodeA] - a.nodeStart[nodeA] >= b.nodeEnd[nodeB] - b.nodeStart[nodeB])) {
+                // descend into the larger node
+                if (stackSize + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[stackSize++] = a.left[nodeA];
+                stack[stackSize++] = nodeB;
+                stack[stackSize++] = a.right[nodeA];
+                stack[stackSize++] = nodeB;
+            } else {
+                if (stackSize + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[stackSize++] = nodeA;
+                stack[stackSize++] = b.left[nodeB];
+                stack[stackSize++] = nodeA;
+                stack[stackSize++] = b.right[nodeB];
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the specified point lies inside the solid bounded by
+     * the polygons of this tree. The polygons must form a closed surface.
+     *
+     * Rays are cast from the point and the crossings are counted. If a ray
+     * hits an edge, a vertex or a polygon tangentially, the next ray direction
+     * is tried.
+     *
+     * @param point point to classify, must not lie on the surface
+     * @return {@code true} if the point is inside; {@code false} otherwise
+     */
+    boolean contains(Vector3d point) {
+        if (numNodes == 0) {
+            return false;
+        }
+
+        for (double[] dir : RAY_DIRECTIONS) {
+            int crossings = countCrossings(point.x, point.y, point.z, dir);
+            if (crossings >= 0) {
+                return (crossings & 1) == 1;
+            }
+        }
+
+        // every ray was ambiguous, fall back to a majority vote that ignores
+        // degenerate hits
+        int inside = 0;
+        int outside = 0;
+
+        for (double[] dir : RAY_DIRECTIONS) {
+            int crossings = countCrossingsLenient(point.x, point.y, point.z, dir);
+            if ((crossings & 1) == 1) {
+                inside++;
+            } else {
+                outside++;
+            }
+        }
+
+        return inside > outside;
+    }
+
+    /**
+     * Counts the polygons crossed by the specified ray.
+     *
+     * @return the number of crossings or {@code -1} if the ray hits the
+     * surface ambiguously
+     */
+    private int countCrossings(double px, double py, double pz, double[] dir) {
+        return traverse(px, py, pz, dir, false);
+    }
+
+    /**
+     * Counts the polygons crossed by the specified ray ignoring ambiguous
+     * hits.
+     */
+    private int countCrossingsLenient(double px, double py, double pz, double[] dir) {
+        return traverse(px, py, pz, dir, true);
+    }
+
+    /**
+     * Traverses the tree along the specified ray.
+     */
+    private int traverse(double px, double py, double pz, double[] dir, boolean lenient) {
+        double dx = dir[0];
+        double dy = dir[1];
+        double dz = dir[2];
+
+        double invX = 1.0 / dx;
+        double invY = 1.0 / dy;
+        double invZ = 1.0 / dz;
+
+        int crossings = 0;
+
+        int[] stack = new int[numNodes];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+
+            if (!rayHitsBox(nodeBoxes, node * 6, px, py, pz, invX, invY, invZ)) {
+                continue;
+            }
+
+            if (left[node] >= 0) {
+                stack[stackSize++] = left[node];
+                stack[stackSize++] = right[node];
+                continue;
+            }
+
+            for (int i = nodeStart[node]; i < nodeEnd[node]; i++) {
+                int hit = intersectRay(polygons.get(order[i]), px, py, pz, dx, dy, dz);
+                if (hit > 0) {
+                    crossings++;
+                } else if (hit < 0 && !lenient) {
+                    return -1;
+                }
+            }
+        }
+
+        return crossings;
+    }
+
+    /**
+     * Intersects a ray with a convex polygon.
+     *
+     * @return {@code 1} if the ray crosses the polygon, {@code 0} if it misses
+     * the polygon and {@code -1} if the hit is ambiguous
+     */
+    private static int intersectRay(Polygon p,
+            double px, double py, double pz,
+            double dx, double dy, double dz) {
+
+        Vector3d n = p.plane.normal;
+        double denom = n.x * dx + n.y * dy + n.z * dz;
+        double dist = p.plane.dist - (n.x * px + n.y * py + n.z * pz);
+
+        if (Math.abs(denom) < Plane.EPSILON) {
+            // parallel ray, ambiguous only if it runs within the plane
+            return Math.abs(dist) < Plane.EPSILON && pointInPolygonPlane(p, px, py, pz) ? -1 : 0;
+        }
+
+        double t = dist / denom;
+
+        if (t < -Plane.EPSILON) {
+            return 0;
+        }
+        if (t <= Plane.EPSILON) {
+            return -1;
+        }
+
+        double hx = px + dx * t;
+        double hy = py + dy * t;
+        double hz = pz + dz * t;
+
+        List<Vertex> vertices = p.vertices;
+        int size = vertices.size();
+        boolean onEdge = false;
+
+        for (int i = 0; i < size; i++) {
+            Vector3d a = vertices.get(i).pos;
+            Vector3d b = vertices.get((i + 1) % size).pos;
+
+            double ex = b.x - a.x;
+            double ey = b.y - a.y;
+            double ez = b.z - a.z;
+            double qx = hx - a.x;
+            double qy = hy - a.y;
+            double qz = hz - a.z;
+
+            // (e x q) . n
+            double side = (ey * qz - ez * qy) * n.x
+                    + (ez * qx - ex * qz) * n.y
+                    + (ex * qy - ey * qx) * n.z;
+
+            double length = Math.sqrt(ex * ex + ey * ey + ez * ez);
+
+            if (side < -Plane.EPSILON * length) {
+                return 0;
+            }
+            if (side <= Plane.EPSILON * length) {
+                onEdge = true;
+            }
+        }
+
+        return onEdge ? -1 : 1;
+    }
+
+    /**
+     * Indicates whether the projection of the specified point onto the plane
+     * of the polygon lies within the box of the polygon.
+     */
+    private static boolean pointInPolygonPlane(Polygon p, double px, double py, double pz) {
+        double[] box = new double[6];
+        computeBox(p, box, 0);
+        return px >= box[0] && px <= box[3]
+                && py >= box[1] && py <= box[4]
+                && pz >= box[2] && pz <= box[5];
+    }
+
+    /**
+     * Slab test of a ray against a box.
+     */
+    private static boolean rayHitsBox(double[] boxes, int offset,
+            double px, double py, double pz,
+            double invX, double invY, double invZ) {
+        double t1 = (boxes[offset] - px) * invX;
+        double t2 = (boxes[offset + 3] - px) * invX;
+        double tMin = Math.min(t1, t2);
+        double tMax = Math.max(t1, t2);
+
+        t1 = (boxes[offset + 1] - py) * invY;
+        t2 = (boxes[offset + 4] - py) * invY;
+        tMin = Math.max(tMin, Math.min(t1, t2));
+        tMax = Math.min(tMax, Math.max(t1, t2));
+
+        t1 = (boxes[offset + 2] - pz) * invZ;
+        t2 = (boxes[offset + 5] - pz) * invZ;
+        tMin = Math.max(tMin, Math.min(t1, t2));
+        tMax = Math.min(tMax, Math.max(t1, t2));
+
+        return tMax >= Math.max(tMin, 0);
+    }
+
+    /**
+     * Indicates whether two boxes intersect (check includes box boundary).
+     */
+    private static boolean overlaps(double[] a, int offsetA, double[] b, int offsetB) {
+        return a[offsetA] <= b[offsetB + 3] && b[offsetB] <= a[offsetA + 3]
+                && a[offsetA + 1] <= b[offsetB + 4] && b[offsetB + 1] <= a[offsetA + 4]
+                && a[offsetA + 2] <= b[offsetB + 5] && b[offsetB + 2] <= a[offsetA + 5];
+    }
+
+    /**
+     * Computes the box of a polygon enlarged by {@link Plane#EPSILON}.
+     */
+    private static void computeBox(Polygon p, double[] boxes, int offset) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double minZ = Double.POSITIVE_INFINITY;
+
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        double maxZ = Double.NEGATIVE_INFINITY;
+
+        for (Vertex v : p.vertices) {
+            minX = Math.min(minX, v.pos.x);
+            minY = Math.min(minY, v.pos.y);
+            minZ = Math.min(minZ, v.pos.z);
+            maxX = Math.max(maxX, v.pos.x);
+            maxY = Math.max(maxY, v.pos.y);
+            maxZ = Math.max(maxZ, v.pos.z);
+        }
+
+        boxes[offset] = minX - Plane.EPSILON;
+        boxes[offset + 1] = minY - Plane.EPSILON;
+        boxes[offset + 2] = minZ - Plane.EPSILON;
+        boxes[offset + 3] = maxX + Plane.EPSILON;
+        boxes[offset + 4] = maxY + Plane.EPSILON;
+        boxes[offset + 5] = maxZ + Plane.EPSILON;
+    }
+
+    /**
+     * Computes the box of a node from the boxes of its polygons.
+     */
+    private void computeNodeBox(int node, int start, int end) {
+        int offset = node * 6;
+        for (int a = 0; a < 3; a++) {
+            nodeBoxes[offset + a] = Double.POSITIVE_INFINITY;
+            nodeBoxes[offset + 3 + a] = Double.NEGATIVE_INFINITY;
+        }
+        for (int i = start; i < end; i++) {
+            int p = order[i] * 6;
+            for (int a = 0; a < 3; a++) {
+                nodeBoxes[offset + a] = Math.min(nodeBoxes[offset + a], polygonBoxes[p + a]);
+                nodeBoxes[offset + 3 + a] = Math.max(nodeBoxes[offset + 3 + a], polygonBoxes[p + 3 + a]);
+            }
+        }
+    }
+
+    /**
+     * Computes the extent of the polygon centers in the specified range.
+     */
+    private double[] centerExtent(double[] centers, int start, int end) {
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = start; i < end; i++) {
+            int c = order[i] * 3;
+            for (int a = 0; a < 3; a++) {
+                min[a] = Math.min(min[a], centers[c + a]);
+                max[a] = Math.max(max[a], centers[c + a]);
+            }
+        }
+        return new double[]{max[0] - min[0], max[1] - min[1], max[2] - min[2]};
+    }
+
+    /**
+     * Reorders {@link #order} in the range {@code [lo, hi]} such that the
+     * element at index {@code k} is the one that would be there if the range
+     * was sorted by the center coordinate along the specified axis
+     * (quickselect).
+     */
+    private void select(double[] centers, int axis, int lo, int hi, int k) {
+        while (hi > lo) {
+            double pivot = centers[order[(lo + hi) >>> 1] * 3 + axis];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (centers[order[i] * 3 + axis] < pivot) {
+                    i++;
+                }
+                while (centers[order[j] * 3 + axis] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Converts bounds to a box array enlarged by {@link Plane#EPSILON}.
+     */
+    private static double[] toArray(Bounds bounds) {
+        Vector3d min = bounds.getMin();
+        Vector3d max = bounds.getMax();
+        return new double[]{
+            min.x - Plane.EPSILON, min.y - Plane.EPSILON, min.z - Plane.EPSILON,
+            max.x + Plane.EPSILON, max.y + Plane.EPSILON, max.z + Plane.EPSILON};
+    }
+}
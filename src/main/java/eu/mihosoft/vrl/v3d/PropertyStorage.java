@@ -33,8 +33,10 @@
  */
 package eu.mihosoft.vrl.v3d;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.Optional;
 import javafx.scene.paint.Color;
 
@@ -110,6 +112,15 @@ public class PropertyStorage {
         return map.containsKey(key);
     }
 
+    /**
+     * Returns the properties of this storage.
+     *
+     * @return an unmodifiable view of the properties
+     */
+    Set<Map.Entry<String, Object>> entries() {
+        return Collections.unmodifiableMap(map).entrySet();
+    }
+
     /**
      * Random color.
      *
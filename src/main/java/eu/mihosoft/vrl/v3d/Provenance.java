@@ -0,0 +1,82 @@
+package eu.mihosoft.vrl.v3d;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Captures creation sites according to the configured {@link ProvenanceMode}.
+ */
+final class Provenance {
+
+	/** The mode used for csg objects. */
+	private static volatile ProvenanceMode csgMode = ProvenanceMode.LAZY;
+
+	/** The mode used for polygons. */
+	private static volatile ProvenanceMode polygonMode = ProvenanceMode.OFF;
+
+	/** Every n-th object is recorded in {@link ProvenanceMode#SAMPLED} mode. */
+	private static volatile int sampleRate = 100;
+
+	/** Counts the sampling candidates. */
+	private static final AtomicLong counter = new AtomicLong();
+
+	/**
+	 * Instantiates a new provenance.
+	 */
+	private Provenance() {
+		throw new AssertionError("Don't instantiate me!", null);
+	}
+
+	/**
+	 * Captures the current stack trace if the specified mode requests it.
+	 *
+	 * @param mode
+	 *            the mode
+	 * @return the captured trace or {@code null}
+	 */
+	static Exception capture(ProvenanceMode mode) {
+		switch (mode) {
+		case LAZY:
+			return new Exception();
+		case SAMPLED:
+			return counter.getAndIncrement() % sampleRate == 0 ? new Exception() : null;
+		default:
+			return null;
+		}
+	}
+
+	/** Gets the mode used for csg objects. */
+	static ProvenanceMode getCsgMode() {
+		return csgMode;
+	}
+
+	/** Sets the mode used for csg objects. */
+	static void setCsgMode(ProvenanceMode mode) {
+		if (mode == null)
+			throw new NullPointerException("The provenance mode must not be null");
+		csgMode = mode;
+	}
+
+	/** Gets the mode used for polygons. */
+	static ProvenanceMode getPolygonMode() {
+		return polygonMode;
+	}
+
+	/** Sets the mode used for polygons. */
+	static void setPolygonMode(ProvenanceMode mode) {
+		if (mode == null)
+			throw new NullPointerException("The provenance mode must not be null");
+		polygonMode = mode;
+	}
+
+	/** Gets the sample rate. */
+	static int getSampleRate() {
+		return sampleRate;
+	}
+
+	/** Sets the sample rate. */
+	static void setSampleRate(int rate) {
+		if (rate < 1)
+			throw new IllegalArgumentException("The sample rate must be positive: " + rate);
+		sampleRate = rate;
+	}
+}
@@ -0,0 +1,28 @@
+package eu.mihosoft.vrl.v3d;
+
+/**
+ * Defines how the creation site of {@link CSG} and {@link Polygon} objects is
+ * recorded.
+ *
+ * @see CSG#setProvenanceMode(ProvenanceMode)
+ * @see CSG#setPolygonProvenanceMode(ProvenanceMode)
+ */
+public enum ProvenanceMode {
+
+	/**
+	 * No creation site is recorded.
+	 */
+	OFF,
+
+	/**
+	 * The creation site of every n-th object is recorded, see
+	 * {@link CSG#setProvenanceSampleRate(int)}.
+	 */
+	SAMPLED,
+
+	/**
+	 * The creation site of every object is captured. Captured traces are only
+	 * resolved to source lines when they are requested.
+	 */
+	LAZY
+}
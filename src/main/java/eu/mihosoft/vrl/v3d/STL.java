@@ -42,11 +42,11 @@ import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
-import javax.vecmath.Point3f;
+import java.util.stream.IntStream;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -55,6 +55,9 @@ import javax.vecmath.Point3f;
  * @author Michael Hoffer &lt;info@michaelhoffer.de&gt;
  */
 public class STL {
+
+    /** The number of triangles created per task. */
+    private static final int CHUNK_SIZE = 8192;
 	
 	/**
 	 * Loads a CSG from stl.
@@ -79,18 +82,61 @@ public class STL {
      * @throws IOException if loading failed
      */
     public static CSG file(Path path) throws IOException {
+        return file(path, false);
+    }
+
+    /**
+     * Loads a CSG from stl.
+     *
+     * @param path file path
+     * @param parallel whether to create the polygons in parallel chunks on
+     * the {@link CSG#getClipPool() clip pool}
+     * @return CSG
+     * @throws IOException if loading failed
+     */
+    public static CSG file(Path path, boolean parallel) throws IOException {
         STLLoader loader = new STLLoader();
-        
-        List<Polygon> polygons = new ArrayList<>();
-        List<Vector3d> vertices = new ArrayList<>();
-        for(Point3f p :loader.parse(path.toFile())) {
-            vertices.add(new Vector3d(p.x, p.y, p.z));
-            if (vertices.size()==3) {
-                polygons.add(Polygon.fromPoints(vertices));
-                vertices = new ArrayList<>();
+        float[] coordinates = loader.parseCoordinates(path.toFile());
+
+        int triangles = coordinates.length / 9;
+        PropertyStorage storage = new PropertyStorage();
+        Polygon[] polygons = new Polygon[triangles];
+
+        int chunks = (triangles + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (parallel && chunks > 1) {
+            CSG.getClipPool().submit(() -> IntStream.range(0, chunks).parallel()
+                    .forEach(chunk -> createPolygons(coordinates, polygons, chunk, storage)))
+                    .join();
+        } else {
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                createPolygons(coordinates, polygons, chunk, storage);
+            }
+        }
+
+        return CSG.fromPolygons(storage, new ArrayList<>(Arrays.asList(polygons)));
+    }
+
+    /**
+     * Creates the triangles of the specified chunk.
+     *
+     * @param coordinates vertex coordinates, nine per triangle
+     * @param polygons the polygon array to fill
+     * @param chunk the chunk index
+     * @param storage shared property storage
+     */
+    private static void createPolygons(float[] coordinates, Polygon[] polygons,
+            int chunk, PropertyStorage storage) {
+        int end = Math.min(polygons.length, (chunk + 1) * CHUNK_SIZE);
+        for (int t = chunk * CHUNK_SIZE; t < end; t++) {
+            // like Polygon.fromPoints(), all vertices share one zero normal
+            Vector3d normal = new Vector3d(0, 0, 0);
+            List<Vertex> vertices = new ArrayList<>(3);
+            int c = t * 9;
+            for (int i = 0; i < 3; i++, c += 3) {
+                vertices.add(new Vertex(new Vector3d(
+                        coordinates[c], coordinates[c + 1], coordinates[c + 2]), normal));
             }
+            polygons[t] = new Polygon(vertices, storage);
         }
-        
-        return CSG.fromPolygons(new PropertyStorage(),polygons);
     }
 }
@@ -0,0 +1,191 @@
+package eu.mihosoft.vrl.v3d;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * Streams polygons and meshes in STL format. Binary facets are collected in
+ * a reusable direct buffer, ASCII facets in a small reusable string builder,
+ * so memory usage does not depend on the size of the exported geometry.
+ */
+final class StlWriter {
+
+    /** The size of the binary header (80 byte comment and triangle count). */
+    private static final int HEADER_SIZE = 84;
+
+    /** The size of a binary facet record. */
+    private static final int RECORD_SIZE = 50;
+
+    /** The number of characters that are buffered before they are written. */
+    private static final int ASCII_BUFFER_SIZE = 8192;
+
+    /** Per-thread direct buffer for binary records. */
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(
+            () -> ByteBuffer.allocateDirect(RECORD_SIZE * 1024).order(ByteOrder.LITTLE_ENDIAN));
+
+    /**
+     * Instantiates a new stl writer.
+     */
+    private StlWriter() {
+        throw new AssertionError("Don't instantiate me!", null);
+    }
+
+    /**
+     * Writes the specified polygons as binary STL. Polygons with more than
+     * three vertices are fan-triangulated.
+     *
+     * @param polygons the polygons
+     * @param channel the destination, it is not closed
+     * @throws IOException if writing fails
+     */
+    static void writeBinary(List<Polygon> polygons, WritableByteChannel channel) throws IOException {
+        long triangles = 0;
+        for (Polygon p : polygons) {
+            triangles += Math.max(0, p.vertices.size() - 2);
+        }
+
+        ByteBuffer buffer = header(triangles);
+        for (Polygon p : polygons) {
+            Vector3d n = p.plane.normal;
+            Vector3d a = p.vertices.get(0).pos;
+            for (int i = 1; i < p.vertices.size() - 1; i++) {
+                if (buffer.remaining() < RECORD_SIZE) {
+                    flush(buffer, channel);
+                }
+                Vector3d b = p.vertices.get(i).pos;
+                Vector3d c = p.vertices.get(i + 1).pos;
+                buffer.putFloat((float) n.x).putFloat((float) n.y).putFloat((float) n.z).
+                        putFloat((float) a.x).putFloat((float) a.y).putFloat((float) a.z).
+                        putFloat((float) b.x).putFloat((float) b.y).putFloat((float) b.z).
+                        putFloat((float) c.x).putFloat((float) c.y).putFloat((float) c.z).
+                        putShort((short) 0);
+            }
+        }
+        flush(buffer, channel);
+    }
+
+    /**
+     * Writes the specified mesh as binary STL. Faces with more than three
+     * vertices are fan-triangulated.
+     *
+     * @param mesh the mesh
+     * @param channel the destination, it is not closed
+     * @throws IOException if writing fails
+     */
+    static void writeBinary(IndexedMesh mesh, WritableByteChannel channel) throws IOException {
+        long triangles = 0;
+        for (int f = 0; f < mesh.getNumberOfFaces(); f++) {
+            triangles += Math.max(0, mesh.getFaceSize(f) - 2);
+        }
+
+        ByteBuffer buffer = header(triangles);
+        double[] positions = mesh.positions;
+        for (int f = 0; f < mesh.getNumberOfFaces(); f++) {
+            int start = mesh.faceOffsets[f];
+            int end = mesh.faceOffsets[f + 1];
+            int a = mesh.indices[start] * 3;
+            for (int i = start + 1; i < end - 1; i++) {
+                if (buffer.remaining() < RECORD_SIZE) {
+                    flush(buffer, channel);
+                }
+                int b = mesh.indices[i] * 3;
+                int c = mesh.indices[i + 1] * 3;
+                buffer.putFloat((float) mesh.planes[f * 4]).
+                        putFloat((float) mesh.planes[f * 4 + 1]).
+                        putFloat((float) mesh.planes[f * 4 + 2]).
+                        putFloat((float) positions[a]).putFloat((float) positions[a + 1]).
+                        putFloat((float) positions[a + 2]).
+                        putFloat((float) positions[b]).putFloat((float) positions[b + 1]).
+                        putFloat((float) positions[b + 2]).
+                        putFloat((float) positions[c]).putFloat((float) positions[c + 1]).
+                        putFloat((float) positions[c + 2]).
+                        putShort((short) 0);
+            }
+        }
+        flush(buffer, channel);
+    }
+
+    /**
+     * Writes the specified polygons as ASCII STL.
+     *
+     * @param polygons the polygons
+     * @param writer the destination, it is not closed
+     * @throws IOException if writing fails
+     */
+    static void writeAscii(List<Polygon> polygons, Writer writer) throws IOException {
+        StringBuilder sb = new StringBuilder(ASCII_BUFFER_SIZE + 1024);
+        sb.append("solid v3d.csg\n");
+        for (Polygon p : polygons) {
+            p.toStlString(sb);
+            if (sb.length() >= ASCII_BUFFER_SIZE) {
+                flush(sb, writer);
+            }
+        }
+        sb.append("endsolid v3d.csg\n");
+        flush(sb, writer);
+    }
+
+    /**
+     * Writes the specified mesh as ASCII STL.
+     *
+     * @param mesh the mesh
+     * @param writer the destination, it is not closed
+     * @throws IOException if writing fails
+     */
+    static void writeAscii(IndexedMesh mesh, Writer writer) throws IOException {
+        StringBuilder sb = new StringBuilder(ASCII_BUFFER_SIZE + 1024);
+        sb.append("solid v3d.csg\n");
+        for (int f = 0; f < mesh.getNumberOfFaces(); f++) {
+            mesh.toStlString(sb, f);
+            if (sb.length() >= ASCII_BUFFER_SIZE) {
+                flush(sb, writer);
+            }
+        }
+        sb.append("endsolid v3d.csg\n");
+        flush(sb, writer);
+    }
+
+    /**
+     * Returns the cleared buffer of the current thread containing the binary
+     * header.
+     *
+     * @param triangles the number of triangles
+     * @return the buffer
+     * @throws IOException if the number of triangles cannot be stored
+     */
+    private static ByteBuffer header(long triangles) throws IOException {
+        if (triangles > 0xffffffffL) {
+            throw new IOException("Too many triangles for binary STL: " + triangles);
+        }
+        ByteBuffer buffer = BUFFERS.get();
+        buffer.clear();
+        for (int i = 0; i < HEADER_SIZE - 4; i++) {
+            buffer.put((byte) ' ');
+        }
+        buffer.putInt((int) triangles);
+        return buffer;
+    }
+
+    /**
+     * Writes the content of the buffer and clears it.
+     */
+    private static void flush(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes the content of the string builder and clears it.
+     */
+    private static void flush(StringBuilder sb, Writer writer) throws IOException {
+        writer.append(sb);
+        sb.setLength(0);
+    }
+}
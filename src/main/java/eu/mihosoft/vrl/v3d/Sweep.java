@@ -0,0 +1,198 @@
+package eu.mihosoft.vrl.v3d;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import eu.mihosoft.vrl.v3d.ext.quickhull3d.HullUtil;
+
+/**
+ * Sweeps a sequence of sections, e.g., copies of a slice placed along a path,
+ * into convex segments.
+ *
+ * Each segment is the convex hull of two consecutive sections. It is computed
+ * directly from the vertices of both sections instead of from their union.
+ * The segments are computed in parallel on the {@link CSG#getClipPool() clip
+ * pool}.
+ *
+ * @see Extrude#revolve(CSG, double, double, int)
+ * @see Extrude#bezier(ArrayList, ArrayList, ArrayList, ArrayList)
+ */
+public final class Sweep {
+
+	private Sweep() {
+		throw new AssertionError("Don't instantiate me!", null);
+	}
+
+	/**
+	 * Returns the convex hulls of all pairs of consecutive sections.
+	 *
+	 * @param sections
+	 *            the sections, at least two
+	 * @return one segment per pair of consecutive sections, segment
+	 *         {@code i} spans section {@code i} and {@code i + 1}
+	 */
+	public static List<CSG> segments(List<CSG> sections) {
+		double[][] points = points(sections, false);
+		return CSG.getClipPool().submit(() -> IntStream.range(0, sections.size() - 1).parallel().mapToObj(i -> {
+			double[] coords = concat(points[i], points[i + 1]);
+			return HullUtil.hull(coords, coords.length / 3, storage(sections.get(i))).historySync(sections.get(i))
+					.historySync(sections.get(i + 1));
+		}).collect(Collectors.toList())).join();
+	}
+
+	/**
+	 * Returns the union of the convex hulls of all pairs of consecutive
+	 * sections.
+	 *
+	 * If all sections are planar, the segments are stitched together: the
+	 * faces each pair of neighbouring segments shares on their common section
+	 * are dropped and the remaining faces are combined into one mesh without
+	 * any boolean operation. This requires that neighbouring segments only
+	 * touch in their common section, i.e., the path must not turn sharper
+	 * than the extent of the sections. If the last section coincides with the
+	 * first, the sweep is closed into a ring. Otherwise, the segments are
+	 * unioned.
+	 *
+	 * @param sections
+	 *            the sections, at least two
+	 * @return the swept solid
+	 */
+	public static CSG solid(List<CSG> sections) {
+		for (CSG section : sections) {
+			if (!isPlanar(section)) {
+				List<CSG> segments = segments(sections);
+				return segments.get(0).union(segments.subList(1, segments.size()));
+			}
+		}
+
+		int n = sections.size();
+		double[][] points = points(sections, true);
+		int[] offsets = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			offsets[i + 1] = offsets[i] + points[i].length / 3;
+		}
+		boolean closed = n > 2 && coincide(points[0], points[n - 1]);
+		if (closed) {
+			// the last section is the first one
+			offsets[n - 1] = 0;
+		}
+
+		int[][] triangles = CSG.getClipPool().submit(() -> IntStream.range(0, n - 1).parallel().mapToObj(i -> {
+			int na = points[i].length / 3;
+			int[] local = HullUtil.hullTriangles(concat(points[i], points[i + 1]), na + points[i + 1].length / 3);
+			boolean dropStart = i > 0 || closed;
+			boolean dropEnd = i < n - 2 || closed;
+			int[] global = new int[local.length];
+			int count = 0;
+			for (int t = 0; t < local.length; t += 3) {
+				int onEnd = 0;
+				for (int k = 0; k < 3; k++) {
+					if (local[t + k] >= na) {
+						onEnd++;
+					}
+				}
+				// the section is planar, a face spanned by its vertices only
+				// lies in the section and is shared with the neighbour
+				if ((onEnd == 0 && dropStart) || (onEnd == 3 && dropEnd)) {
+					continue;
+				}
+				for (int k = 0; k < 3; k++) {
+					int p = local[t + k];
+					global[count++] = p < na ? offsets[i] + p : offsets[i + 1] + p - na;
+				}
+			}
+			int[] result = new int[count];
+			System.arraycopy(global, 0, result, 0, count);
+			return result;
+		}).toArray(int[][]::new)).join();
+
+		int total = 0;
+		for (int[] t : triangles) {
+			total += t.length;
+		}
+		int[] mesh = new int[total];
+		int pos = 0;
+		for (int[] t : triangles) {
+			System.arraycopy(t, 0, mesh, pos, t.length);
+			pos += t.length;
+		}
+		double[] coords = new double[offsets[n] * 3];
+		for (int i = 0; i < (closed ? n - 1 : n); i++) {
+			System.arraycopy(points[i], 0, coords, offsets[i] * 3, points[i].length);
+		}
+
+		CSG result = CSG.fromMesh(IndexedMesh.fromTriangles(coords, mesh, storage(sections.get(0))));
+		for (CSG section : sections) {
+			result.historySync(section);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the vertex coordinates of each section. Unless all vertices are
+	 * requested, solid sections are reduced to the vertices of their convex
+	 * hull.
+	 */
+	private static double[][] points(List<CSG> sections, boolean all) {
+		return CSG.getClipPool().submit(() -> sections.parallelStream().map(section -> {
+			List<Vector3d> vertices = all || isPlanar(section) ? Minkowski.vertices(section)
+					: Minkowski.hullVertices(section);
+			double[] coords = new double[vertices.size() * 3];
+			int i = 0;
+			for (Vector3d v : vertices) {
+				coords[i++] = v.x;
+				coords[i++] = v.y;
+				coords[i++] = v.z;
+			}
+			return coords;
+		}).toArray(double[][]::new)).join();
+	}
+
+	/**
+	 * Determines whether all vertices of the specified csg lie in one plane.
+	 */
+	static boolean isPlanar(CSG csg) {
+		List<Polygon> polygons = csg.getPolygons();
+		if (polygons.isEmpty()) {
+			return true;
+		}
+		Plane plane = polygons.get(0).plane;
+		for (Polygon p : polygons) {
+			for (Vertex v : p.vertices) {
+				if (Math.abs(plane.normal.dot(v.pos) - plane.dist) > Plane.EPSILON) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the storage of the polygons of the specified section.
+	 */
+	private static PropertyStorage storage(CSG section) {
+		List<Polygon> polygons = section.getPolygons();
+		return polygons.isEmpty() ? new PropertyStorage() : polygons.get(0).getStorage();
+	}
+
+	private static boolean coincide(double[] a, double[] b) {
+		if (a.length != b.length) {
+			return false;
+		}
+		for (int i = 0; i < a.length; i++) {
+			if (Math.abs(a[i] - b[i]) > Plane.EPSILON) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static double[] concat(double[] a, double[] b) {
+		double[] result = new double[a.length + b.length];
+		System.arraycopy(a, 0, result, 0, a.length);
+		System.arraycopy(b, 0, result, a.length, b.length);
+		return result;
+	}
+}
@@ -414,8 +414,14 @@ public class Vector3d {
         return acos(max(min(val, 1), -1)); // compensate rounding errors
     }
 
-    /* (non-Javadoc)
-     * @see java.lang.Object#hashCode()
+    /**
+     * Returns a hash code of the exact coordinates.
+     *
+     *  NOTE:  {@link #equals(java.lang.Object)} is tolerant, i.e., vectors
+     * that are equal may have different hash codes. Use {@link VertexIndex}
+     * to weld or deduplicate vectors.
+     *
+     * @return the hash code
      */
     @Override
     public int hashCode() {
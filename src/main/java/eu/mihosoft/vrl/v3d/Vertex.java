@@ -188,8 +188,14 @@ public class Vertex {
         this.weight = weight;
     }
 
-    /* (non-Javadoc)
-     * @see java.lang.Object#hashCode()
+    /**
+     * Returns a hash code of the exact coordinates.
+     *
+     *  NOTE:  {@link #equals(java.lang.Object)} is tolerant, i.e., vertices
+     * that are equal may have different hash codes. Use {@link VertexIndex}
+     * to weld or deduplicate vertices.
+     *
+     * @return the hash code
      */
     @Override
     public int hashCode() {
@@ -0,0 +1,222 @@
+package eu.mihosoft.vrl.v3d;
+
+import java.util.Arrays;
+
+/**
+ * Spatial hash that assigns ids to positions. Two positions receive the same
+ * id if each coordinate differs by at most the tolerance, i.e., if they are
+ * equal according to {@link Vector3d#equals(java.lang.Object)} for the
+ * default tolerance {@link Plane#EPSILON}.
+ *
+ * Positions are hashed to cubic cells whose edge length is a multiple of
+ * the tolerance. A lookup only probes the cells that intersect the tolerance
+ * box of the position, usually one, at most eight. Cells are stored in an
+ * open-addressing table of primitive keys and the ids of a cell form a
+ * linked list in a primitive array, i.e., lookups do not allocate objects.
+ * Ids are assigned in insertion order; if several stored positions match,
+ * the smallest id is returned.
+ *
+ * Note that {@link Vector3d#hashCode()} is not consistent with the tolerance
+ * of {@link Vector3d#equals(java.lang.Object)}. Use this index instead of
+ * hash based collections to weld or deduplicate positions.
+ */
+public final class VertexIndex {
+
+    /**
+     * The tolerance.
+     */
+    private final double tolerance;
+    /**
+     * The cell size.
+     */
+    private final double cellSize;
+    /**
+     * Stored positions (x, y, z per id).
+     */
+    private double[] positions = new double[3 * 64];
+    /**
+     * Number of ids.
+     */
+    private int size;
+    /**
+     * Most recently added id per cell.
+     */
+    private final LongIntMap cells = new LongIntMap(64);
+    /**
+     * Next id in the same cell per id, {@code -1} terminates the list.
+     */
+    private int[] nextInCell = new int[64];
+
+    /**
+     * Constructor. Creates an index with tolerance {@link Plane#EPSILON}.
+     */
+    public VertexIndex() {
+        this(Plane.EPSILON);
+    }
+
+    /**
+     * Constructor. Creates an index with the specified tolerance.
+     *
+     * @param tolerance the maximum coordinate difference of positions that
+     * share an id, must be positive
+     */
+    public VertexIndex(double tolerance) {
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException(
+                    "Tolerance must be positive: " + tolerance);
+        }
+        this.tolerance = tolerance;
+        this.cellSize = 4 * tolerance;
+    }
+
+    /**
+     * Returns the id of the specified position. A new id is assigned if no
+     * matching position has been added before.
+     *
+     * @param p position
+     * @return the id of the position
+     */
+    public int add(Vector3d p) {
+        return add(p.x, p.y, p.z);
+    }
+
+    /**
+     * Returns the id of the position of the specified vertex. A new id is
+     * assigned if no matching position has been added before.
+     *
+     * @param v vertex
+     * @return the id of the vertex position
+     */
+    public int add(Vertex v) {
+        return add(v.pos.x, v.pos.y, v.pos.z);
+    }
+
+    /**
+     * Returns the id of the specified position. A new id is assigned if no
+     * matching position has been added before.
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param z z coordinate
+     * @return the id of the position
+     */
+    public int add(double x, double y, double z) {
+        int id = find(x, y, z);
+        if (id >= 0) {
+            return id;
+        }
+
+        id = size++;
+        if (positions.length < size * 3) {
+            positions = Arrays.copyOf(positions, positions.length * 2);
+            nextInCell = Arrays.copyOf(nextInCell, nextInCell.length * 2);
+        }
+        positions[id * 3] = x;
+        positions[id * 3 + 1] = y;
+        positions[id * 3 + 2] = z;
+
+        nextInCell[id] = cells.put(cellKey(cell(x), cell(y), cell(z)), id);
+        return id;
+    }
+
+    /**
+     * Returns the id of the specified position.
+     *
+     * @param p position
+     * @return the id of the position or {@code -1} if no matching position
+     * has been added
+     */
+    public int find(Vector3d p) {
+        return find(p.x, p.y, p.z);
+    }
+
+    /**
+     * Returns the id of the specified position.
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param z z coordinate
+     * @return the id of the position or {@code -1} if no matching position
+     * has been added
+     */
+    public int find(double x, double y, double z) {
+        long minX = cell(x - tolerance);
+        long maxX = cell(x + tolerance);
+        long minY = cell(y - tolerance);
+        long maxY = cell(y + tolerance);
+        long minZ = cell(z - tolerance);
+        long maxZ = cell(z + tolerance);
+
+        int result = -1;
+        for (long cx = minX; cx <= maxX; cx++) {
+            for (long cy = minY; cy <= maxY; cy++) {
+                for (long cz = minZ; cz <= maxZ; cz++) {
+                    for (int id = cells.get(cellKey(cx, cy, cz)); id >= 0; id = nextInCell[id]) {
+                        if ((result < 0 || id < result) && matches(id, x, y, z)) {
+                            result = id;
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the position with the specified id, i.e., the first position
+     * that was added with this id.
+     *
+     * @param id id
+     * @return the position
+     */
+    public Vector3d get(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Id: " + id + ", size: " + size);
+        }
+        return new Vector3d(positions[id * 3], positions[id * 3 + 1], positions[id * 3 + 2]);
+    }
+
+    /**
+     * Returns the number of ids.
+     *
+     * @return the number of ids
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the tolerance of this index.
+     *
+     * @return the tolerance
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Determines whether the position with the specified id matches the
+     * specified coordinates.
+     */
+    private boolean matches(int id, double x, double y, double z) {
+        return Math.abs(positions[id * 3] - x) <= tolerance
+                && Math.abs(positions[id * 3 + 1] - y) <= tolerance
+                && Math.abs(positions[id * 3 + 2] - z) <= tolerance;
+    }
+
+    /**
+     * Returns the cell coordinate of the specified value.
+     */
+    private long cell(double v) {
+        return (long) Math.floor(v / cellSize);
+    }
+
+    /**
+     * Packs the cell coordinates into a key. Distinct cells may share a key;
+     * this only merges their buckets since candidates are always compared
+     * by position.
+     */
+    private static long cellKey(long x, long y, long z) {
+        return ((x & 0x1fffff) << 42) | ((y & 0x1fffff) << 21) | (z & 0x1fffff);
+    }
+}
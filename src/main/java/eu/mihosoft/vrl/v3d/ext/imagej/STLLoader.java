@@ -9,15 +9,17 @@ package eu.mihosoft.vrl.v3d.ext.imagej;
  * TODO: license unclear
  */
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.text.DecimalFormat;
-import java.text.ParseException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import javax.vecmath.Point3f;
 
@@ -27,50 +29,20 @@ import javax.vecmath.Point3f;
  */
 public class STLLoader {
 
-//        /**
-//         * Load the specified stl file and returns the result as a hash map, mapping
-//         * the object names to the corresponding <code>CustomMesh</code> objects.
-//         */
-//        public static Map<String, CustomMesh> load(String stlfile)
-//                        throws IOException {
-//                STLLoader sl = new STLLoader();
-//                try {
-//                        sl.parse(stlfile);
-//                } catch (RuntimeException e) {
-//                        System.out.println("error reading " + sl.name);
-//                        throw e;
-//                }
-//                return sl.meshes;
-//        }
-//
-/**
- * Instantiates a new STL loader.
- */
-//        private HashMap<String, CustomMesh> meshes;
-    public STLLoader() {
-    }
+    /** The size of the binary header (80 byte comment and triangle count). */
+    private static final int HEADER_SIZE = 84;
 
-    /** The line. */
-    String line;
-    
-    /** The in. */
-    BufferedReader in;
-
-    /** The vertices. */
-    // attributes of the currently read mesh
-    private ArrayList<Point3f> vertices = new ArrayList<>();
-    
-    /** The normal. */
-    private Point3f normal = new Point3f(0.0f, 0.0f, 0.0f); //to be used for file checking
-    
-    /** The fis. */
-    private FileInputStream fis;
-    
-    /** The triangles. */
-    private int triangles;
-//    private DecimalFormat decimalFormat = new DecimalFormat("0.0E0");
+    /** The size of a binary triangle record. */
+    private static final int RECORD_SIZE = 50;
 
+    /** The number of triangles that are mapped at once. */
+    private static final int TRIANGLES_PER_MAPPING = Integer.MAX_VALUE / RECORD_SIZE;
 
+    /**
+     * Instantiates a new STL loader.
+     */
+    public STLLoader() {
+    }
 
     /**
  * Parses the.
@@ -80,146 +52,215 @@ public class STLLoader {
  * @throws IOException Signals that an I/O exception has occurred.
  */
 public ArrayList<Point3f> parse(File f) throws IOException {
-        vertices.clear();
-
-                // determine if this is a binary or ASCII STL
-        // and send to the appropriate parsing method
-        // Hypothesis 1: this is an ASCII STL
-        BufferedReader br = new BufferedReader(new FileReader(f));
-        String line = br.readLine();
-        String[] words = line.trim().split("\\s+");
-        if (line.indexOf('\0') < 0 && words[0].equalsIgnoreCase("solid")) {
-            System.out.println("Looks like an ASCII STL");
-            parseAscii(f);
-            return vertices;
-        }
-
-        // Hypothesis 2: this is a binary STL
-        FileInputStream fs = new FileInputStream(f);
-
-                // bytes 80, 81, 82 and 83 form a little-endian int
-        // that contains the number of triangles
-        byte[] buffer = new byte[84];
-        fs.read(buffer, 0, 84);
-        triangles = (int) (((buffer[83] & 0xff) << 24)
-                | ((buffer[82] & 0xff) << 16) | ((buffer[81] & 0xff) << 8) | (buffer[80] & 0xff));
-        if (((f.length() - 84) / 50) == triangles) {
-            System.out.println("Looks like a binary STL");
-            parseBinary(f);
-            return vertices;
+        float[] coordinates = parseCoordinates(f);
+        ArrayList<Point3f> vertices = new ArrayList<>(coordinates.length / 3);
+        for (int i = 0; i < coordinates.length; i += 3) {
+            vertices.add(new Point3f(coordinates[i], coordinates[i + 1], coordinates[i + 2]));
         }
-        System.err.println("File is not a valid STL");
-        
         return vertices;
     }
 
     /**
-     * Parses the ascii.
+     * Parses the specified file into a flat coordinate array. Each triangle
+     * occupies nine consecutive entries (x, y and z of its three vertices).
+     * Facet normals are ignored.
      *
-     * @param f the f
+     * @param f the file
+     * @return the vertex coordinates
+     * @throws IOException Signals that an I/O exception has occurred.
      */
-    private void parseAscii(File f) {
-        try {
-            in = new BufferedReader(new FileReader(f));
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
-        vertices = new ArrayList<>();
-        try {
-            while ((line = in.readLine()) != null) {
-                String[] numbers = line.trim().split("\\s+");
-                if (numbers[0].equals("vertex")) {
-                    float x = parseFloat(numbers[1]);
-                    float y = parseFloat(numbers[2]);
-                    float z = parseFloat(numbers[3]);
-                    Point3f vertex = new Point3f(x, y, z);
-                    vertices.add(vertex);
-                } else if (numbers[0].equals("facet") && numbers[1].equals("normal")) {
-                    normal.x = parseFloat(numbers[2]);
-                    normal.y = parseFloat(numbers[3]);
-                    normal.z = parseFloat(numbers[4]);
+    public float[] parseCoordinates(File f) throws IOException {
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            // a binary STL consists of the header and one 50 byte record
+            // per triangle, the size check also detects binary files whose
+            // header starts with "solid", some exporters pad the records
+            long size = channel.size();
+            if (size >= HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+                channel.read(header, HEADER_SIZE - 4);
+                long triangles = header.getInt(0) & 0xffffffffL;
+                if (size >= HEADER_SIZE + triangles * RECORD_SIZE
+                        && (size - HEADER_SIZE) / RECORD_SIZE == triangles) {
+                    return parseBinary(channel, triangles);
                 }
             }
-            in.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (ParseException e) {
-            e.printStackTrace();
         }
+        return parseAscii(f);
     }
 
     /**
-     * Parses the binary.
+     * Parses the ascii.
      *
      * @param f the f
+     * @return the vertex coordinates
+     * @throws IOException Signals that an I/O exception has occurred.
      */
-    private void parseBinary(File f) {
-        vertices = new ArrayList<Point3f>();
-        try {
-            fis = new FileInputStream(f);
-            for (int h = 0; h < 84; h++) {
-                fis.read();// skip the header bytes
+    private float[] parseAscii(File f) throws IOException {
+        try (InputStream in = Files.newInputStream(f.toPath())) {
+            Tokenizer tokenizer = new Tokenizer(in);
+            if (!tokenizer.next() || !tokenizer.is("solid")) {
+                System.err.println("File is not a valid STL");
+                return new float[0];
             }
-            for (int t = 0; t < triangles; t++) {
-                byte[] tri = new byte[50];
-                for (int tb = 0; tb < 50; tb++) {
-                    tri[tb] = (byte) fis.read();
-                }
-                normal.x = leBytesToFloat(tri[0], tri[1], tri[2], tri[3]);
-                normal.y = leBytesToFloat(tri[4], tri[5], tri[6], tri[7]);
-                normal.z = leBytesToFloat(tri[8], tri[9], tri[10], tri[11]);
-                for (int i = 0; i < 3; i++) {
-                    final int j = i * 12 + 12;
-                    float px = leBytesToFloat(tri[j], tri[j + 1], tri[j + 2],
-                            tri[j + 3]);
-                    float py = leBytesToFloat(tri[j + 4], tri[j + 5],
-                            tri[j + 6], tri[j + 7]);
-                    float pz = leBytesToFloat(tri[j + 8], tri[j + 9],
-                            tri[j + 10], tri[j + 11]);
-                    Point3f p = new Point3f(px, py, pz);
-                    vertices.add(p);
+            float[] coordinates = new float[9 * 1024];
+            int count = 0;
+            while (tokenizer.next()) {
+                if (tokenizer.is("vertex")) {
+                    if (count + 3 > coordinates.length) {
+                        coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+                    }
+                    for (int i = 0; i < 3; i++) {
+                        if (!tokenizer.next()) {
+                            throw new IOException("Unexpected end of file in " + f);
+                        }
+                        coordinates[count++] = tokenizer.toFloat();
+                    }
                 }
             }
-            fis.close();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+            return Arrays.copyOf(coordinates, count - count % 9);
         }
     }
 
-//    private float parseFloat(String string) throws ParseException {
-//        //E+05 -> E05, e+05 -> E05
-//        string = string.replaceFirst("[eE]\\+", "E");
-//        //E-05 -> E-05, e-05 -> E-05
-//        string = string.replaceFirst("e\\-", "E-");
-//        return decimalFormat.parse(string).floatValue();
-//    }
-    
     /**
- * Parses the float.
- *
- * @param string the string
- * @return the float
- * @throws ParseException the parse exception
- */
-private float parseFloat(String string) throws ParseException {
-
-        return Float.parseFloat(string);
+     * Parses the binary.
+     *
+     * @param channel the channel
+     * @param triangles the number of triangles
+     * @return the vertex coordinates
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private float[] parseBinary(FileChannel channel, long triangles) throws IOException {
+        if (triangles > Integer.MAX_VALUE / 9) {
+            throw new IOException("Too many triangles: " + triangles);
+        }
+        float[] coordinates = new float[(int) triangles * 9];
+        int c = 0;
+        long position = HEADER_SIZE;
+        long remaining = triangles;
+        while (remaining > 0) {
+            int count = (int) Math.min(TRIANGLES_PER_MAPPING, remaining);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    position, (long) count * RECORD_SIZE);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            for (int t = 0; t < count; t++) {
+                // skip the normal (12 bytes), read three vertices
+                int record = t * RECORD_SIZE + 12;
+                for (int i = 0; i < 9; i++) {
+                    coordinates[c++] = buffer.getFloat(record + i * 4);
+                }
+            }
+            position += (long) count * RECORD_SIZE;
+            remaining -= count;
+        }
+        return coordinates;
     }
 
     /**
-     * Le bytes to float.
-     *
-     * @param b0 the b0
-     * @param b1 the b1
-     * @param b2 the b2
-     * @param b3 the b3
-     * @return the float
+     * Splits a stream into whitespace separated tokens without creating
+     * intermediate strings for lines or keywords.
      */
-    private float leBytesToFloat(byte b0, byte b1, byte b2, byte b3) {
-        return Float.intBitsToFloat((((b3 & 0xff) << 24) | ((b2 & 0xff) << 16)
-                | ((b1 & 0xff) << 8) | (b0 & 0xff)));
+    private static final class Tokenizer {
+
+        /** The in. */
+        private final InputStream in;
+
+        /** The read buffer. */
+        private final byte[] buffer = new byte[1 << 16];
+
+        /** The position in the read buffer. */
+        private int position;
+
+        /** The number of valid bytes in the read buffer. */
+        private int limit;
+
+        /** The current token. */
+        private char[] token = new char[64];
+
+        /** The length of the current token. */
+        private int length;
+
+        /**
+         * Instantiates a new tokenizer.
+         *
+         * @param in the in
+         */
+        Tokenizer(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads the next byte.
+         *
+         * @return the byte or -1 at the end of the stream
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private int read() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        /**
+         * Advances to the next token.
+         *
+         * @return {@code true} if a token was read; {@code false} at the end
+         *         of the stream
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        boolean next() throws IOException {
+            int b;
+            do {
+                b = read();
+            } while (b == ' ' || b == '\t' || b == '\n' || b == '\r');
+            length = 0;
+            while (b != -1 && b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                if (length == token.length) {
+                    token = Arrays.copyOf(token, length * 2);
+                }
+                token[length++] = (char) b;
+                b = read();
+            }
+            return length > 0;
+        }
+
+        /**
+         * Compares the current token with the specified keyword.
+         *
+         * @param keyword the keyword
+         * @return {@code true} if the token equals the keyword, ignoring case
+         */
+        boolean is(String keyword) {
+            if (length != keyword.length()) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (Character.toLowerCase(token[i]) != keyword.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Parses the current token as float.
+         *
+         * @return the float
+         * @throws IOException if the token is not a number
+         */
+        float toFloat() throws IOException {
+            String s = new String(token, 0, length);
+            try {
+                return Float.parseFloat(s);
+            } catch (NumberFormatException ex) {
+                throw new IOException("Invalid number: " + s, ex);
+            }
+        }
     }
 
 }
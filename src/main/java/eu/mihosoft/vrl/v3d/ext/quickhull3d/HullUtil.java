@@ -6,10 +6,13 @@
 package eu.mihosoft.vrl.v3d.ext.quickhull3d;
 
 import eu.mihosoft.vrl.v3d.CSG;
+import eu.mihosoft.vrl.v3d.IndexedMesh;
 import eu.mihosoft.vrl.v3d.Polygon;
 import eu.mihosoft.vrl.v3d.PropertyStorage;
-import java.util.ArrayList;
+import eu.mihosoft.vrl.v3d.Vertex;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.IntStream;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -25,6 +28,21 @@ public class HullUtil {
     private HullUtil() {
         throw new AssertionError("Don't instantiate me!", null);
     }
+
+    /**
+     * Number of points above which the extreme point cull runs in parallel.
+     */
+    private static final int PARALLEL_THRESHOLD = 10000;
+
+    /**
+     * Directions of the extreme points that span the culling polytope: the
+     * axes and the diagonals of the octants.
+     */
+    private static final double[][] DIRECTIONS = {
+        {1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1},
+        {1, 1, 1}, {1, 1, -1}, {1, -1, 1}, {1, -1, -1},
+        {-1, 1, 1}, {-1, 1, -1}, {-1, -1, 1}, {-1, -1, -1}};
+
     /**
      * Hull.
      *
@@ -44,45 +62,224 @@ public class HullUtil {
      */
     public static CSG hull(List<eu.mihosoft.vrl.v3d.Vector3d> points, PropertyStorage storage) {
 
-        Point3d[] hullPoints = points.stream().map((vec) -> new Point3d(vec.x, vec.y, vec.z)).toArray(Point3d[]::new);
+        double[] coords = new double[points.size() * 3];
+        int i = 0;
+        for (eu.mihosoft.vrl.v3d.Vector3d p : points) {
+            coords[i++] = p.x;
+            coords[i++] = p.y;
+            coords[i++] = p.z;
+        }
 
-        QuickHull3D hull = new QuickHull3D();
-        hull.build(hullPoints);
-        hull.triangulate();
+        return hull(coords, points.size(), storage);
+    }
 
-        int[][] faces = hull.getFaces();
+    /**
+     * Hull.
+     *
+     * @param csg the csg
+     * @param storage the storage
+     * @return the csg
+     */
+    public static CSG hull(CSG csg, PropertyStorage storage) {
 
-        List<Polygon> polygons = new ArrayList<>();
+        List<Polygon> polygons = csg.getPolygons();
+        int nump = 0;
+        for (Polygon p : polygons) {
+            nump += p.vertices.size();
+        }
 
-        List<eu.mihosoft.vrl.v3d.Vector3d> vertices = new ArrayList<>();
+        double[] coords = new double[nump * 3];
+        int i = 0;
+        for (Polygon p : polygons) {
+            for (Vertex v : p.vertices) {
+                coords[i++] = v.pos.x;
+                coords[i++] = v.pos.y;
+                coords[i++] = v.pos.z;
+            }
+        }
 
-        for (int[] verts : faces) {
+        return hull(coords, nump, storage);
+    }
 
-            for (int i : verts) {
-                vertices.add(points.get(hull.getVertexPointIndices()[i]));
-            }
+    /**
+     * Computes the convex hull of the specified points. The polygons of the
+     * returned csg are created when they are accessed for the first time.
+     *
+     * @param coords x, y, z per point
+     * @param nump number of points
+     * @param storage the storage of the hull polygons
+     * @return the hull, made of triangles
+     * @see #hullTriangles(double[], int)
+     */
+    public static CSG hull(double[] coords, int nump, PropertyStorage storage) {
+        return CSG.fromMesh(IndexedMesh.fromTriangles(coords, hullTriangles(coords, nump), storage));
+    }
 
-            polygons.add(Polygon.fromPoints(vertices, storage));
+    /**
+     * Computes the convex hull of the specified points without creating an
+     * object per point, e.g., for scanned point clouds. Points that lie
+     * strictly inside the polytope spanned by the extreme points along the
+     * axes and the octant diagonals cannot be hull vertices; they are
+     * dropped (in parallel for large inputs) before the hull is built.
+     *
+     * @param coords x, y, z per point
+     * @param nump number of points
+     * @return indices of the input points, three per triangle, counter-clockwise
+     * when seen from outside
+     * @throws IllegalArgumentException if there are less than four points or
+     * the points are coincident, colinear, or coplanar
+     */
+    public static int[] hullTriangles(double[] coords, int nump) {
+        if (coords.length / 3 < nump) {
+            throw new IllegalArgumentException(
+                    "Coordinate array too small for specified number of points");
+        }
 
-            vertices.clear();
+        int[] candidates = cull(coords, nump);
+        double[] hullCoords = coords;
+        if (candidates != null) {
+            hullCoords = new double[candidates.length * 3];
+            for (int i = 0; i < candidates.length; i++) {
+                System.arraycopy(coords, candidates[i] * 3, hullCoords, i * 3, 3);
+            }
         }
 
-        return CSG.fromPolygons(polygons);
+        QuickHull3D hull = new QuickHull3D();
+        hull.build(hullCoords, candidates == null ? nump : candidates.length);
+        hull.triangulate();
+
+        int[][] faces = hull.getFaces(QuickHull3D.POINT_RELATIVE);
+        int numTriangles = 0;
+        for (int[] face : faces) {
+            numTriangles += face.length - 2;
+        }
+        int[] triangles = new int[numTriangles * 3];
+        int t = 0;
+        for (int[] face : faces) {
+            // faces are triangles after triangulate(), fan them regardless
+            for (int k = 1; k + 1 < face.length; k++) {
+                triangles[t++] = face[0];
+                triangles[t++] = face[k];
+                triangles[t++] = face[k + 1];
+            }
+        }
+        if (candidates != null) {
+            for (int i = 0; i < triangles.length; i++) {
+                triangles[i] = candidates[triangles[i]];
+            }
+        }
+        return triangles;
     }
 
     /**
-     * Hull.
-     *
-     * @param csg the csg
-     * @param storage the storage
-     * @return the csg
+     * Returns the indices of the points that may be hull vertices, or
+     * {@code null} if no point can be dropped.
      */
-    public static CSG hull(CSG csg, PropertyStorage storage) {
+    private static int[] cull(double[] coords, int nump) {
+        if (nump <= DIRECTIONS.length * 2) {
+            return null;
+        }
 
-        List<eu.mihosoft.vrl.v3d.Vector3d> points = new ArrayList<>(csg.getPolygons().size() * 3);
+        int chunkSize = Math.max(PARALLEL_THRESHOLD, nump / (4 * Runtime.getRuntime().availableProcessors()) + 1);
+        int numChunks = (nump + chunkSize - 1) / chunkSize;
+        IntStream chunks = IntStream.range(0, numChunks);
+        if (numChunks > 1) {
+            chunks = chunks.parallel();
+        }
+        int[] extremes = chunks.mapToObj(chunk -> {
+            int[] best = new int[DIRECTIONS.length];
+            double[] bestValue = new double[DIRECTIONS.length];
+            Arrays.fill(bestValue, Double.NEGATIVE_INFINITY);
+            int end = Math.min(nump, (chunk + 1) * chunkSize);
+            for (int i = chunk * chunkSize; i < end; i++) {
+                double x = coords[i * 3];
+                double y = coords[i * 3 + 1];
+                double z = coords[i * 3 + 2];
+                for (int d = 0; d < DIRECTIONS.length; d++) {
+                    double value = DIRECTIONS[d][0] * x + DIRECTIONS[d][1] * y + DIRECTIONS[d][2] * z;
+                    if (value > bestValue[d]) {
+                        bestValue[d] = value;
+                        best[d] = i;
+                    }
+                }
+            }
+            return best;
+        }).reduce((a, b) -> {
+            int[] merged = new int[DIRECTIONS.length];
+            for (int d = 0; d < DIRECTIONS.length; d++) {
+                merged[d] = dot(coords, b[d], DIRECTIONS[d]) > dot(coords, a[d], DIRECTIONS[d]) ? b[d] : a[d];
+            }
+            return merged;
+        }).get();
+
+        int[] unique = IntStream.of(extremes).distinct().toArray();
+        if (unique.length < 4) {
+            return null;
+        }
+        double[] polytopeCoords = new double[unique.length * 3];
+        double scale = 0;
+        for (int i = 0; i < unique.length; i++) {
+            System.arraycopy(coords, unique[i] * 3, polytopeCoords, i * 3, 3);
+            for (int a = 0; a < 3; a++) {
+                scale = Math.max(scale, Math.abs(polytopeCoords[i * 3 + a]));
+            }
+        }
 
-        csg.getPolygons().forEach((p) -> p.vertices.forEach((v) -> points.add(v.pos)));
+        QuickHull3D polytope = new QuickHull3D();
+        try {
+            polytope.build(polytopeCoords, unique.length);
+        } catch (IllegalArgumentException ex) {
+            // flat polytope, it has no interior
+            return null;
+        }
+
+        int[][] faces = polytope.getFaces(QuickHull3D.POINT_RELATIVE);
+        double[] planes = new double[faces.length * 4];
+        for (int f = 0; f < faces.length; f++) {
+            int a = faces[f][0] * 3;
+            int b = faces[f][1] * 3;
+            int c = faces[f][2] * 3;
+            double ux = polytopeCoords[b] - polytopeCoords[a];
+            double uy = polytopeCoords[b + 1] - polytopeCoords[a + 1];
+            double uz = polytopeCoords[b + 2] - polytopeCoords[a + 2];
+            double vx = polytopeCoords[c] - polytopeCoords[a];
+            double vy = polytopeCoords[c + 1] - polytopeCoords[a + 1];
+            double vz = polytopeCoords[c + 2] - polytopeCoords[a + 2];
+            double nx = uy * vz - uz * vy;
+            double ny = uz * vx - ux * vz;
+            double nz = ux * vy - uy * vx;
+            double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            planes[f * 4] = nx / length;
+            planes[f * 4 + 1] = ny / length;
+            planes[f * 4 + 2] = nz / length;
+            planes[f * 4 + 3] = (nx * polytopeCoords[a] + ny * polytopeCoords[a + 1]
+                    + nz * polytopeCoords[a + 2]) / length;
+        }
+
+        // points closer to the polytope boundary are kept, they may be hull
+        // vertices within the precision of the hull computation
+        double margin = 1e-9 * Math.max(1, scale);
+        IntStream points = IntStream.range(0, nump);
+        if (nump >= PARALLEL_THRESHOLD) {
+            points = points.parallel();
+        }
+        int[] candidates = points.filter(i -> {
+            double x = coords[i * 3];
+            double y = coords[i * 3 + 1];
+            double z = coords[i * 3 + 2];
+            for (int f = 0; f < planes.length; f += 4) {
+                if (planes[f] * x + planes[f + 1] * y + planes[f + 2] * z - planes[f + 3] > -margin) {
+                    return true;
+                }
+            }
+            return false;
+        }).toArray();
+
+        return candidates.length < nump && candidates.length >= 4 ? candidates : null;
+    }
 
-        return hull(points, storage);
+    private static double dot(double[] coords, int i, double[] direction) {
+        return direction[0] * coords[i * 3] + direction[1] * coords[i * 3 + 1]
+                + direction[2] * coords[i * 3 + 2];
     }
 }
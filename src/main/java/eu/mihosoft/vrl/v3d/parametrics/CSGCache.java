@@ -1,19 +1,456 @@
 package eu.mihosoft.vrl.v3d.parametrics;
 
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.vecmath.Matrix4d;
 
 import eu.mihosoft.vrl.v3d.CSG;
 import eu.mihosoft.vrl.v3d.ItoCSG;
+import eu.mihosoft.vrl.v3d.Polygon;
+import eu.mihosoft.vrl.v3d.Transform;
+import eu.mihosoft.vrl.v3d.Vertex;
 
+/**
+ * Bounded, thread-safe memoization cache for the results of CSG operations.
+ *
+ * Entries are keyed by the operation and a structural fingerprint of its
+ * operands, i.e., two operands with identical polygons hit the same entry
+ * even if they are different instances. The cache is split into
+ * independently locked segments. Once the polygons of all entries exceed the
+ * weight limit, the least recently used entries of all segments are evicted.
+ *
+ * An optional {@link CSGDiskCache} serves as second tier: results that are
+ * not held in memory are looked up on disk before they are computed, and
+ * computed results are written to disk.
+ *
+ * Cached results are shared between callers and must not be modified.
+ * Concurrent misses for the same key may compute the result more than once;
+ * the first result stored wins.
+ */
 public class CSGCache {
-	private HashMap<String , CSG> chache = new HashMap<>();
-	
-	CSG get(String key, ItoCSG builder){
-		if(chache.get(key) == null){
-			chache.put(key, builder.toCSG());
+
+	/**
+	 * Default maximum number of polygons held by a cache.
+	 */
+	public static final long DEFAULT_MAX_WEIGHT = 1_000_000;
+
+	private static final int SEGMENTS = 16;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final long maxWeight;
+	private final AtomicLong weight = new AtomicLong();
+	/** Source of the access times of the entries. */
+	private final AtomicLong clock = new AtomicLong();
+	private final Object evictionLock = new Object();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	private volatile CSGDiskCache diskCache;
+
+	/**
+	 * Creates a cache that holds up to {@link #DEFAULT_MAX_WEIGHT} polygons.
+	 */
+	public CSGCache() {
+		this(DEFAULT_MAX_WEIGHT);
+	}
+
+	/**
+	 * Creates a cache that holds up to the specified number of polygons.
+	 *
+	 * @param maxWeight
+	 *            maximum number of polygons of all cached results
+	 */
+	public CSGCache(long maxWeight) {
+		if (maxWeight <= 0) {
+			throw new IllegalArgumentException("maxWeight must be positive: " + maxWeight);
+		}
+		this.maxWeight = maxWeight;
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment();
+		}
+	}
+
+	CSG get(String key, ItoCSG builder) {
+		return get(new Key(key, new long[0]), builder::toCSG);
+	}
+
+	/**
+	 * Returns the cached union of the specified solids or computes it.
+	 */
+	public CSG union(CSG a, CSG b) {
+		return compute("union", () -> a.union(b), a, b);
+	}
+
+	/**
+	 * Returns the cached difference of the specified solids or computes it.
+	 */
+	public CSG difference(CSG a, CSG b) {
+		return compute("difference", () -> a.difference(b), a, b);
+	}
+
+	/**
+	 * Returns the cached intersection of the specified solids or computes it.
+	 */
+	public CSG intersect(CSG a, CSG b) {
+		return compute("intersect", () -> a.intersect(b), a, b);
+	}
+
+	/**
+	 * Returns the cached convex hull of the specified solid or computes it.
+	 */
+	public CSG hull(CSG a) {
+		return compute("hull", a::hull, a);
+	}
+
+	/**
+	 * Returns the cached transformed copy of the specified solid or computes
+	 * it.
+	 */
+	public CSG transformed(CSG a, Transform transform) {
+		Matrix4d m = transform.getInternalMatrix();
+		double[] elements = { m.m00, m.m01, m.m02, m.m03, m.m10, m.m11, m.m12, m.m13, m.m20, m.m21, m.m22,
+				m.m23, m.m30, m.m31, m.m32, m.m33 };
+		long[] matrix = new long[elements.length];
+		for (int i = 0; i < elements.length; i++) {
+			matrix[i] = Double.doubleToLongBits(elements[i] + 0.0);
+		}
+		long[] operand = fingerprint(a);
+		long[] data = Arrays.copyOf(operand, operand.length + matrix.length);
+		System.arraycopy(matrix, 0, data, operand.length, matrix.length);
+		return get(new Key("transformed", data), () -> a.transformed(transform));
+	}
+
+	/**
+	 * Returns the cached result of the specified operation or computes it.
+	 *
+	 * @param operation
+	 *            name of the operation, results of different operations on the
+	 *            same operands are cached independently
+	 * @param builder
+	 *            computes the result
+	 * @param operands
+	 *            the operands, only their geometry is part of the key
+	 * @return the result
+	 */
+	public CSG compute(String operation, Supplier<CSG> builder, CSG... operands) {
+		long[] data = new long[operands.length * 2];
+		for (int i = 0; i < operands.length; i++) {
+			long[] fingerprint = fingerprint(operands[i]);
+			data[i * 2] = fingerprint[0];
+			data[i * 2 + 1] = fingerprint[1];
+		}
+		return get(new Key(operation, data), builder);
+	}
+
+	private CSG get(Key key, Supplier<CSG> builder) {
+		Segment segment = segments[(key.hash ^ (key.hash >>> 16)) & (SEGMENTS - 1)];
+		CSG result = segment.get(key);
+		if (result != null) {
+			hits.increment();
+			return result;
+		}
+		misses.increment();
+		CSGDiskCache disk = diskCache;
+		String digest = disk == null ? null : key.digest();
+		if (disk != null) {
+			result = disk.get(digest);
+		}
+		if (result == null) {
+			result = builder.get();
+			if (disk != null) {
+				disk.put(digest, result);
+			}
+		}
+		long resultWeight = weigh(result);
+		if (resultWeight > maxWeight) {
+			// would evict everything else and itself, do not cache
+			return result;
+		}
+		result = segment.put(key, result, resultWeight);
+		if (weight.get() > maxWeight) {
+			evict(key);
+		}
+		return result;
+	}
+
+	/**
+	 * Evicts the least recently used entries of all segments until the
+	 * weight limit is met. The specified key is kept.
+	 */
+	private void evict(Key keep) {
+		synchronized (evictionLock) {
+			while (weight.get() > maxWeight) {
+				Segment eldest = null;
+				long eldestAccess = Long.MAX_VALUE;
+				for (Segment segment : segments) {
+					long access = segment.eldestAccess(keep);
+					if (access < eldestAccess) {
+						eldestAccess = access;
+						eldest = segment;
+					}
+				}
+				if (eldest == null) {
+					return;
+				}
+				eldest.evictEldest(keep);
+			}
+		}
+	}
+
+	/**
+	 * Sets the second tier of this cache.
+	 *
+	 * @param diskCache
+	 *            the disk cache, {@code null} to use memory only
+	 */
+	public void setDiskCache(CSGDiskCache diskCache) {
+		this.diskCache = diskCache;
+	}
+
+	/**
+	 * @return the second tier of this cache, {@code null} if none
+	 */
+	public CSGDiskCache getDiskCache() {
+		return diskCache;
+	}
+
+	/**
+	 * Removes all entries. The statistics are not reset.
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * @return the number of cached results
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
 		}
-		return chache.get(key);
+		return size;
 	}
-	
 
+	/**
+	 * @return the number of polygons of all cached results
+	 */
+	public long getWeight() {
+		return weight.get();
+	}
+
+	/**
+	 * @return the maximum number of polygons of all cached results
+	 */
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	/**
+	 * @return the number of lookups that found a cached result
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of lookups that had to compute the result
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the number of results that were evicted to honour the weight
+	 *         limit
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "CSGCache [size=" + size() + ", weight=" + getWeight() + "/" + maxWeight + ", hits="
+				+ getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+	}
+
+	private static long weigh(CSG csg) {
+		return Math.max(1, csg.getPolygons().size());
+	}
+
+	/**
+	 * Computes a 128 bit fingerprint of the vertex positions of the
+	 * specified solid in polygon order.
+	 */
+	static long[] fingerprint(CSG csg) {
+		List<Polygon> polygons = csg.getPolygons();
+		long h1 = 0x9E3779B97F4A7C15L ^ polygons.size();
+		long h2 = 0xC2B2AE3D27D4EB4FL ^ polygons.size();
+		for (Polygon polygon : polygons) {
+			h1 = mix(h1, polygon.vertices.size());
+			h2 = mix(h2 ^ 0x165667B19E3779F9L, polygon.vertices.size());
+			for (Vertex v : polygon.vertices) {
+				long x = Double.doubleToLongBits(v.pos.x + 0.0);
+				long y = Double.doubleToLongBits(v.pos.y + 0.0);
+				long z = Double.doubleToLongBits(v.pos.z + 0.0);
+				h1 = mix(mix(mix(h1, x), y), z);
+				h2 = mix(mix(mix(h2, z), x), y);
+			}
+		}
+		return new long[] { h1, h2 };
+	}
+
+	private static long mix(long h, long value) {
+		h ^= value;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static final class Key {
+		private final String operation;
+		private final long[] data;
+		private final int hash;
+
+		Key(String operation, long[] data) {
+			this.operation = operation;
+			this.data = data;
+			this.hash = 31 * operation.hashCode() + Arrays.hashCode(data);
+		}
+
+		/**
+		 * Returns the content hash of this key, which is stable across JVM
+		 * runs.
+		 */
+		String digest() {
+			try {
+				MessageDigest md = MessageDigest.getInstance("SHA-256");
+				md.update(operation.getBytes(StandardCharsets.UTF_8));
+				md.update((byte) 0);
+				byte[] bytes = new byte[8];
+				for (long value : data) {
+					for (int i = 0; i < 8; i++) {
+						bytes[i] = (byte) (value >>> (56 - i * 8));
+					}
+					md.update(bytes);
+				}
+				StringBuilder sb = new StringBuilder(64);
+				for (byte b : md.digest()) {
+					sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+				}
+				return sb.toString();
+			} catch (NoSuchAlgorithmException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash && operation.equals(other.operation) && Arrays.equals(data, other.data);
+		}
+	}
+
+	private static final class Entry {
+		final CSG value;
+		final long weight;
+		volatile long lastAccess;
+
+		Entry(CSG value, long weight, long lastAccess) {
+			this.value = value;
+			this.weight = weight;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	/**
+	 * Independently locked part of the cache, entries are kept in access
+	 * order.
+	 */
+	private final class Segment {
+		private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+		synchronized CSG get(Key key) {
+			Entry entry = entries.get(key);
+			if (entry == null) {
+				return null;
+			}
+			entry.lastAccess = clock.incrementAndGet();
+			return entry.value;
+		}
+
+		synchronized CSG put(Key key, CSG value, long valueWeight) {
+			Entry existing = entries.get(key);
+			if (existing != null) {
+				return existing.value;
+			}
+			entries.put(key, new Entry(value, valueWeight, clock.incrementAndGet()));
+			weight.addAndGet(valueWeight);
+			return value;
+		}
+
+		/**
+		 * Returns the access time of the least recently used entry other
+		 * than the specified key, {@link Long#MAX_VALUE} if there is none.
+		 */
+		synchronized long eldestAccess(Key keep) {
+			for (Map.Entry<Key, Entry> entry : entries.entrySet()) {
+				if (!entry.getKey().equals(keep)) {
+					return entry.getValue().lastAccess;
+				}
+			}
+			return Long.MAX_VALUE;
+		}
+
+		synchronized void evictEldest(Key keep) {
+			Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<Key, Entry> eldest = it.next();
+				if (!eldest.getKey().equals(keep)) {
+					weight.addAndGet(-eldest.getValue().weight);
+					it.remove();
+					evictions.increment();
+					return;
+				}
+			}
+		}
+
+		synchronized void clear() {
+			for (Entry entry : entries.values()) {
+				weight.addAndGet(-entry.weight);
+			}
+			entries.clear();
+		}
+
+		synchronized int size() {
+			return entries.size();
+		}
+	}
 }
@@ -1,113 +1,176 @@
 package eu.mihosoft.vrl.v3d.parametrics;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.Writer;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
 
+/**
+ * Global store of named parameters.
+ *
+ * The parameters are kept in memory and persisted write-behind: changes are
+ * coalesced per key and appended to a journal next to the database file
+ * shortly after they happen. Once the journal grows large, and when the JVM
+ * shuts down, the journal is compacted into the database file. Loading
+ * replays the journal on top of the database file.
+ */
 public class CSGDatabase {
-	
-	private static HashMap<String,Parameter> database=null;
-	private static File dbFile=new File("CSGdatabase.json");
-    private static final Type TT_mapStringString = new TypeToken<HashMap<String,Parameter>>(){}.getType();
-    private static final Gson gson = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().create();
-    private static final HashMap<String,ArrayList<IParameterChanged>> parameterListeners=new HashMap<>();
-	public static void set(String key, Parameter value){
-		getDatabase();
-		synchronized(database){
-			getDatabase().put(key, value);
+
+	/**
+	 * Delay between a change and the journal write that persists it.
+	 */
+	private static final long FLUSH_DELAY_MS = 500;
+	/**
+	 * Number of journal records after which the journal is compacted.
+	 */
+	private static final int COMPACT_THRESHOLD = 1000;
+
+	private static volatile CompletableFuture<ConcurrentHashMap<String, Parameter>> database = null;
+	private static File dbFile = new File("CSGdatabase.json");
+	private static final Type TT_mapStringString = new TypeToken<HashMap<String, Parameter>>() {
+	}.getType();
+	private static final Gson gson = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().create();
+	private static final Gson journalGson = new GsonBuilder().disableHtmlEscaping().create();
+	private static final ConcurrentHashMap<String, CopyOnWriteArrayList<IParameterChanged>> parameterListeners = new ConcurrentHashMap<>();
+
+	/** Keys changed since the last journal write. */
+	private static final ConcurrentHashMap<String, Boolean> dirty = new ConcurrentHashMap<>();
+	/** Whether the database was cleared since the last journal write. */
+	private static volatile boolean cleared = false;
+	private static final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private static final Object fileLock = new Object();
+	private static int journalRecords = 0;
+	private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "CSGDatabase writer");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * Journal record.
+	 */
+	private static class Record {
+		static final String SET = "set";
+		static final String DELETE = "delete";
+		static final String CLEAR = "clear";
+
+		String op;
+		String key;
+		Parameter value;
+
+		Record(String op, String key, Parameter value) {
+			this.op = op;
+			this.key = key;
+			this.value = value;
 		}
 	}
-	public static Parameter get(String key){
-		Parameter ret =null;
-		getDatabase();// load database before synchronization
-		synchronized(database){
-			ret=getDatabase().get(key);
-		}
-		return ret;
+
+	public static void set(String key, Parameter value) {
+		getDatabase().put(key, value);
+		changed(key);
 	}
-	
-	public static   void clear(){
 
-		getDatabase();
-		synchronized(database){
-			database.clear();
-		}
+	public static Parameter get(String key) {
+		return getDatabase().get(key);
+	}
+
+	public static void clear() {
+		getDatabase().clear();
 		parameterListeners.clear();
-		saveDatabase();
+		cleared = true;
+		dirty.clear();
+		scheduleFlush();
 	}
-	public static  void addParameterListener(String key, IParameterChanged l){
-		ArrayList<IParameterChanged> list = getParamListeners(key);
-		if(!list.contains(l)){
-			list.add(l);
-		}
+
+	public static void addParameterListener(String key, IParameterChanged l) {
+		listenersOf(key).addIfAbsent(l);
 	}
-	public static  void removeParameterListener(String key, IParameterChanged l){
-		if(parameterListeners.get(key)==null){
-			return;
-		}
-		ArrayList<IParameterChanged> list = parameterListeners.get(key);
-		if(list.contains(l)){
+
+	public static void removeParameterListener(String key, IParameterChanged l) {
+		List<IParameterChanged> list = parameterListeners.get(key);
+		if (list != null) {
 			list.remove(l);
 		}
 	}
-	
-	public static  ArrayList<IParameterChanged> getParamListeners(String key){
-		if(parameterListeners.get(key)==null){
-			parameterListeners.put(key, new ArrayList<>());
-		}
-		return parameterListeners.get(key);
+
+	public static List<IParameterChanged> getParamListeners(String key) {
+		return listenersOf(key);
 	}
-	
 
-	public static void delete(String key){
-		synchronized(database){
-			getDatabase().remove(key);
+	private static CopyOnWriteArrayList<IParameterChanged> listenersOf(String key) {
+		return parameterListeners.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>());
+	}
+
+	public static void delete(String key) {
+		getDatabase().remove(key);
+		changed(key);
+	}
+
+	/**
+	 * Records that the parameter with the specified key has been modified.
+	 * The change is persisted asynchronously.
+	 *
+	 * @param key
+	 *            the key
+	 */
+	static void changed(String key) {
+		if (key != null) {
+			dirty.put(key, Boolean.TRUE);
+			scheduleFlush();
 		}
 	}
-	private static HashMap<String,Parameter> getDatabase() {
-		if(database==null){
-			new Thread(){
-				public void run(){
-					String jsonString;
-					try {
-						
-						if(!getDbFile().exists()){
-							setDatabase(new HashMap<String,Parameter>());
-						}
-						else{
-					        InputStream in = null;
-					        try {
-					            in = FileUtils.openInputStream(getDbFile());
-					            jsonString= IOUtils.toString(in);
-					        } finally {
-					            IOUtils.closeQuietly(in);
-					        }
-					        HashMap<String,Parameter> tm=gson.fromJson(jsonString, TT_mapStringString);
-					        
-					        
-					        if(tm!=null){
-//					        	System.out.println("Hash Map loaded from "+jsonString);
-//					        	for(String k:tm.keySet()){
-//						        	System.out.println("Key: "+k+" vlaue= "+tm.get(k));
-//						        }
-					        	setDatabase(tm);
-					        }
+
+	/**
+	 * Starts loading the database file in the background if it has not been
+	 * loaded yet.
+	 *
+	 * @return completes once the database is loaded
+	 */
+	public static CompletableFuture<?> load() {
+		return loadAsync();
+	}
+
+	private static CompletableFuture<ConcurrentHashMap<String, Parameter>> loadAsync() {
+		CompletableFuture<ConcurrentHashMap<String, Parameter>> db = database;
+		if (db == null) {
+			synchronized (CSGDatabase.class) {
+				db = database;
+				if (db == null) {
+					File file = getDbFile();
+					db = CompletableFuture.supplyAsync(() -> {
+						ConcurrentHashMap<String, Parameter> map = new ConcurrentHashMap<>();
+						try {
+							read(file, map);
+						} catch (Exception e) {
+							e.printStackTrace();
+							System.err.println(file.getAbsolutePath());
 						}
-					} catch (Exception e) {
-						e.printStackTrace();
-						System.err.println(dbFile.getAbsolutePath());
-						setDatabase(new HashMap<String,Parameter>());
-					}
+						return map;
+					});
+					database = db;
 					Runtime.getRuntime().addShutdownHook(new Thread() {
 						@Override
 						public void run() {
@@ -115,96 +178,201 @@ public class CSGDatabase {
 						}
 					});
 				}
-			}.start();
-			long start = System.currentTimeMillis();
-			while(database==null){
+			}
+		}
+		return db;
+	}
+
+	private static ConcurrentHashMap<String, Parameter> getDatabase() {
+		return loadAsync().join();
+	}
+
+	/**
+	 * Reads the specified database file and replays its journal.
+	 */
+	private static void read(File file, Map<String, Parameter> map) throws IOException {
+		if (file.exists()) {
+			String jsonString = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+			HashMap<String, Parameter> tm = gson.fromJson(jsonString, TT_mapStringString);
+			if (tm != null) {
+				map.putAll(tm);
+			}
+		}
+		File journal = journalOf(file);
+		if (journal.exists()) {
+			try (BufferedReader reader = Files.newBufferedReader(journal.toPath(), StandardCharsets.UTF_8)) {
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					Record record;
+					try {
+						record = journalGson.fromJson(line, Record.class);
+					} catch (JsonParseException e) {
+						// incomplete last record of a crashed process
+						break;
+					}
+					if (record == null || record.op == null) {
+						continue;
+					}
+					switch (record.op) {
+					case Record.SET:
+						if (record.key != null && record.value != null) {
+							map.put(record.key, record.value);
+						}
+						break;
+					case Record.DELETE:
+						if (record.key != null) {
+							map.remove(record.key);
+						}
+						break;
+					case Record.CLEAR:
+						map.clear();
+						break;
+					default:
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	public static void loadDatabaseFromFile(File f) {
+		try {
+			String jsonString = new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+			HashMap<String, Parameter> tm = gson.fromJson(jsonString, TT_mapStringString);
+			if (tm != null)
+				for (String k : tm.keySet()) {
+					set(k, tm.get(k));
+				}
+		} catch (Exception e) {
+			System.err.println(f.getAbsolutePath());
+			e.printStackTrace();
+		}
+	}
+
+	public static String getDataBaseString() {
+		return gson.toJson(new HashMap<>(getDatabase()), TT_mapStringString);
+	}
+
+	private static void scheduleFlush() {
+		if (flushScheduled.compareAndSet(false, true)) {
+			writer.schedule(() -> {
+				flushScheduled.set(false);
 				try {
-					Thread.sleep(10);
-				} catch (InterruptedException e) {
-					// TODO Auto-generated catch block
+					flush();
+				} catch (IOException e) {
 					e.printStackTrace();
 				}
-				if((System.currentTimeMillis()-start)>500){
-					setDatabase(new HashMap<String,Parameter>());
+			}, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Appends all pending changes to the journal. The journal is compacted
+	 * if it has grown too large.
+	 *
+	 * @throws IOException
+	 *             if the journal cannot be written
+	 */
+	public static void flush() throws IOException {
+		synchronized (fileLock) {
+			List<Record> records = new ArrayList<>();
+			if (cleared) {
+				cleared = false;
+				records.add(new Record(Record.CLEAR, null, null));
+			}
+			ConcurrentHashMap<String, Parameter> db = getDatabase();
+			for (String key : dirty.keySet()) {
+				dirty.remove(key);
+				Parameter value = db.get(key);
+				records.add(value == null ? new Record(Record.DELETE, key, null) : new Record(Record.SET, key, value));
+			}
+			if (records.isEmpty()) {
+				return;
+			}
+			if (journalRecords + records.size() > COMPACT_THRESHOLD) {
+				compact();
+				return;
+			}
+			try (Writer out = Files.newBufferedWriter(getJournalFile().toPath(), StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+				for (Record record : records) {
+					out.write(journalGson.toJson(record));
+					out.write('\n');
 				}
 			}
+			journalRecords += records.size();
 		}
-		return database;
-	}
-	
-	public static void loadDatabaseFromFile(File f){
-		InputStream in = null;
-		String jsonString;
-        try {
-            try {
-				in = FileUtils.openInputStream(f);
-				jsonString= IOUtils.toString(in);
-		        HashMap<String,Parameter> tm=gson.fromJson(jsonString, TT_mapStringString);
-		        if(tm !=null)
-			        for(String k:tm.keySet()){
-			        	set(k,tm.get(k));
-			        }
-		        saveDatabase();
-			} catch (Exception e) {
-				System.err.println(f.getAbsolutePath());
-				e.printStackTrace();
+	}
+
+	/**
+	 * Writes the whole database to the database file and deletes the
+	 * journal.
+	 */
+	private static void compact() throws IOException {
+		synchronized (fileLock) {
+			cleared = false;
+			dirty.clear();
+			String writeOut = getDataBaseString();
+			Path target = getDbFile().getAbsoluteFile().toPath();
+			Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+			try {
+				Files.write(tmp, writeOut.getBytes(StandardCharsets.UTF_8));
+				try {
+					Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(tmp);
 			}
-            
-        } finally {
-            IOUtils.closeQuietly(in);
-        }
-	}
-	
-	public static String getDataBaseString(){
-		String writeOut=null;
-		getDatabase();
-		synchronized(database){
-			 writeOut  =gson.toJson(database, TT_mapStringString); 
+			Files.deleteIfExists(getJournalFile().toPath());
+			journalRecords = 0;
 		}
-		return writeOut;
 	}
-	
-	public static void saveDatabase(){
-		String writeOut=getDataBaseString();
+
+	/**
+	 * Writes the whole database to the database file immediately.
+	 */
+	public static void saveDatabase() {
 		try {
-			if(!getDbFile().exists()){
-				getDbFile().createNewFile();
-			}
-	        OutputStream out = null;
-	        try {
-	            out = FileUtils.openOutputStream(getDbFile(), false);
-	            IOUtils.write(writeOut, out);
-	            out.flush();
-	            out.close(); // don't swallow close Exception if copy completes normally
-	        } finally {
-	            IOUtils.closeQuietly(out);
-	        }
+			compact();
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 	}
-	private static void setDatabase(HashMap<String,Parameter> database) {
-		if(CSGDatabase.database!=null){
-			return;
-		}
-		CSGDatabase.database = database;
-	}
+
 	public static File getDbFile() {
 		return dbFile;
 	}
+
+	/**
+	 * @return the journal that holds the changes since the database file was
+	 *         last written
+	 */
+	public static File getJournalFile() {
+		return journalOf(getDbFile());
+	}
+
+	private static File journalOf(File file) {
+		return new File(file.getPath() + ".journal");
+	}
+
 	public static void setDbFile(File dbFile) {
-		if(!dbFile.exists())
+		if (!dbFile.exists())
 			try {
 				dbFile.createNewFile();
 			} catch (IOException e) {
-				// TODO Auto-generated catch block
 				e.printStackTrace();
 			}
-		else{
+		else {
 			loadDatabaseFromFile(dbFile);
 		}
-		CSGDatabase.dbFile = dbFile;
+		synchronized (fileLock) {
+			CSGDatabase.dbFile = dbFile;
+			journalRecords = 0;
+		}
+		// the new file receives the complete database before the first
+		// journal record is appended to it
+		saveDatabase();
 	}
 
 }
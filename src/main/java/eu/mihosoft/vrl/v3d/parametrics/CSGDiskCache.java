@@ -0,0 +1,279 @@
+package eu.mihosoft.vrl.v3d.parametrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import eu.mihosoft.vrl.v3d.CSG;
+
+/**
+ * Directory of CSG results in the native binary format, used as second tier
+ * behind a {@link CSGCache}.
+ *
+ * Each result is stored in a file named after the content hash of its key.
+ * Files are written to a temporary file first and atomically renamed, i.e.,
+ * several JVMs may share the same directory: readers never see partially
+ * written results and concurrent writers of the same key store identical
+ * content. Once the files exceed the size limit, the least recently used
+ * files are deleted; hits refresh the modification time of a file. Results
+ * that cannot be written, e.g. because the disk is full, are counted and
+ * skipped.
+ *
+ * @see CSGCache#setDiskCache(CSGDiskCache)
+ */
+public class CSGDiskCache {
+
+	/**
+	 * Default maximum size of a cache directory in bytes.
+	 */
+	public static final long DEFAULT_MAX_BYTES = 1L << 30;
+
+	private static final String EXTENSION = ".csg";
+
+	private final Path directory;
+	private final long maxBytes;
+	private final AtomicLong size = new AtomicLong();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder writeErrors = new LongAdder();
+
+	/**
+	 * Creates a cache in the specified directory that holds up to
+	 * {@link #DEFAULT_MAX_BYTES} bytes.
+	 *
+	 * @param directory
+	 *            cache directory, created if it does not exist
+	 * @throws IOException
+	 *             if the directory cannot be created
+	 */
+	public CSGDiskCache(Path directory) throws IOException {
+		this(directory, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Creates a cache in the specified directory.
+	 *
+	 * @param directory
+	 *            cache directory, created if it does not exist
+	 * @param maxBytes
+	 *            maximum size of all cached files
+	 * @throws IOException
+	 *             if the directory cannot be created
+	 */
+	public CSGDiskCache(Path directory, long maxBytes) throws IOException {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+		}
+		this.directory = Files.createDirectories(directory);
+		this.maxBytes = maxBytes;
+		size.set(scan(new ArrayList<>()));
+	}
+
+	/**
+	 * Returns the result that is stored under the specified key.
+	 *
+	 * @param key
+	 *            content hash of the operation and its operands
+	 * @return the result, {@code null} if there is none
+	 */
+	public CSG get(String key) {
+		Path file = fileOf(key);
+		try {
+			CSG result = CSG.fromBinary(file);
+			try {
+				Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			} catch (IOException ex) {
+				// evicted by another process after reading it
+			}
+			hits.increment();
+			return result;
+		} catch (NoSuchFileException ex) {
+			misses.increment();
+			return null;
+		} catch (IOException ex) {
+			// damaged file, e.g. written by a crashed process without atomic
+			// rename support
+			delete(file);
+			misses.increment();
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the specified result under the specified key. A result that
+	 * cannot be written is not stored and counted as
+	 * {@link #getWriteErrorCount() write error}.
+	 *
+	 * @param key
+	 *            content hash of the operation and its operands
+	 * @param result
+	 *            the result
+	 */
+	public void put(String key, CSG result) {
+		Path file = fileOf(key);
+		try {
+			Path tmp = Files.createTempFile(directory, key, ".part");
+			try {
+				result.toBinary(tmp);
+				long length = Files.size(tmp);
+				try {
+					Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				} catch (AtomicMoveNotSupportedException ex) {
+					Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+				if (size.addAndGet(length) > maxBytes) {
+					evict();
+				}
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		} catch (IOException ex) {
+			writeErrors.increment();
+		}
+	}
+
+	/**
+	 * Deletes all cached files.
+	 */
+	public synchronized void clear() {
+		List<Path> files = new ArrayList<>();
+		try {
+			scan(files);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		for (Path file : files) {
+			delete(file);
+		}
+		size.set(0);
+	}
+
+	/**
+	 * Deletes the least recently used files until the directory does not
+	 * exceed the size limit. Other processes may write to the directory
+	 * concurrently, the size is therefore recomputed from the directory.
+	 */
+	private synchronized void evict() throws IOException {
+		List<Path> files = new ArrayList<>();
+		long total = scan(files);
+		if (total > maxBytes) {
+			List<Object[]> entries = new ArrayList<>(files.size());
+			for (Path file : files) {
+				try {
+					BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+					entries.add(new Object[] { file, attributes.lastModifiedTime().toMillis(), attributes.size() });
+				} catch (NoSuchFileException ex) {
+					// deleted by another process
+				}
+			}
+			entries.sort((a, b) -> Long.compare((Long) a[1], (Long) b[1]));
+			for (int i = 0; i < entries.size() && total > maxBytes; i++) {
+				if (delete((Path) entries.get(i)[0])) {
+					evictions.increment();
+				}
+				total -= (Long) entries.get(i)[2];
+			}
+		}
+		size.set(total);
+	}
+
+	/**
+	 * Collects the cached files and returns their total size.
+	 */
+	private long scan(List<Path> files) throws IOException {
+		long total = 0;
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+			for (Path file : stream) {
+				try {
+					total += Files.size(file);
+					files.add(file);
+				} catch (NoSuchFileException ex) {
+					// deleted by another process
+				}
+			}
+		}
+		return total;
+	}
+
+	private static boolean delete(Path file) {
+		try {
+			return Files.deleteIfExists(file);
+		} catch (IOException ex) {
+			// still opened by another process, retried on the next eviction
+			return false;
+		}
+	}
+
+	private Path fileOf(String key) {
+		return directory.resolve(key + EXTENSION);
+	}
+
+	/**
+	 * @return the cache directory
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return the maximum size of all cached files in bytes
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return the estimated size of all cached files in bytes
+	 */
+	public long getSize() {
+		return size.get();
+	}
+
+	/**
+	 * @return the number of lookups that found a stored result
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of lookups that did not find a stored result
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the number of files deleted to honour the size limit
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return the number of results that could not be written
+	 */
+	public long getWriteErrorCount() {
+		return writeErrors.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "CSGDiskCache [directory=" + directory + ", size=" + getSize() + "/" + maxBytes + ", hits="
+				+ getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount()
+				+ ", writeErrors=" + getWriteErrorCount() + "]";
+	}
+}
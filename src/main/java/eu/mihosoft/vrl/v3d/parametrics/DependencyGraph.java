@@ -0,0 +1,507 @@
+package eu.mihosoft.vrl.v3d.parametrics;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import eu.mihosoft.vrl.v3d.CSG;
+
+/**
+ * Dependencies between parameters and regenerable CSGs.
+ *
+ * A CSG with a regeneration function ({@link CSG#setRegenerate(IRegenerate)})
+ * becomes a node of the graph once it is {@link #register(CSG) registered}.
+ * Regeneration is opt-in: CSGs are registered with the
+ * {@link #getDefault() default graph} automatically only while
+ * {@link #setAutoRegister(boolean) auto registration} is enabled. A node
+ * depends on the parameters registered with it and
+ * on every regenerable CSG it has been derived from (recorded by
+ * {@link CSG#historySync(CSG)}). When a parameter changes, only the nodes that
+ * depend on it, directly or transitively, are regenerated. Changes that
+ * arrive within the coalescing delay of each other (e.g., while a slider is
+ * dragged) are combined into a single regeneration. Independent nodes are
+ * regenerated in parallel, a node is regenerated after all nodes it depends
+ * on.
+ *
+ * Regeneration functions obtain the regenerated version of the CSGs they
+ * depend on with {@link #getCurrent(CSG)}. Nodes are referenced weakly, i.e.,
+ * CSGs that are no longer used leave the graph. Regeneration runs on the
+ * {@link #setExecutor(Executor) executor}, not on the thread that changed the
+ * parameter.
+ */
+public class DependencyGraph {
+
+	/**
+	 * Default delay in milliseconds that changes are coalesced for.
+	 */
+	public static final long DEFAULT_COALESCE_DELAY = 50;
+
+	private static final DependencyGraph DEFAULT = new DependencyGraph();
+
+	/**
+	 * Listener that is notified about regenerated CSGs.
+	 */
+	public interface RegenerationListener {
+		/**
+		 * Called after a node has been regenerated.
+		 *
+		 * @param previous
+		 *            the previous version of the node
+		 * @param result
+		 *            the regenerated version
+		 */
+		void regenerated(CSG previous, CSG result);
+	}
+
+	private static final class Node {
+		NodeReference csg;
+		final Set<String> parameters = new HashSet<>();
+		final Set<Node> upstream = Collections.newSetFromMap(new IdentityHashMap<>());
+		final Set<Node> downstream = Collections.newSetFromMap(new IdentityHashMap<>());
+	}
+
+	/**
+	 * Weak reference to the current version of a node, enqueued once that
+	 * version has been collected.
+	 */
+	private static final class NodeReference extends WeakReference<CSG> {
+		final Node node;
+
+		NodeReference(CSG csg, Node node, ReferenceQueue<CSG> queue) {
+			super(csg, queue);
+			this.node = node;
+		}
+	}
+
+	private final Object lock = new Object();
+	/** Node of each registered CSG and of each of their previous versions. */
+	private final WeakHashMap<CSG, Node> nodes = new WeakHashMap<>();
+	private final Map<String, Set<Node>> byParameter = new HashMap<>();
+	private final Set<String> changedParameters = new LinkedHashSet<>();
+	private final Set<Node> changedNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+	private final List<RegenerationListener> listeners = new CopyOnWriteArrayList<>();
+	/** References to collected CSGs whose nodes have to be removed. */
+	private final ReferenceQueue<CSG> collected = new ReferenceQueue<>();
+	private volatile boolean autoRegister = false;
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "CSG regeneration");
+		t.setDaemon(true);
+		return t;
+	});
+	private ScheduledFuture<?> pending;
+	private volatile long coalesceDelay = DEFAULT_COALESCE_DELAY;
+	private volatile Executor executor = ForkJoinPool.commonPool();
+
+	/**
+	 * @return the graph that {@link CSG} registers its nodes with
+	 */
+	public static DependencyGraph getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Determines whether CSGs register themselves with this graph, see
+	 * {@link #setAutoRegister(boolean)}.
+	 *
+	 * @return {@code true} if CSGs register themselves
+	 */
+	public boolean isAutoRegister() {
+		return autoRegister;
+	}
+
+	/**
+	 * Sets whether CSGs register themselves with this graph when a
+	 * regeneration function, a parameter or a dependency is added to them.
+	 * This applies to the {@link #getDefault() default graph} only and is
+	 * disabled by default, i.e., regeneration is left to the application.
+	 * CSGs that were set up before auto registration was enabled can be added
+	 * with {@link #register(CSG)}.
+	 *
+	 * @param autoRegister
+	 *            {@code true} to register CSGs automatically
+	 */
+	public void setAutoRegister(boolean autoRegister) {
+		this.autoRegister = autoRegister;
+	}
+
+	/**
+	 * Adds the specified CSG to the graph, or updates its dependencies if it
+	 * is already part of it.
+	 *
+	 * @param csg
+	 *            a CSG with a regeneration function
+	 */
+	public void register(CSG csg) {
+		List<String> newParameters = new ArrayList<>();
+		synchronized (lock) {
+			expungeCollected();
+			Node node = nodes.get(csg);
+			if (node == null) {
+				node = new Node();
+				node.csg = new NodeReference(csg, node, collected);
+				nodes.put(csg, node);
+			}
+			for (String key : csg.getParameters()) {
+				if (node.parameters.add(key)) {
+					Set<Node> dependents = byParameter.get(key);
+					if (dependents == null) {
+						dependents = Collections.newSetFromMap(new IdentityHashMap<>());
+						byParameter.put(key, dependents);
+						newParameters.add(key);
+					}
+					dependents.add(node);
+				}
+			}
+			for (CSG source : csg.getDependencies()) {
+				Node upstream = nodes.get(source);
+				if (upstream != null && upstream != node && !reaches(node, upstream)) {
+					node.upstream.add(upstream);
+					upstream.downstream.add(node);
+				}
+			}
+		}
+		for (String key : newParameters) {
+			CSGDatabase.addParameterListener(key, parameterListener);
+		}
+	}
+
+	/**
+	 * Removes the specified CSG from the graph.
+	 *
+	 * @param csg
+	 *            the CSG
+	 */
+	public void unregister(CSG csg) {
+		synchronized (lock) {
+			Node node = nodes.remove(csg);
+			if (node != null) {
+				remove(node);
+				nodes.values().removeIf(n -> n == node);
+			}
+		}
+	}
+
+	private void remove(Node node) {
+		for (String key : node.parameters) {
+			Set<Node> dependents = byParameter.get(key);
+			if (dependents != null) {
+				dependents.remove(node);
+				if (dependents.isEmpty()) {
+					byParameter.remove(key);
+				}
+			}
+		}
+		for (Node upstream : node.upstream) {
+			upstream.downstream.remove(node);
+		}
+		for (Node downstream : node.downstream) {
+			downstream.upstream.remove(node);
+		}
+		changedNodes.remove(node);
+	}
+
+	/**
+	 * Removes the nodes whose current version has been collected.
+	 */
+	private void expungeCollected() {
+		for (Reference<? extends CSG> ref = collected.poll(); ref != null; ref = collected.poll()) {
+			Node node = ((NodeReference) ref).node;
+			// previous versions of a node are enqueued as well
+			if (node.csg == ref) {
+				remove(node);
+			}
+		}
+	}
+
+	/**
+	 * Determines whether the specified target depends on the specified node.
+	 */
+	private static boolean reaches(Node from, Node target) {
+		List<Node> stack = new ArrayList<>();
+		Set<Node> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+		stack.add(from);
+		while (!stack.isEmpty()) {
+			Node n = stack.remove(stack.size() - 1);
+			if (n == target) {
+				return true;
+			}
+			if (visited.add(n)) {
+				stack.addAll(n.downstream);
+			}
+		}
+		return false;
+	}
+
+	private final IParameterChanged parameterListener = (name, p) -> parameterChanged(name);
+
+	/**
+	 * Schedules the regeneration of every node that depends on the specified
+	 * parameter.
+	 *
+	 * @param key
+	 *            the parameter key
+	 */
+	public void parameterChanged(String key) {
+		synchronized (lock) {
+			expungeCollected();
+			changedParameters.add(key);
+			reschedule();
+		}
+	}
+
+	/**
+	 * Schedules the regeneration of the specified CSG and every node that
+	 * depends on it.
+	 *
+	 * @param csg
+	 *            a registered CSG
+	 */
+	public void invalidate(CSG csg) {
+		synchronized (lock) {
+			Node node = nodes.get(csg);
+			if (node != null) {
+				changedNodes.add(node);
+				reschedule();
+			}
+		}
+	}
+
+	private void reschedule() {
+		if (pending != null) {
+			pending.cancel(false);
+		}
+		pending = scheduler.schedule(this::regenerateChanged, coalesceDelay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Regenerates all pending changes immediately and waits for the
+	 * regeneration to finish.
+	 */
+	public void flush() {
+		synchronized (lock) {
+			if (pending != null) {
+				pending.cancel(false);
+				pending = null;
+			}
+		}
+		regenerateChanged();
+	}
+
+	/**
+	 * Regenerates the nodes affected by the changes since the last
+	 * regeneration. Only one regeneration runs at a time.
+	 */
+	private synchronized void regenerateChanged() {
+		List<List<Node>> levels;
+		synchronized (lock) {
+			Set<Node> affected = Collections.newSetFromMap(new IdentityHashMap<>());
+			List<Node> stack = new ArrayList<>(changedNodes);
+			for (String key : changedParameters) {
+				Set<Node> dependents = byParameter.get(key);
+				if (dependents != null) {
+					stack.addAll(dependents);
+				}
+			}
+			changedNodes.clear();
+			changedParameters.clear();
+			while (!stack.isEmpty()) {
+				Node n = stack.remove(stack.size() - 1);
+				if (affected.add(n)) {
+					stack.addAll(n.downstream);
+				}
+			}
+			levels = topologicalLevels(affected);
+			for (Node n : affected) {
+				CSG csg = n.csg.get();
+				if (csg != null) {
+					csg.markForRegeneration();
+				}
+			}
+		}
+
+		for (List<Node> level : levels) {
+			CompletableFuture<?>[] futures = new CompletableFuture<?>[level.size()];
+			for (int i = 0; i < level.size(); i++) {
+				Node node = level.get(i);
+				futures[i] = CompletableFuture.runAsync(() -> regenerate(node), executor);
+			}
+			try {
+				CompletableFuture.allOf(futures).join();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Sorts the specified nodes such that each node follows the nodes it
+	 * depends on. Nodes of the same level do not depend on each other.
+	 */
+	private static List<List<Node>> topologicalLevels(Set<Node> affected) {
+		Map<Node, Integer> inDegree = new IdentityHashMap<>();
+		List<Node> current = new ArrayList<>();
+		for (Node n : affected) {
+			int degree = 0;
+			for (Node upstream : n.upstream) {
+				if (affected.contains(upstream)) {
+					degree++;
+				}
+			}
+			inDegree.put(n, degree);
+			if (degree == 0) {
+				current.add(n);
+			}
+		}
+		List<List<Node>> levels = new ArrayList<>();
+		while (!current.isEmpty()) {
+			levels.add(current);
+			List<Node> next = new ArrayList<>();
+			for (Node n : current) {
+				for (Node downstream : n.downstream) {
+					Integer degree = inDegree.get(downstream);
+					if (degree != null) {
+						inDegree.put(downstream, degree - 1);
+						if (degree == 1) {
+							next.add(downstream);
+						}
+					}
+				}
+			}
+			current = next;
+		}
+		return levels;
+	}
+
+	private void regenerate(Node node) {
+		CSG previous = node.csg.get();
+		if (previous == null) {
+			synchronized (lock) {
+				remove(node);
+			}
+			return;
+		}
+		CSG result = previous.regenerate();
+		if (result != previous) {
+			synchronized (lock) {
+				// the result takes the place of the previous version, a node
+				// that it may have registered itself is merged
+				Node registered = nodes.get(result);
+				if (registered != null && registered != node) {
+					remove(registered);
+				}
+				nodes.put(result, node);
+				node.csg = new NodeReference(result, node, collected);
+			}
+			if (result.getRegenerate() == null) {
+				// keep the node regenerable
+				result.setRegenerate(previous.getRegenerate());
+			}
+			register(result);
+		}
+		for (RegenerationListener l : listeners) {
+			l.regenerated(previous, result);
+		}
+	}
+
+	/**
+	 * Returns the latest version of the specified CSG.
+	 *
+	 * @param csg
+	 *            a CSG
+	 * @return the result of the latest regeneration of the node of the
+	 *         specified CSG, the CSG itself if it has not been regenerated
+	 */
+	public CSG getCurrent(CSG csg) {
+		synchronized (lock) {
+			Node node = nodes.get(csg);
+			CSG current = node == null ? null : node.csg.get();
+			return current == null ? csg : current;
+		}
+	}
+
+	/**
+	 * Returns the registered CSGs that depend on the specified parameter,
+	 * directly or transitively.
+	 *
+	 * @param key
+	 *            the parameter key
+	 * @return the dependent CSGs
+	 */
+	public List<CSG> getDependents(String key) {
+		List<CSG> result = new ArrayList<>();
+		synchronized (lock) {
+			Set<Node> dependents = byParameter.get(key);
+			if (dependents == null) {
+				return result;
+			}
+			Set<Node> affected = Collections.newSetFromMap(new IdentityHashMap<>());
+			List<Node> stack = new ArrayList<>(dependents);
+			while (!stack.isEmpty()) {
+				Node n = stack.remove(stack.size() - 1);
+				if (affected.add(n)) {
+					stack.addAll(n.downstream);
+				}
+			}
+			for (List<Node> level : topologicalLevels(affected)) {
+				for (Node n : level) {
+					CSG csg = n.csg.get();
+					if (csg != null) {
+						result.add(csg);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	public void addListener(RegenerationListener l) {
+		listeners.add(l);
+	}
+
+	public void removeListener(RegenerationListener l) {
+		listeners.remove(l);
+	}
+
+	public long getCoalesceDelay() {
+		return coalesceDelay;
+	}
+
+	/**
+	 * @param coalesceDelay
+	 *            delay in milliseconds that changes are coalesced for
+	 */
+	public void setCoalesceDelay(long coalesceDelay) {
+		this.coalesceDelay = coalesceDelay;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * @param executor
+	 *            executes the regeneration functions
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+}
@@ -1,6 +1,7 @@
 package eu.mihosoft.vrl.v3d.parametrics;
 
 import java.util.ArrayList;
+import java.util.List;
 
 public class Parameter {
 	
@@ -53,7 +54,8 @@ public class Parameter {
 	public void setValue(Long newVal){
 		if(value!=newVal){
 			value=newVal;
-			ArrayList<IParameterChanged> listeners = CSGDatabase.getParamListeners(name);
+			CSGDatabase.changed(name);
+			List<IParameterChanged> listeners = CSGDatabase.getParamListeners(name);
 			for(IParameterChanged l:listeners){
 				l.parameterChanged(name, this);
 			}
@@ -74,7 +76,8 @@ public class Parameter {
 	public void setStrValue(String newValue) {
 		if(!strValue.contentEquals(newValue)){
 			strValue = newValue;
-			ArrayList<IParameterChanged> listeners = CSGDatabase.getParamListeners(name);
+			CSGDatabase.changed(name);
+			List<IParameterChanged> listeners = CSGDatabase.getParamListeners(name);
 			for(IParameterChanged l:listeners){
 				l.parameterChanged(name, this);
 			}
@@ -296,13 +296,15 @@ public class  SVGLoad {
 		//println code
 		BezierPath path = new BezierPath();
 		path.parsePathString(code);
-		ArrayList<Vector3d> p = new ArrayList<Vector3d>();
-		for (double i = 0; i < 1.0; i += resolution) {
-			Vector3d point = path.eval((float) i);
-			// println point
-			p.add(point);
+		// steps of resolution times the length deviate by a eighth step from
+		// arcs with a radius of one step, curves are flattened at least that
+		// accurately while straight spans only keep their end points
+		double step = resolution * path.getLength();
+		ArrayList<Vector3d> p = new ArrayList<Vector3d>(path.flatten(step / 8));
+		if (p.size() > 1 && p.get(0).equals(p.get(p.size() - 1))) {
+			// closed explicitly, the polygon closes itself
+			p.remove(p.size() - 1);
 		}
-		p.add(path.eval((float) (1.0-resolution/2.0)));
 		//System.out.println(" Path " + code);
 		boolean hole = Extrude.isCCW(Polygon.fromPoints(p));
 		if(!holePolarity)
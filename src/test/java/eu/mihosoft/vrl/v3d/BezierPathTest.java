@@ -0,0 +1,65 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.piro.bezier.BezierPath;
+
+public class BezierPathTest {
+
+	@Test
+	public void evalFindsSegment() {
+		BezierPath path = new BezierPath("M 0,0 L 10,0 L 10,10 L 0,10");
+		assertEquals(new Vector3d(5, 0), path.eval(1f / 6));
+		assertEquals(new Vector3d(10, 0), path.eval(1f / 3));
+		assertEquals(new Vector3d(10, 5), path.eval(0.5f));
+		assertEquals(new Vector3d(0, 10), path.eval(1f));
+		assertEquals(30, path.getLength(), 1e-9);
+	}
+
+	@Test
+	public void flattenKeepsCornersOfLines() {
+		BezierPath path = new BezierPath("M 0,0 L 10,0 L 10,10 L 0,10 Z");
+		List<Vector3d> points = path.flatten(0.01);
+		assertEquals(4, points.size());
+		assertEquals(new Vector3d(10, 10), points.get(2));
+	}
+
+	@Test
+	public void flattenFollowsCurve() {
+		// quarter circle of radius 100
+		BezierPath path = new BezierPath("M 100,0 C 100,55.228475 55.228475,100 0,100");
+		List<Vector3d> coarse = path.flatten(1);
+		List<Vector3d> fine = path.flatten(0.01);
+		assertTrue(coarse.size() < fine.size());
+		for (int i = 0; i + 1 < fine.size(); i++) {
+			Vector3d mid = fine.get(i).plus(fine.get(i + 1)).times(0.5);
+			// the cubic deviates up to 0.03 from the circle
+			assertEquals(100, mid.magnitude(), 0.04);
+		}
+		assertEquals(new Vector3d(0, 100), fine.get(fine.size() - 1));
+	}
+
+	@Test
+	public void sampleIsUniformInArcLength() {
+		BezierPath path = new BezierPath("M 100,0 C 100,55.228475 55.228475,100 0,100 L -50,100");
+		double length = path.getLength();
+		assertEquals(Math.PI * 50 + 50, length, 0.1);
+
+		int n = 101;
+		double[] out = new double[n * 3];
+		path.sample(n, out);
+		assertEquals(100, out[0], 1e-9);
+		assertEquals(0, out[1], 1e-9);
+		assertEquals(-50, out[(n - 1) * 3], 1e-9);
+		assertEquals(100, out[(n - 1) * 3 + 1], 1e-9);
+		for (int i = 1; i < n; i++) {
+			double dx = out[i * 3] - out[i * 3 - 3];
+			double dy = out[i * 3 + 1] - out[i * 3 - 2];
+			assertEquals(length / (n - 1), Math.sqrt(dx * dx + dy * dy), 0.01);
+		}
+	}
+}
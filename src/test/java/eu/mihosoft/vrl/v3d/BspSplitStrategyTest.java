@@ -0,0 +1,46 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class BspSplitStrategyTest {
+
+	@Test
+	public void test() {
+		CSG sphere = new Sphere(6).toCSG();
+		double cubeVolume = 1000;
+		double sphereVolume = volume(sphere);
+		double intersectionVolume = volume(new Cube(10).toCSG().intersect(sphere));
+
+		for (BspSplitStrategy strategy : BspSplitStrategy.values()) {
+			CSG cube = new Cube(10).toCSG().setSplitStrategy(strategy);
+
+			CSG union = cube.union(sphere);
+			CSG difference = cube.difference(sphere);
+
+			assertEquals(strategy.name(), cubeVolume + sphereVolume - intersectionVolume, volume(union), 1e-3);
+			assertEquals(strategy.name(), cubeVolume - intersectionVolume, volume(difference), 1e-3);
+			assertSame(strategy, union.getSplitStrategy());
+		}
+	}
+
+	/**
+	 * Computes the volume of a closed csg via the divergence theorem.
+	 *
+	 * @param csg the csg
+	 * @return the enclosed volume
+	 */
+	static double volume(CSG csg) {
+		double volume = 0;
+		for (Polygon p : csg.getPolygons()) {
+			Vector3d a = p.vertices.get(0).pos;
+			for (int i = 1; i < p.vertices.size() - 1; i++) {
+				Vector3d b = p.vertices.get(i).pos;
+				Vector3d c = p.vertices.get(i + 1).pos;
+				volume += a.dot(b.cross(c)) / 6.0;
+			}
+		}
+		return volume;
+	}
+}
@@ -0,0 +1,107 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import javafx.scene.paint.Color;
+
+public class CSGBinaryTest {
+
+	@Test
+	public void roundTrip() throws IOException {
+		CSG a = new Cube(10).toCSG();
+		a.getPolygons().forEach(p -> p.getStorage().set("material:color", "0.5 0.25 1.0"));
+		CSG b = new Sphere(6).toCSG().movex(5);
+		b.getPolygons().forEach(p -> {
+			p.getStorage().set("custom:id", 42);
+			p.getStorage().set("custom:flag", true);
+		});
+		CSG csg = a.union(b).setColor(Color.color(0.1, 0.2, 0.3, 0.5));
+		List<Polygon> expected = csg.getPolygons();
+
+		File file = File.createTempFile("jcsg", ".csg");
+		try {
+			csg.toBinary(file.toPath());
+			CSG loaded = CSG.fromBinary(file.toPath());
+
+			assertEquals(csg.getColor(), loaded.getColor());
+			assertEquals(csg.getBounds().getMin(), loaded.getBounds().getMin());
+			assertEquals(csg.getBounds().getMax(), loaded.getBounds().getMax());
+
+			List<Polygon> actual = loaded.getPolygons();
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				Polygon e = expected.get(i);
+				Polygon p = actual.get(i);
+				assertEquals(e.vertices.size(), p.vertices.size());
+				for (int j = 0; j < e.vertices.size(); j++) {
+					assertEquals(e.vertices.get(j).pos, p.vertices.get(j).pos);
+					assertEquals(e.vertices.get(j).normal, p.vertices.get(j).normal);
+				}
+				assertEquals(e.plane.normal, p.plane.normal);
+				assertEquals(e.plane.dist, p.plane.dist, 0);
+				assertEquals(e.getStorage().getValue("material:color"), p.getStorage().getValue("material:color"));
+				assertEquals(e.getStorage().getValue("custom:id"), p.getStorage().getValue("custom:id"));
+				assertEquals(e.getStorage().getValue("custom:flag"), p.getStorage().getValue("custom:flag"));
+			}
+
+			// shared storages stay shared
+			assertSame(actual.get(0).getStorage(), actual.get(1).getStorage());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsOtherFiles() throws IOException {
+		File file = File.createTempFile("jcsg", ".csg");
+		try {
+			Files.write(file.toPath(), new Cube(1).toCSG().toStlString().getBytes("UTF-8"));
+			CSG.fromBinary(file.toPath());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void rejectsTruncatedFiles() throws IOException {
+		File file = File.createTempFile("jcsg", ".csg");
+		try {
+			new Cube(1).toCSG().toBinary(file.toPath());
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			// cuts through the header, the property tables and the arrays
+			for (int length = 0; length < bytes.length; length += 11) {
+				Files.write(file.toPath(), Arrays.copyOf(bytes, length));
+				assertRejected(file);
+			}
+			Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 4));
+			assertRejected(file);
+
+			// negative entry count of the first storage
+			byte[] corrupt = bytes.clone();
+			ByteBuffer.wrap(corrupt).order(ByteOrder.LITTLE_ENDIAN).putInt(4 * 4 + 4 * 8 + 5 * 4, -1);
+			Files.write(file.toPath(), corrupt);
+			assertRejected(file);
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static void assertRejected(File file) {
+		try {
+			CSG.fromBinary(file.toPath());
+			fail("Read corrupt file of " + file.length() + " bytes");
+		} catch (IOException ex) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import eu.mihosoft.vrl.v3d.parametrics.CSGCache;
+import eu.mihosoft.vrl.v3d.parametrics.CSGDiskCache;
+
+public class CSGCacheTest {
+
+	@Test
+	public void structurallyEqualOperandsHit() {
+		CSGCache cache = new CSGCache();
+		CSG a = new Cube(10).toCSG();
+		CSG b = new Sphere(6).toCSG();
+
+		CSG first = cache.difference(a, b);
+		CSG second = cache.difference(new Cube(10).toCSG(), new Sphere(6).toCSG());
+		assertSame(first, second);
+		assertEquals(1L, cache.getHitCount());
+		assertEquals(1L, cache.getMissCount());
+
+		// operation and operand order are part of the key
+		assertNotSame(first, cache.union(a, b));
+		assertNotSame(first, cache.difference(b, a));
+		assertEquals(3L, cache.getMissCount());
+
+		Transform t = new Transform().translateX(5);
+		CSG moved = cache.transformed(a, t);
+		assertSame(moved, cache.transformed(a, new Transform().translateX(5)));
+		assertNotSame(moved, cache.transformed(a, new Transform().translateX(6)));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedByPolygonCount() {
+		CSG cube = new Cube(1).toCSG();
+		// holds at most 16 cubes
+		CSGCache cache = new CSGCache(6 * 16);
+		List<CSG> results = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			CSG moved = cube.movex(i);
+			results.add(cache.compute("copy", () -> moved, moved));
+		}
+		assertTrue(cache.getEvictionCount() > 0);
+		assertTrue(cache.getWeight() <= cache.getMaxWeight());
+		assertEquals(cache.getWeight(), cache.size() * 6L);
+		assertEquals(16, cache.size());
+		assertEquals(200L - 16, cache.getEvictionCount());
+		// the most recent results are kept
+		assertSame(results.get(199), cache.compute("copy", () -> null, results.get(199)));
+		assertSame(results.get(184), cache.compute("copy", () -> null, results.get(184)));
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0L, cache.getWeight());
+	}
+
+	@Test
+	public void concurrentLookups() throws Exception {
+		CSGCache cache = new CSGCache();
+		CSG a = new Cube(10).toCSG();
+		CSG b = new Cylinder(3, 20, 16).toCSG();
+		CSG expected = cache.intersect(a, b);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<CSG>> futures = new ArrayList<>();
+			for (int i = 0; i < 64; i++) {
+				futures.add(executor.submit(() -> cache.intersect(a, b)));
+			}
+			for (Future<CSG> future : futures) {
+				assertSame(expected, future.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(64L, cache.getHitCount());
+		assertEquals(1L, cache.getMissCount());
+	}
+
+	@Test
+	public void cachesResultsLargerThanASegmentShare() {
+		CSGCache cache = new CSGCache(1000);
+		CSG a = new Sphere(10, 32, 16).toCSG();
+		CSG b = new Cube(4).toCSG().movex(10);
+		CSG first = cache.union(a, b);
+		assertTrue(first.getPolygons().size() > 1000 / 16);
+		assertSame(first, cache.union(a, b));
+		assertEquals(1L, cache.getHitCount());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void diskTierSurvivesNewCache() throws IOException {
+		Path directory = Files.createTempDirectory("jcsg-cache");
+		try {
+			CSG a = new Cube(10).toCSG();
+			CSG b = new Sphere(6).toCSG();
+
+			CSGCache first = new CSGCache();
+			first.setDiskCache(new CSGDiskCache(directory));
+			CSG computed = first.difference(a, b);
+			assertEquals(1L, first.getDiskCache().getMissCount());
+
+			// a second cache, like a new JVM run, loads the stored result
+			CSGCache second = new CSGCache();
+			second.setDiskCache(new CSGDiskCache(directory));
+			CSG loaded = second.difference(new Cube(10).toCSG(), new Sphere(6).toCSG());
+			assertEquals(1L, second.getDiskCache().getHitCount());
+			assertEquals(computed.getPolygons().size(), loaded.getPolygons().size());
+			assertEquals(computed.getBounds().getMin(), loaded.getBounds().getMin());
+			assertEquals(computed.getBounds().getMax(), loaded.getBounds().getMax());
+			assertSame(loaded, second.difference(a, b));
+		} finally {
+			new CSGDiskCache(directory).clear();
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	public void diskTierWriteErrorsAreCounted() throws IOException {
+		Path directory = Files.createTempDirectory("jcsg-cache");
+		CSGDiskCache disk = new CSGDiskCache(directory);
+		Files.delete(directory);
+		CSGCache cache = new CSGCache();
+		cache.setDiskCache(disk);
+		CSG a = new Cube(10).toCSG();
+		CSG b = new Sphere(6).toCSG();
+		CSG result = cache.union(a, b);
+		assertEquals(1L, disk.getWriteErrorCount());
+		assertSame(result, cache.union(a, b));
+	}
+
+	@Test
+	public void diskTierDropsDamagedFiles() throws IOException {
+		Path directory = Files.createTempDirectory("jcsg-cache");
+		try {
+			CSGDiskCache disk = new CSGDiskCache(directory);
+			Path file = directory.resolve("damaged.csg");
+			new Cube(1).toCSG().toBinary(file);
+			byte[] bytes = Files.readAllBytes(file);
+			// cut inside the property tables
+			Files.write(file, Arrays.copyOf(bytes, 90));
+			assertNull(disk.get("damaged"));
+			assertEquals(1L, disk.getMissCount());
+			assertFalse(Files.exists(file));
+		} finally {
+			new CSGDiskCache(directory).clear();
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	public void diskTierEvictsBySize() throws IOException {
+		Path directory = Files.createTempDirectory("jcsg-cache");
+		try {
+			CSG cube = new Cube(1).toCSG();
+			CSGDiskCache disk = new CSGDiskCache(directory, 4096);
+			CSGCache cache = new CSGCache();
+			cache.setDiskCache(disk);
+			for (int i = 0; i < 20; i++) {
+				CSG moved = cube.movex(i);
+				cache.compute("copy", () -> moved, moved);
+			}
+			assertTrue(disk.getEvictionCount() > 0);
+			assertTrue(disk.getSize() <= 4096);
+		} finally {
+			new CSGDiskCache(directory).clear();
+			Files.delete(directory);
+		}
+	}
+}
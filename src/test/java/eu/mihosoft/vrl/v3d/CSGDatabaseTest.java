@@ -0,0 +1,57 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import eu.mihosoft.vrl.v3d.parametrics.CSGDatabase;
+import eu.mihosoft.vrl.v3d.parametrics.LengthParameter;
+import eu.mihosoft.vrl.v3d.parametrics.Parameter;
+
+public class CSGDatabaseTest {
+
+	@Test
+	public void journalIsCompactedIntoDatabaseFile() throws Exception {
+		File previous = CSGDatabase.getDbFile();
+		File file = File.createTempFile("CSGdatabase", ".json");
+		file.delete();
+		try {
+			CSGDatabase.setDbFile(file);
+			CSGDatabase.load().get();
+
+			LengthParameter length = new LengthParameter("journal-test", 10.0, new ArrayList<>());
+			length.setMM(12);
+			length.setMM(13);
+			CSGDatabase.flush();
+
+			String journal = new String(Files.readAllBytes(CSGDatabase.getJournalFile().toPath()),
+					StandardCharsets.UTF_8);
+			assertTrue(journal.contains("journal-test"));
+			// both changes are coalesced into one record
+			assertEquals(1, journal.trim().split("\n").length);
+
+			CSGDatabase.saveDatabase();
+			assertFalse(CSGDatabase.getJournalFile().exists());
+			Map<String, Parameter> saved = new Gson().fromJson(
+					new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8),
+					new TypeToken<Map<String, Parameter>>() {
+					}.getType());
+			assertEquals(Long.valueOf(13000), saved.get("journal-test").getValue());
+			assertEquals(Long.valueOf(13000), CSGDatabase.get("journal-test").getValue());
+		} finally {
+			CSGDatabase.delete("journal-test");
+			// the shutdown hook saves to the current file
+			CSGDatabase.setDbFile(previous);
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import eu.mihosoft.vrl.v3d.parametrics.CSGDatabase;
+import eu.mihosoft.vrl.v3d.parametrics.DependencyGraph;
+import eu.mihosoft.vrl.v3d.parametrics.LengthParameter;
+
+public class DependencyGraphTest {
+
+	@Test
+	public void onlyAffectedNodesAreRegenerated() {
+		DependencyGraph graph = DependencyGraph.getDefault();
+		graph.setAutoRegister(true);
+		LengthParameter width = new LengthParameter("dependency-width", 10.0, new ArrayList<>());
+		LengthParameter height = new LengthParameter("dependency-height", 5.0, new ArrayList<>());
+		AtomicInteger boxes = new AtomicInteger();
+		AtomicInteger cylinders = new AtomicInteger();
+		AtomicInteger assemblies = new AtomicInteger();
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+		CSG box = new Cube(width.getMM()).toCSG().setParameter(width).setRegenerate(previous -> {
+			boxes.incrementAndGet();
+			order.add("box");
+			return new Cube(width.getMM()).toCSG();
+		});
+		CSG cylinder = new Cylinder(2, height.getMM(), 8).toCSG().setParameter(height).setRegenerate(previous -> {
+			cylinders.incrementAndGet();
+			order.add("cylinder");
+			return new Cylinder(2, height.getMM(), 8).toCSG();
+		});
+		CSG assembly = box.difference(cylinder);
+		assembly.setRegenerate(previous -> {
+			assemblies.incrementAndGet();
+			order.add("assembly");
+			return graph.getCurrent(box).difference(graph.getCurrent(cylinder));
+		});
+		assertTrue(assembly.getDependencies().contains(box));
+		assertTrue(assembly.getDependencies().contains(cylinder));
+
+		try {
+			// a drag: several changes, one regeneration
+			for (int i = 0; i < 5; i++) {
+				width.setMM(20 + i);
+			}
+			graph.flush();
+			assertEquals(1, boxes.get());
+			assertEquals(0, cylinders.get());
+			assertEquals(1, assemblies.get());
+			assertEquals("box", order.get(0));
+			assertEquals("assembly", order.get(1));
+			assertEquals(24, width(graph.getCurrent(box)), 1e-9);
+			assertEquals(24, width(graph.getCurrent(assembly)), 1e-9);
+
+			// nothing changed, nothing to do
+			graph.flush();
+			assertEquals(1, boxes.get());
+			assertEquals(1, assemblies.get());
+
+			height.setMM(8);
+			graph.flush();
+			assertEquals(1, boxes.get());
+			assertEquals(1, cylinders.get());
+			assertEquals(2, assemblies.get());
+		} finally {
+			graph.setAutoRegister(false);
+			box.setRegenerate(null);
+			cylinder.setRegenerate(null);
+			assembly.setRegenerate(null);
+			CSGDatabase.delete(width.getName());
+			CSGDatabase.delete(height.getName());
+		}
+	}
+
+	@Test
+	public void regenerationIsOptIn() {
+		DependencyGraph graph = DependencyGraph.getDefault();
+		LengthParameter size = new LengthParameter("dependency-opt-in", 10.0, new ArrayList<>());
+		AtomicInteger regenerations = new AtomicInteger();
+		CSG cube = new Cube(size.getMM()).toCSG().setParameter(size).setRegenerate(previous -> {
+			regenerations.incrementAndGet();
+			return new Cube(size.getMM()).toCSG();
+		});
+		try {
+			size.setMM(20);
+			graph.flush();
+			assertEquals(0, regenerations.get());
+			assertTrue(graph.getDependents(size.getName()).isEmpty());
+
+			graph.register(cube);
+			size.setMM(30);
+			graph.flush();
+			assertEquals(1, regenerations.get());
+			assertEquals(30, width(graph.getCurrent(cube)), 1e-9);
+		} finally {
+			cube.setRegenerate(null);
+			CSGDatabase.delete(size.getName());
+		}
+	}
+
+	private static double width(CSG csg) {
+		return csg.getBounds().getMax().x - csg.getBounds().getMin().x;
+	}
+}
@@ -0,0 +1,41 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class EdgeBoundaryTest {
+
+	@Test
+	public void coplanarFacesAreMerged() {
+		assertEquals(6, Edge.boundaryPolygons(new Cube(2).toCSG()).size());
+
+		// the union splits the faces that are shared by both boxes, the
+		// boundary of each plane group is still a single rectangle
+		CSG union = new Cube(2).toCSG().union(new Cube(2).toCSG().transformed(Transform.unity().translateX(1.5)));
+		assertTrue(union.getPolygons().size() > 6);
+		List<Polygon> boundary = Edge.boundaryPolygons(union);
+		assertEquals(6, boundary.size());
+	}
+
+	@Test
+	public void largePlaneGroup() {
+		// a plate with many holes yields plane groups with thousands of edges
+		CSG plate = new Cube(40, 40, 1).toCSG();
+		for (int x = -18; x <= 18; x += 4) {
+			for (int y = -18; y <= 18; y += 4) {
+				plate = plate.difference(
+						new Cylinder(1, 2, 16).toCSG().transformed(Transform.unity().translate(x, y, -1)));
+			}
+		}
+
+		long time = System.currentTimeMillis();
+		List<Polygon> boundary = Edge.boundaryPolygons(plate);
+		time = System.currentTimeMillis() - time;
+
+		assertFalse(boundary.isEmpty());
+		assertTrue("took " + time + " ms", time < 30000);
+	}
+}
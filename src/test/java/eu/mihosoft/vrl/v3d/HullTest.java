@@ -0,0 +1,102 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import eu.mihosoft.vrl.v3d.ext.quickhull3d.HullUtil;
+
+public class HullTest {
+
+	@Test
+	public void pointCloudMatchesObjectHull() {
+		Random random = new Random(7);
+		int nump = 50000;
+		double[] coords = new double[nump * 3];
+		List<Vector3d> points = new ArrayList<>(nump);
+		for (int i = 0; i < nump; i++) {
+			Vector3d p = new Vector3d(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+			coords[i * 3] = p.x;
+			coords[i * 3 + 1] = p.y;
+			coords[i * 3 + 2] = p.z;
+			points.add(p);
+		}
+
+		int[] triangles = HullUtil.hullTriangles(coords, nump);
+		Set<Integer> indices = new HashSet<>();
+		for (int i : triangles) {
+			indices.add(i);
+		}
+		// closed triangulated surface of genus zero
+		assertEquals(2 * indices.size() - 4, triangles.length / 3);
+
+		CSG hull = HullUtil.hull(points, new PropertyStorage());
+		assertEquals(triangles.length / 3, hull.getPolygons().size());
+		Set<Vector3d> expected = new HashSet<>();
+		for (int i : indices) {
+			expected.add(points.get(i));
+		}
+		Set<Vector3d> actual = new HashSet<>();
+		for (Polygon p : hull.getPolygons()) {
+			for (Vertex v : p.vertices) {
+				actual.add(v.pos);
+			}
+		}
+		assertEquals(expected, actual);
+
+		// every triangle faces away from all points
+		for (int t = 0; t < triangles.length; t += 3) {
+			Vector3d a = point(coords, triangles[t]);
+			Vector3d n = point(coords, triangles[t + 1]).minus(a).cross(point(coords, triangles[t + 2]).minus(a));
+			for (int i = 0; i < nump; i += 7) {
+				assertTrue(n.dot(point(coords, i).minus(a)) < 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void interiorPointsAreCulled() {
+		Random random = new Random(3);
+		int nump = 20000;
+		double[] coords = new double[nump * 3];
+		for (int i = 0; i < nump * 3; i++) {
+			coords[i] = random.nextDouble() * 10 - 5;
+		}
+		// corners of the cube at the end
+		for (int c = 0; c < 8; c++) {
+			int i = nump - 8 + c;
+			coords[i * 3] = (c & 1) == 0 ? -5 : 5;
+			coords[i * 3 + 1] = (c & 2) == 0 ? -5 : 5;
+			coords[i * 3 + 2] = (c & 4) == 0 ? -5 : 5;
+		}
+
+		CSG hull = HullUtil.hull(coords, nump, new PropertyStorage());
+		assertEquals(12, hull.getPolygons().size());
+		assertEquals(new Vector3d(-5, -5, -5), hull.getBounds().getMin());
+		assertEquals(new Vector3d(5, 5, 5), hull.getBounds().getMax());
+		for (int i : HullUtil.hullTriangles(coords, nump)) {
+			assertTrue(i >= nump - 8);
+		}
+	}
+
+	@Test
+	public void csgHullKeepsOutline() {
+		CSG shape = new Cube(10).toCSG().union(new Cube(4).toCSG().movex(6));
+		CSG hull = shape.hull();
+		assertEquals(shape.getBounds().getMin(), hull.getBounds().getMin());
+		assertEquals(shape.getBounds().getMax(), hull.getBounds().getMax());
+		for (Polygon p : hull.getPolygons()) {
+			assertEquals(3, p.vertices.size());
+		}
+	}
+
+	private static Vector3d point(double[] coords, int i) {
+		return new Vector3d(coords[i * 3], coords[i * 3 + 1], coords[i * 3 + 2]);
+	}
+}
@@ -0,0 +1,73 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class IndexedMeshTest {
+
+	@Test
+	public void sharedVerticesAreStoredOnce() {
+		IndexedMesh mesh = new Cube(10).toCSG().toIndexedMesh();
+
+		assertEquals(6, mesh.getNumberOfFaces());
+		assertEquals(8, mesh.getNumberOfVertices());
+		assertEquals(24, mesh.getNumberOfHalfEdges());
+
+		// a closed cube has no boundary edges
+		for (int h = 0; h < mesh.getNumberOfHalfEdges(); h++) {
+			int twin = mesh.getTwin(h);
+			assertTrue(twin >= 0);
+			assertEquals(h, mesh.getTwin(twin));
+			assertEquals(mesh.getOrigin(h), mesh.getOrigin(mesh.getNext(twin)));
+			assertTrue(mesh.getFace(h) != mesh.getFace(twin));
+		}
+	}
+
+	@Test
+	public void polygonsSurviveRoundTrip() {
+		CSG sphere = new Sphere(5).toCSG();
+		List<Polygon> polygons = sphere.getPolygons();
+		List<Polygon> copy = IndexedMesh.fromPolygons(polygons).toPolygons();
+
+		assertEquals(polygons.size(), copy.size());
+		for (int i = 0; i < polygons.size(); i++) {
+			Polygon p = polygons.get(i);
+			Polygon q = copy.get(i);
+			assertEquals(p.vertices.size(), q.vertices.size());
+			for (int j = 0; j < p.vertices.size(); j++) {
+				assertEquals(p.vertices.get(j).pos, q.vertices.get(j).pos);
+				assertEquals(p.vertices.get(j).normal, q.vertices.get(j).normal);
+			}
+			assertEquals(p.plane.normal, q.plane.normal);
+			assertEquals(p.plane.dist, q.plane.dist, 0);
+			assertSame(p.getStorage(), q.getStorage());
+		}
+	}
+
+	@Test
+	public void transformsOperateOnMesh() {
+		CSG cube = new Cube(10).toCSG();
+		Transform transform = new Transform().rotZ(30).translate(1, 2, 3).scaleX(-1);
+
+		CSG expected = cube.transformed(transform);
+		CSG actual = cube.clone().compact().transformed(transform);
+
+		assertEquals(expected.getBounds().getMin(), actual.getBounds().getMin());
+		assertEquals(expected.getBounds().getMax(), actual.getBounds().getMax());
+
+		List<Polygon> e = expected.getPolygons();
+		List<Polygon> a = actual.getPolygons();
+		assertEquals(e.size(), a.size());
+		for (int i = 0; i < e.size(); i++) {
+			assertEquals(e.get(i).plane.normal, a.get(i).plane.normal);
+			for (int j = 0; j < e.get(i).vertices.size(); j++) {
+				assertEquals(e.get(i).vertices.get(j).pos, a.get(i).vertices.get(j).pos);
+			}
+		}
+		assertEquals(BspSplitStrategyTest.volume(expected),
+				BspSplitStrategyTest.volume(actual), 1e-9);
+	}
+}
@@ -0,0 +1,54 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.piro.bezier.BezierPath;
+
+public class LoftTest {
+
+	@Test
+	public void profileWithHoleAlongLine() {
+		Polygon profile = Polygon.fromPoints(new Vector3d(0, 0, 0), new Vector3d(10, 0, 0), new Vector3d(10, 10, 0),
+				new Vector3d(0, 10, 0));
+		List<Polygon> holes = Arrays.asList(Polygon.fromPoints(new Vector3d(3, 3, 0), new Vector3d(7, 3, 0),
+				new Vector3d(7, 7, 0), new Vector3d(3, 7, 0)));
+		profile.getStorage().set(Edge.KEY_POLYGON_HOLES, holes);
+
+		List<Transform> transforms = new ArrayList<>();
+		for (int i = 0; i <= 4; i++) {
+			transforms.add(new Transform().translateZ(i * 5));
+		}
+		CSG loft = Extrude.loft(profile, transforms);
+		SweepTest.assertClosed(loft);
+		assertEquals((100 - 16) * 20, BspSplitStrategyTest.volume(loft), 1e-9);
+		assertEquals(new Vector3d(0, 0, 0), loft.getBounds().getMin());
+		assertEquals(new Vector3d(10, 10, 20), loft.getBounds().getMax());
+
+		// moving against the profile normal keeps the solid outside out
+		Collections.reverse(transforms);
+		CSG reversed = Extrude.loft(profile, transforms);
+		SweepTest.assertClosed(reversed);
+		assertEquals((100 - 16) * 20, BspSplitStrategyTest.volume(reversed), 1e-9);
+	}
+
+	@Test
+	public void concaveProfileAlongBezier() {
+		Polygon profile = Polygon.fromPoints(new Vector3d(0, 0, 0), new Vector3d(4, 0, 0), new Vector3d(4, 1, 0),
+				new Vector3d(1, 1, 0), new Vector3d(1, 4, 0), new Vector3d(0, 4, 0));
+		BezierPath pathA = new BezierPath();
+		pathA.parsePathString("C 0,0 50,0 50,50");
+		BezierPath pathB = new BezierPath();
+		pathB.parsePathString("C 0,0 20,10 50,20");
+
+		CSG loft = Extrude.loft(profile, pathA, pathB, 20);
+		SweepTest.assertClosed(loft);
+		assertTrue(BspSplitStrategyTest.volume(loft) > 0);
+	}
+}
@@ -0,0 +1,63 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MinkowskiTest {
+
+	@Test
+	public void convexPairIsSingleHull() {
+		CSG sum = new Cube(10).toCSG().minkowskiSum(new Cube(2).toCSG());
+		assertEquals(new Vector3d(-6, -6, -6), sum.getBounds().getMin());
+		assertEquals(new Vector3d(6, 6, 6), sum.getBounds().getMax());
+		assertTrue(Minkowski.isConvex(sum));
+	}
+
+	@Test
+	public void faceHullsMatchMovedCopies() {
+		CSG shape = new Cube(10).toCSG().union(new Cube(4).toCSG().movex(6));
+		CSG tool = new Icosahedron(1).toCSG();
+		List<CSG> faces = shape.minkowski(tool);
+		assertEquals(shape.getPolygons().size(), faces.size());
+		for (int i = 0; i < faces.size(); i++) {
+			List<CSG> corners = new ArrayList<>();
+			for (Vertex v : shape.getPolygons().get(i).vertices) {
+				corners.add(tool.move(v));
+			}
+			CSG expected = corners.remove(0).hull(corners);
+			assertEquals(expected.getBounds().getMin(), faces.get(i).getBounds().getMin());
+			assertEquals(expected.getBounds().getMax(), faces.get(i).getBounds().getMax());
+		}
+	}
+
+	@Test
+	public void toolAwayFromOrigin() {
+		CSG shape = new Cube(10).toCSG().union(new Cube(10).toCSG().movex(10).movey(10));
+		CSG tool = new Cube(1).toCSG().movex(50);
+		CSG sum = shape.minkowskiSum(tool);
+		assertEquals(new Vector3d(44.5, -5.5, -5.5), sum.getBounds().getMin());
+		assertEquals(new Vector3d(65.5, 15.5, 5.5), sum.getBounds().getMax());
+		// same as the sum with the centered tool, moved
+		CSG centered = shape.minkowskiSum(new Cube(1).toCSG());
+		assertEquals(BspSplitStrategyTest.volume(centered), BspSplitStrategyTest.volume(sum), 1e-6);
+	}
+
+	@Test
+	public void concaveShapeIsOffset() {
+		CSG shape = new Cube(10).toCSG().union(new Cube(10).toCSG().movex(10).movey(10));
+		assertFalse(Minkowski.isConvex(shape));
+
+		CSG sum = shape.minkowskiSum(new Cube(2).toCSG());
+		assertEquals(new Vector3d(-6, -6, -6), sum.getBounds().getMin());
+		assertEquals(new Vector3d(16, 16, 6), sum.getBounds().getMax());
+
+		CSG inset = shape.toolOffset(-1);
+		Bounds b = inset.getBounds();
+		assertTrue(b.getMin().x > -5 && b.getMax().x < 15);
+		assertTrue(b.getMin().z > -5 && b.getMax().z < 5);
+	}
+}
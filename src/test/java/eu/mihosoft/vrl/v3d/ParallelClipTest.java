@@ -0,0 +1,66 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ParallelClipTest {
+
+	@Test
+	public void parallelClippingMatchesSequential() {
+		CSG cube = new Cube(10).toCSG();
+		CSG sphere = new Sphere(6, 64, 32).toCSG();
+
+		int threshold = CSG.getParallelClipThreshold();
+		try {
+			CSG.setParallelClipThreshold(0);
+			CSG sequential = cube.difference(sphere);
+			CSG.setParallelClipThreshold(16);
+			CSG parallel = cube.difference(sphere);
+
+			assertEquals(sequential.getPolygons().size(), parallel.getPolygons().size());
+			assertEquals(BspSplitStrategyTest.volume(sequential), BspSplitStrategyTest.volume(parallel), 1e-6);
+		} finally {
+			CSG.setParallelClipThreshold(threshold);
+		}
+	}
+
+	@Test
+	public void deepTreeDoesNotOverflow() throws Throwable {
+		// parallel slabs produce a degenerate tree with one node per slab
+		List<Polygon> polygons = new ArrayList<>();
+		int n = 10000;
+		for (int i = 0; i < n; i++) {
+			polygons.add(new Polygon(new Vertex(new Vector3d(0, 0, i), new Vector3d(0, 0, 1)),
+					new Vertex(new Vector3d(1, 0, i), new Vector3d(0, 0, 1)),
+					new Vertex(new Vector3d(1, 1, i), new Vector3d(0, 0, 1)),
+					new Vertex(new Vector3d(0, 1, i), new Vector3d(0, 0, 1))));
+		}
+
+		Throwable[] error = new Throwable[1];
+		int[] count = new int[1];
+
+		// a small stack makes recursive traversal fail long before n nodes
+		Thread thread = new Thread(null, () -> {
+			try {
+				Node node = new Node(polygons);
+				node.invert();
+				Node copy = node.clone();
+				copy.clipTo(new Node(new Cube(Vector3d.xyz(10, 10, n / 2), Vector3d.xyz(4, 4, n)).toPolygons()));
+				count[0] = copy.allPolygons().size();
+			} catch (Throwable t) {
+				error[0] = t;
+			}
+		}, "deep-bsp", 256 * 1024);
+		thread.start();
+		thread.join();
+
+		if (error[0] != null) {
+			throw error[0];
+		}
+		assertEquals(n, count[0]);
+	}
+}
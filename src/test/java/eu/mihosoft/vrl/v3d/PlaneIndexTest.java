@@ -0,0 +1,63 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PlaneIndexTest {
+
+	@Test
+	public void groupsMatchPairwiseComparison() {
+		CSG csg = new Sphere(2, 24, 12).toCSG().union(new Cube(3).toCSG().transformed(Transform.unity().rotZ(17)));
+		List<Polygon> polygons = csg.getPolygons();
+
+		List<List<Polygon>> expected = new ArrayList<>();
+		for (Polygon p : polygons) {
+			List<Polygon> group = null;
+			for (List<Polygon> g : expected) {
+				Plane plane = g.get(0).plane;
+				if (plane.normal.dot(p.plane.normal) >= Math.cos(PlaneIndex.DEFAULT_ANGLE_TOLERANCE)
+						&& Math.abs(plane.dist - p.plane.dist) <= PlaneIndex.DEFAULT_DISTANCE_TOLERANCE) {
+					group = g;
+					break;
+				}
+			}
+			if (group == null) {
+				group = new ArrayList<>();
+				expected.add(group);
+			}
+			group.add(p);
+		}
+
+		assertEquals(expected, csg.getPlaneGroups());
+	}
+
+	@Test
+	public void parallelPlanesAreSeparated() {
+		CSG steps = new Cube(2).toCSG().union(new Cube(2).toCSG().transformed(Transform.unity().translate(1, 0, 1)));
+
+		// top faces at z=1 and z=2 share the normal but not the plane
+		int up = 0;
+		for (List<Polygon> group : steps.getPlaneGroups()) {
+			if (group.get(0).plane.normal.z > 0.99)
+				up++;
+		}
+		assertEquals(2, up);
+
+		int upCoarse = 0;
+		for (List<Polygon> group : steps.getPlaneGroups(0.01, 5)) {
+			if (group.get(0).plane.normal.z > 0.99)
+				upCoarse++;
+		}
+		assertEquals(1, upCoarse);
+
+		PlaneIndex index = new PlaneIndex();
+		int id = index.add(new Plane(new Vector3d(0, 0, 1), 1));
+		assertEquals(id, index.find(new Plane(new Vector3d(0.001, 0, 1), 1 + 1e-4)));
+		assertEquals(-1, index.find(new Plane(new Vector3d(0, 0, 1), 1.1)));
+		assertEquals(-1, index.find(new Plane(new Vector3d(0, 0, -1), 1)));
+	}
+}
@@ -0,0 +1,77 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PlaneSplitTest {
+
+	@Test
+	public void spanningPolygonIsSplit() {
+		Polygon square = Polygon.fromPoints(
+				Vector3d.xyz(0, 0, 0), Vector3d.xyz(2, 0, 0),
+				Vector3d.xyz(2, 2, 0), Vector3d.xyz(0, 2, 0));
+
+		List<Polygon> coplanarFront = new ArrayList<>();
+		List<Polygon> coplanarBack = new ArrayList<>();
+		List<Polygon> front = new ArrayList<>();
+		List<Polygon> back = new ArrayList<>();
+
+		new Plane(Vector3d.X_ONE, 0.5).splitPolygon(square, coplanarFront, coplanarBack, front, back);
+
+		assertTrue(coplanarFront.isEmpty());
+		assertTrue(coplanarBack.isEmpty());
+		assertEquals(1, front.size());
+		assertEquals(1, back.size());
+
+		assertEquals(4, front.get(0).vertices.size());
+		assertEquals(4, back.get(0).vertices.size());
+		assertEquals(3.0, area(front.get(0)), 1e-9);
+		assertEquals(1.0, area(back.get(0)), 1e-9);
+
+		for (Vertex v : back.get(0).vertices) {
+			assertTrue(v.pos.x <= 0.5 + Plane.EPSILON);
+		}
+
+		assertSame(square.getStorage(), front.get(0).getStorage());
+		assertEquals(square.plane.normal, front.get(0).plane.normal);
+		assertNotSame(square.plane, front.get(0).plane);
+
+		// the fragments must not share mutable vertices
+		for (Vertex v : front.get(0).vertices) {
+			for (Vertex w : back.get(0).vertices) {
+				assertNotSame(v, w);
+			}
+		}
+	}
+
+	@Test
+	public void vertexOnPlaneDoesNotProduceDegenerateFragment() {
+		Polygon triangle = Polygon.fromPoints(
+				Vector3d.xyz(0, 0, 0), Vector3d.xyz(2, 0, 0), Vector3d.xyz(0, 2, 0));
+
+		List<Polygon> front = new ArrayList<>();
+		List<Polygon> back = new ArrayList<>();
+
+		// touches the triangle in a single vertex
+		new Plane(Vector3d.X_ONE, 0).splitPolygon(triangle, front, back, front, back);
+
+		assertEquals(1, front.size());
+		assertTrue(back.isEmpty());
+		assertSame(triangle, front.get(0));
+	}
+
+	private static double area(Polygon p) {
+		Vector3d a = p.vertices.get(0).pos;
+		double area = 0;
+		for (int i = 1; i < p.vertices.size() - 1; i++) {
+			Vector3d b = p.vertices.get(i).pos;
+			Vector3d c = p.vertices.get(i + 1).pos;
+			area += b.minus(a).cross(c.minus(a)).magnitude() / 2.0;
+		}
+		return area;
+	}
+}
@@ -0,0 +1,39 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PolygonBVHTest {
+
+	@Test
+	public void containsPoint() {
+		PolygonBVH bvh = new PolygonBVH(new Sphere(5, 32, 16).toCSG().getPolygons());
+
+		assertTrue(bvh.contains(Vector3d.ZERO));
+		assertTrue(bvh.contains(Vector3d.xyz(0, 0, 4)));
+		assertFalse(bvh.contains(Vector3d.xyz(0, 0, 6)));
+		assertFalse(bvh.contains(Vector3d.xyz(10, 10, 10)));
+	}
+
+	@Test
+	public void booleanOperationsMatchFullBsp() {
+		CSG plate = new Cube(Vector3d.ZERO, Vector3d.xyz(100, 100, 5)).toCSG();
+		CSG hole = new Cylinder(2, 20, 16).toCSG().movez(-10).movex(20);
+		CSG inner = new Cube(10).toCSG();
+		CSG outer = new Cube(40).toCSG();
+
+		CSG[][] operands = { { plate, hole }, { outer, inner }, { inner, outer }, { plate, inner.movex(200) } };
+
+		for (CSG[] pair : operands) {
+			CSG a = pair[0].clone().optimization(CSG.OptType.NONE);
+			CSG b = pair[1];
+			CSG bvh = pair[0].clone().optimization(CSG.OptType.POLYGON_BVH);
+
+			assertEquals(BspSplitStrategyTest.volume(a.difference(b)),
+					BspSplitStrategyTest.volume(bvh.difference(b)), 1e-6);
+			assertEquals(BspSplitStrategyTest.volume(a.union(b)),
+					BspSplitStrategyTest.volume(bvh.union(b)), 1e-6);
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ProvenanceTest {
+
+	@Test
+	public void test() {
+		ProvenanceMode csgMode = CSG.getProvenanceMode();
+		ProvenanceMode polygonMode = CSG.getPolygonProvenanceMode();
+		int rate = CSG.getProvenanceSampleRate();
+		try {
+			assertNull(new Cube(1).toCSG().getPolygons().get(0).getCreationEventStackTrace());
+
+			CSG.setPolygonProvenanceMode(ProvenanceMode.LAZY);
+			assertNotNull(new Cube(1).toCSG().getPolygons().get(0).getCreationEventStackTrace());
+
+			CSG.setPolygonProvenanceMode(ProvenanceMode.SAMPLED);
+			CSG.setProvenanceSampleRate(3);
+			int recorded = 0;
+			for (int i = 0; i < 30; i++) {
+				if (Polygon.fromPoints(new Vector3d(0, 0, 0), new Vector3d(1, 0, 0), new Vector3d(0, 1, 0))
+						.getCreationEventStackTrace() != null)
+					recorded++;
+			}
+			assertEquals(10, recorded);
+
+			for (ProvenanceMode mode : ProvenanceMode.values()) {
+				CSG.setProvenanceMode(mode);
+				CSG a = new Cube(1).toCSG().addCreationEventString("a.groovy:1");
+				CSG b = new Cube(1).toCSG().addCreationEventString("b.groovy:2").addCreationEventString("a.groovy:1");
+				CSG c = a.union(b.transformed(Transform.unity().translateX(3)));
+				assertEquals(mode.name(), 2, c.getCreationEventStackTraceList().size());
+			}
+		} finally {
+			CSG.setProvenanceMode(csgMode);
+			CSG.setPolygonProvenanceMode(polygonMode);
+			CSG.setProvenanceSampleRate(rate);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidSampleRate() {
+		CSG.setProvenanceSampleRate(0);
+	}
+}
@@ -0,0 +1,141 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class STLTest {
+
+	@Test
+	public void binaryAndAsciiFilesMatch() throws IOException {
+		CSG csg = new Sphere(3).toCSG().union(new Cube(4).toCSG());
+		// fan triangulation, as used by the ascii writer
+		List<Vector3d[]> triangles = new ArrayList<>();
+		for (Polygon p : csg.getPolygons()) {
+			for (int i = 0; i < p.vertices.size() - 2; i++) {
+				triangles.add(new Vector3d[] { p.vertices.get(0).pos, p.vertices.get(i + 1).pos,
+						p.vertices.get(i + 2).pos });
+			}
+		}
+
+		File ascii = File.createTempFile("jcsg", ".stl");
+		File binary = File.createTempFile("jcsg", ".stl");
+		try {
+			Files.write(ascii.toPath(), csg.toStlString().getBytes("UTF-8"));
+
+			ByteBuffer buffer = ByteBuffer.allocate(84 + 50 * triangles.size()).order(ByteOrder.LITTLE_ENDIAN);
+			// binary header that looks like an ascii header
+			buffer.put("solid binary".getBytes("UTF-8"));
+			buffer.putInt(80, triangles.size());
+			buffer.position(84);
+			for (Vector3d[] t : triangles) {
+				buffer.putFloat(0).putFloat(0).putFloat(0);
+				for (Vector3d v : t) {
+					buffer.putFloat((float) v.x).putFloat((float) v.y).putFloat((float) v.z);
+				}
+				buffer.putShort((short) 0);
+			}
+			Files.write(binary.toPath(), buffer.array());
+
+			CSG fromAscii = STL.file(ascii.toPath());
+			CSG fromBinary = STL.file(binary.toPath(), true);
+
+			assertEquals(triangles.size(), fromBinary.getPolygons().size());
+			assertEquals(fromAscii.getPolygons().size(), fromBinary.getPolygons().size());
+			for (int i = 0; i < triangles.size(); i++) {
+				Vector3d[] expected = triangles.get(i);
+				Polygon actual = fromBinary.getPolygons().get(i);
+				for (int j = 0; j < 3; j++) {
+					Vector3d e = expected[j];
+					Vector3d a = actual.vertices.get(j).pos;
+					assertEquals(e.x, a.x, 1e-5);
+					assertEquals(e.y, a.y, 1e-5);
+					assertEquals(e.z, a.z, 1e-5);
+				}
+			}
+			assertEquals(BspSplitStrategyTest.volume(fromAscii), BspSplitStrategyTest.volume(fromBinary), 1e-3);
+			assertEquals(BspSplitStrategyTest.volume(csg), BspSplitStrategyTest.volume(fromBinary), 1e-3);
+		} finally {
+			ascii.delete();
+			binary.delete();
+		}
+	}
+
+	@Test
+	public void writersRoundTrip() throws IOException {
+		CSG csg = new Sphere(3).toCSG().difference(new Cube(4).toCSG());
+		CSG compact = csg.clone().compact();
+
+		StringWriter ascii = new StringWriter();
+		csg.toStlString(ascii);
+		assertEquals(csg.toStlString(), ascii.toString());
+		StringWriter meshAscii = new StringWriter();
+		compact.toStlString(meshAscii);
+		assertEquals(compact.toStlString(), meshAscii.toString());
+
+		for (CSG source : new CSG[] { csg, compact }) {
+			File binary = File.createTempFile("jcsg", ".stl");
+			try {
+				try (OutputStream out = Files.newOutputStream(binary.toPath())) {
+					source.toStlBinary(out);
+				}
+				CSG read = STL.file(binary.toPath());
+				assertEquals(STL.file(writeAscii(source)).getPolygons().size(), read.getPolygons().size());
+				assertEquals(BspSplitStrategyTest.volume(csg), BspSplitStrategyTest.volume(read), 1e-3);
+			} finally {
+				binary.delete();
+			}
+		}
+	}
+
+	@Test
+	public void paddedBinaryFile() throws IOException {
+		CSG cube = new Cube(2).toCSG();
+		File binary = File.createTempFile("jcsg", ".stl");
+		try {
+			try (OutputStream out = Files.newOutputStream(binary.toPath())) {
+				cube.toStlBinary(out);
+				// trailing bytes written by some exporters
+				out.write(new byte[2]);
+			}
+			assertEquals(12, STL.file(binary.toPath()).getPolygons().size());
+		} finally {
+			binary.delete();
+		}
+	}
+
+	@Test
+	public void asciiFileWithHighBytes() throws IOException {
+		CSG cube = new Cube(2).toCSG();
+		String stl = cube.toStlString().replaceFirst("solid \\S*", "solid \u00ffcube");
+		File ascii = File.createTempFile("jcsg", ".stl");
+		try {
+			Files.write(ascii.toPath(), stl.getBytes("ISO-8859-1"));
+			assertEquals(STL.file(writeAscii(cube)).getPolygons().size(),
+					STL.file(ascii.toPath()).getPolygons().size());
+		} finally {
+			ascii.delete();
+		}
+	}
+
+	private static Path writeAscii(CSG csg) throws IOException {
+		File f = File.createTempFile("jcsg", ".stl");
+		f.deleteOnExit();
+		try (Writer writer = Files.newBufferedWriter(f.toPath())) {
+			csg.toStlString(writer);
+		}
+		return f.toPath();
+	}
+}
@@ -5,6 +5,7 @@ import org.junit.Test;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 
@@ -40,4 +41,86 @@ public class SliceTest {
 
 		System.out.println(finished.toStlString());
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void directSliceOutlineAndHole() throws Exception {
+		CSG carrot = new Cube(10, 10, 10).toCSG().difference(new Cube(4, 4, 100).toCSG());
+
+		List<Polygon> polygons = new DirectSlice().slice(carrot, new Transform().translateZ(2), 0);
+		assertEquals(2, polygons.size());
+
+		Polygon outline = area(polygons.get(0)) > 0 ? polygons.get(0) : polygons.get(1);
+		Polygon hole = outline == polygons.get(0) ? polygons.get(1) : polygons.get(0);
+		assertEquals(4, outline.vertices.size());
+		assertEquals(100, area(outline), 1e-6);
+		assertEquals(-16, area(hole), 1e-6);
+
+		List<Polygon> holes = outline.getStorage().<List<Polygon>> getValue(Edge.KEY_POLYGON_HOLES).get();
+		assertEquals(1, holes.size());
+		assertSame(hole, holes.get(0));
+	}
+
+	@Test
+	public void directSliceInset() throws Exception {
+		CSG carrot = new Cube(10, 10, 10).toCSG().difference(new Cube(4, 4, 100).toCSG());
+
+		List<Polygon> polygons = new DirectSlice().slice(carrot, new Transform(), 1);
+		assertEquals(2, polygons.size());
+		double total = area(polygons.get(0)) + area(polygons.get(1));
+		assertEquals(64 - 36, total, 1e-6);
+	}
+
+	@Test
+	public void directSliceMissesSolid() throws Exception {
+		CSG carrot = new Cube(10, 10, 10).toCSG();
+
+		assertTrue(new DirectSlice().slice(carrot, new Transform().translateZ(20), 0).isEmpty());
+	}
+
+	@Test
+	public void sliceLayersMatchesSingleSlices() throws Exception {
+		CSG carrot = new Sphere(10, 16, 8).toCSG().difference(new Cylinder(3, 30, 12).toCSG().movez(-15));
+		double[] offsets = new double[41];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = -10.5 + i * 0.5;
+		}
+
+		List<List<Polygon>> layers = Slice.sliceLayers(carrot, new Transform(), offsets)
+				.collect(Collectors.toList());
+		assertEquals(offsets.length, layers.size());
+
+		for (int i = 0; i < offsets.length; i++) {
+			List<Polygon> expected = new DirectSlice().slice(carrot, new Transform().translateZ(offsets[i]), 0);
+			List<Polygon> actual = layers.get(i);
+			assertEquals(expected.size(), actual.size());
+			assertEquals(areas(expected), areas(actual));
+			for (Polygon polygon : actual) {
+				for (Vertex v : polygon.vertices) {
+					assertEquals(offsets[i], v.pos.z, 1e-9);
+				}
+			}
+		}
+		assertTrue(layers.get(0).isEmpty());
+		assertEquals(2, layers.get(21).size());
+	}
+
+	private static List<Long> areas(List<Polygon> polygons) {
+		List<Long> areas = new ArrayList<>();
+		for (Polygon polygon : polygons) {
+			areas.add(Math.round(area(polygon) * 1e6));
+		}
+		Collections.sort(areas);
+		return areas;
+	}
+
+	private static double area(Polygon polygon) {
+		double area = 0;
+		List<Vertex> vertices = polygon.vertices;
+		for (int i = 0; i < vertices.size(); i++) {
+			Vector3d a = vertices.get(i).pos;
+			Vector3d b = vertices.get((i + 1) % vertices.size()).pos;
+			area += a.x * b.y - b.x * a.y;
+		}
+		return area / 2;
+	}
+}
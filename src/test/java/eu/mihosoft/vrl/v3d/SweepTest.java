@@ -0,0 +1,97 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SweepTest {
+
+	@Test
+	public void segmentsMatchHullOfUnion() {
+		CSG slice = new Cube(2, 2, 4).toCSG();
+		List<CSG> parts = new ArrayList<>();
+		for (int i = 0; i <= 4; i++) {
+			parts.add(slice.movey(10).rotz(i * 30));
+		}
+		List<CSG> segments = Sweep.segments(parts);
+		assertEquals(parts.size() - 1, segments.size());
+		for (int i = 0; i < segments.size(); i++) {
+			CSG expected = parts.get(i).union(parts.get(i + 1)).hull();
+			assertEquals(expected.getBounds().getMin(), segments.get(i).getBounds().getMin());
+			assertEquals(expected.getBounds().getMax(), segments.get(i).getBounds().getMax());
+			assertEquals(BspSplitStrategyTest.volume(expected),
+					BspSplitStrategyTest.volume(segments.get(i)), 1e-9);
+		}
+	}
+
+	@Test
+	public void revolveKeepsLastSlice() {
+		CSG slice = new Cube(2, 2, 4).toCSG();
+		ArrayList<CSG> parts = Extrude.revolve(slice, 10, 90, 3);
+		assertEquals(4, parts.size());
+		assertEquals(slice.movey(10).rotz(90).getBounds().getMax(), parts.get(3).getBounds().getMax());
+	}
+
+	@Test
+	public void planarSectionsAreStitched() {
+		CSG square = CSG.fromPolygons(Polygon.fromPoints(new Vector3d(8, 0, -1), new Vector3d(10, 0, -1),
+				new Vector3d(10, 0, 1), new Vector3d(8, 0, 1)));
+		assertTrue(Sweep.isPlanar(square));
+
+		List<CSG> sections = new ArrayList<>();
+		for (int i = 0; i <= 36; i++) {
+			sections.add(square.rotz(i * 10));
+		}
+		CSG ring = Sweep.solid(sections);
+		assertClosed(ring);
+		// every segment is a frustum of the annulus sector between the
+		// inner and outer chord
+		double half = Math.toRadians(5);
+		double expected = 36 * 2 * Math.sin(half) * Math.cos(half) * (100 - 64);
+		assertEquals(expected, BspSplitStrategyTest.volume(ring), 1e-9);
+
+		CSG arc = Sweep.solid(sections.subList(0, 10));
+		assertClosed(arc);
+		assertEquals(expected / 4, BspSplitStrategyTest.volume(arc), 1e-9);
+	}
+
+	@Test
+	public void solidSectionsAreUnioned() {
+		CSG slice = new Cube(2, 2, 4).toCSG();
+		List<CSG> parts = new ArrayList<>();
+		for (int i = 0; i <= 4; i++) {
+			parts.add(slice.movey(10).rotz(i * 30));
+		}
+		CSG solid = Sweep.solid(parts);
+		List<CSG> segments = Sweep.segments(parts);
+		CSG expected = segments.get(0).union(segments.subList(1, segments.size()));
+		assertEquals(BspSplitStrategyTest.volume(expected), BspSplitStrategyTest.volume(solid), 1e-9);
+	}
+
+	/**
+	 * Asserts that every edge of the specified csg is used exactly once in
+	 * each direction.
+	 *
+	 * @param csg the csg
+	 */
+	static void assertClosed(CSG csg) {
+		Map<String, Integer> edges = new HashMap<>();
+		for (Polygon p : csg.getPolygons()) {
+			for (int i = 0; i < p.vertices.size(); i++) {
+				Vector3d a = p.vertices.get(i).pos;
+				Vector3d b = p.vertices.get((i + 1) % p.vertices.size()).pos;
+				edges.merge(a + "|" + b, 1, Integer::sum);
+			}
+		}
+		for (Map.Entry<String, Integer> e : edges.entrySet()) {
+			assertEquals(e.getKey(), Integer.valueOf(1), e.getValue());
+			String[] ends = e.getKey().split("\\|");
+			assertTrue(e.getKey(), edges.containsKey(ends[1] + "|" + ends[0]));
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TreeReductionTest {
+
+	@Test
+	public void treeReductionMatchesFold() {
+		List<CSG> links = new ArrayList<>();
+		for (int i = 0; i < 12; i++) {
+			// every other cube overlaps its neighbours
+			links.add(new Cube(4).toCSG().movex(i * (i % 2 == 0 ? 3 : 5)));
+		}
+		CSG base = new Cube(Vector3d.xyz(20, 0, -2), Vector3d.xyz(60, 2, 2)).toCSG();
+
+		boolean enabled = CSG.isTreeReduction();
+		try {
+			CSG.setTreeReduction(false);
+			CSG foldUnion = base.union(links);
+			CSG foldDifference = base.difference(links);
+
+			CSG.setTreeReduction(true);
+			CSG treeUnion = base.union(links);
+			CSG treeDifference = base.difference(links);
+
+			assertEquals(BspSplitStrategyTest.volume(foldUnion), BspSplitStrategyTest.volume(treeUnion), 1e-6);
+			assertEquals(BspSplitStrategyTest.volume(foldDifference), BspSplitStrategyTest.volume(treeDifference),
+					1e-6);
+			assertEquals(foldUnion.getColor(), treeUnion.getColor());
+		} finally {
+			CSG.setTreeReduction(enabled);
+		}
+	}
+}
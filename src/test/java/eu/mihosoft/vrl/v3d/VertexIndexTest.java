@@ -0,0 +1,105 @@
+package eu.mihosoft.vrl.v3d;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class VertexIndexTest {
+
+	@Test
+	public void matchesVectorEquals() {
+		Random random = new Random(7);
+		List<Vector3d> points = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			// coarse grid plus jitter around the tolerance, so that matches
+			// occur across cell boundaries
+			Vector3d p = new Vector3d(random.nextInt(10) * 1e-5, random.nextInt(10) * 1e-5, random.nextInt(3));
+			points.add(p.plus(new Vector3d(random.nextGaussian(), random.nextGaussian(), random.nextGaussian())
+					.times(Plane.EPSILON)));
+		}
+
+		VertexIndex index = new VertexIndex();
+		List<Vector3d> unique = new ArrayList<>();
+		for (Vector3d p : points) {
+			int expected = unique.indexOf(p);
+			if (expected < 0) {
+				unique.add(p);
+				expected = unique.size() - 1;
+			}
+			assertEquals(expected, index.add(p));
+		}
+		assertEquals(unique.size(), index.size());
+		assertEquals(-1, index.find(new Vector3d(100, 100, 100)));
+		assertEquals(unique.get(3), index.get(3));
+	}
+
+	@Test
+	public void longIntMapMatchesHashMap() {
+		Random random = new Random(3);
+		LongIntMap map = new LongIntMap();
+		Map<Long, Integer> expected = new HashMap<>();
+		for (int i = 0; i < 100000; i++) {
+			long key = random.nextInt(2000) * 0x100000001L;
+			int value = random.nextInt(1000);
+			switch (random.nextInt(3)) {
+			case 0:
+				assertEquals(expected.getOrDefault(key, -1).intValue(), map.put(key, value));
+				expected.put(key, value);
+				break;
+			case 1:
+				Integer removed = expected.remove(key);
+				assertEquals(removed == null ? -1 : removed, map.remove(key));
+				break;
+			default:
+				assertEquals(expected.getOrDefault(key, -1).intValue(), map.get(key));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+	}
+
+	@Test
+	public void objExportWeldsVertices() throws IOException {
+		CSG cube = new Cube(2).toCSG();
+		String obj = cube.toObjString();
+		assertEquals(8, count(obj, "v "));
+		assertEquals(12, count(obj, "f "));
+
+		StringWriter writer = new StringWriter();
+		cube.toObjString(writer);
+		assertEquals(obj, writer.toString());
+
+		CSG csg = cube.union(new Sphere(1.2).toCSG().transformed(Transform.unity().translateX(1)));
+		File f = File.createTempFile("jcsg", ".obj");
+		File mtl = new File(f.getPath().replaceAll("\\.obj$", ".mtl"));
+		try {
+			csg.toObjFiles(f.toPath());
+			ObjFile objFile = csg.toObj();
+			String expected = objFile.getObj().replace(ObjFile.MTL_NAME, mtl.getName());
+			assertEquals(expected, new String(Files.readAllBytes(f.toPath()), "UTF-8"));
+			assertEquals(objFile.getMtl(), new String(Files.readAllBytes(mtl.toPath()), "UTF-8"));
+			assertTrue(expected.startsWith("mtllib " + mtl.getName() + "\n"));
+		} finally {
+			f.delete();
+			mtl.delete();
+		}
+	}
+
+	private static int count(String s, String prefix) {
+		int count = 0;
+		for (String line : s.split("\n")) {
+			if (line.startsWith(prefix))
+				count++;
+		}
+		return count;
+	}
+}